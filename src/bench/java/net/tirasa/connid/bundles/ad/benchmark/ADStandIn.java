@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.benchmark;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.ReadOnlyEntry;
+import com.unboundid.ldap.sdk.schema.AttributeTypeDefinition;
+import com.unboundid.ldap.sdk.schema.ObjectClassDefinition;
+import com.unboundid.ldap.sdk.schema.Schema;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.util.ADDirSyncControl;
+import org.identityconnectors.common.security.GuardedString;
+
+/**
+ * In-process LDAP server standing in for an AD domain controller, for load tests not requiring a real AD.
+ * It is an UnboundID in-memory directory server with AD attribute types and object classes, publishing the
+ * classSchema and attributeSchema entries read by the connector, and emulating USNs, DirSync, binary objectGUID and
+ * objectSid and range retrieval: see {@link ADStandInInterceptor}.
+ */
+public class ADStandIn implements AutoCloseable {
+
+    public static final String DOMAIN = "DC=tirasa,DC=net";
+
+    public static final String USERS = "CN=Users," + DOMAIN;
+
+    public static final String CONFIGURATION = "CN=Configuration," + DOMAIN;
+
+    public static final String SCHEMA = "CN=Schema," + CONFIGURATION;
+
+    public static final String ADMINISTRATOR = "CN=Administrator," + USERS;
+
+    /**
+     * MaxValRange of AD domain controllers from Windows Server 2008 on.
+     */
+    public static final int MAX_VAL_RANGE = 1500;
+
+    private static final String PASSWORD = "Password123";
+
+    private static final String[] SUPPORTED_CONTROLS = {
+        "1.2.840.113556.1.4.319",
+        "1.2.840.113556.1.4.417",
+        "1.2.840.113556.1.4.473",
+        "1.2.840.113556.1.4.801",
+        ADDirSyncControl.OID,
+        "1.3.6.1.1.13.2" };
+
+    private final Schema schema;
+
+    private final ADStandInInterceptor interceptor;
+
+    private final InMemoryDirectoryServer server;
+
+    private LDAPConnection connection;
+
+    public ADStandIn() throws LDAPException {
+        this(MAX_VAL_RANGE);
+    }
+
+    public ADStandIn(final int maxValRange) throws LDAPException {
+        schema = ADStandInSchema.get();
+        interceptor = new ADStandInInterceptor(maxValRange);
+
+        final InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(DOMAIN);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldap", 0));
+        config.addAdditionalBindCredentials(ADMINISTRATOR, PASSWORD);
+        config.setSchema(schema);
+        config.setRootDSEEntry(rootDSE());
+        config.addInMemoryOperationInterceptor(interceptor);
+
+        server = new InMemoryDirectoryServer(config);
+        interceptor.setServer(server);
+    }
+
+    private static ReadOnlyEntry rootDSE() {
+        final Entry entry = new Entry("");
+        entry.addAttribute("objectClass", "top");
+        entry.addAttribute("namingContexts", DOMAIN, CONFIGURATION, SCHEMA);
+        entry.addAttribute("defaultNamingContext", DOMAIN);
+        entry.addAttribute("rootDomainNamingContext", DOMAIN);
+        entry.addAttribute("configurationNamingContext", CONFIGURATION);
+        entry.addAttribute("schemaNamingContext", SCHEMA);
+        entry.addAttribute("dnsHostName", "standin.tirasa.net");
+        entry.addAttribute("subschemaSubentry", "cn=schema");
+        entry.addAttribute("supportedLDAPVersion", "3");
+        entry.addAttribute("supportedControl", SUPPORTED_CONTROLS);
+        return new ReadOnlyEntry(entry);
+    }
+
+    /**
+     * Start listening and add domain, containers and schema entries.
+     *
+     * @throws LDAPException if the server could not be started
+     */
+    public void start() throws LDAPException {
+        server.startListening();
+        connection = new LDAPConnection("localhost", server.getListenPort(), ADMINISTRATOR, PASSWORD);
+
+        final Entry domain = new Entry(DOMAIN);
+        domain.addAttribute("objectClass", "top", "domain");
+        connection.add(domain);
+        connection.add(container(USERS));
+        connection.add(container(CONFIGURATION));
+
+        final Entry schemaNC = container(SCHEMA);
+        schemaNC.addAttribute("objectVersion", "88");
+        connection.add(schemaNC);
+
+        final Set<String> published = new LinkedHashSet<>();
+        published.addAll(addClassSchema("top", schema.getObjectClass(ADStandInSchema.AD_OBJECT)));
+        published.addAll(addClassSchema("user", schema.getObjectClass("user")));
+        published.addAll(addClassSchema("group", schema.getObjectClass("group")));
+        for (String name : published) {
+            addAttributeSchema(schema.getAttributeType(name));
+        }
+
+        final Entry domainUsers = new Entry("CN=Domain Users," + USERS);
+        domainUsers.addAttribute("objectClass", "top", "group");
+        domainUsers.addAttribute("sAMAccountName", "Domain Users");
+        domainUsers.addAttribute(ADConnector.OBJECTSID, Profiles.sid(513));
+        connection.add(domainUsers);
+    }
+
+    private static Entry container(final String dn) {
+        final Entry entry = new Entry(dn);
+        entry.addAttribute("objectClass", "top", "container");
+        return entry;
+    }
+
+    private List<String> addClassSchema(final String name, final ObjectClassDefinition definition)
+            throws LDAPException {
+
+        final Entry entry = new Entry("CN=" + name + "," + SCHEMA);
+        entry.addAttribute("objectClass", "top", "classSchema");
+        entry.addAttribute("lDAPDisplayName", name);
+
+        final List<String> attrs = new ArrayList<>();
+        if (definition.getRequiredAttributes().length > 0) {
+            entry.addAttribute("systemMustContain", definition.getRequiredAttributes());
+            attrs.addAll(Arrays.asList(definition.getRequiredAttributes()));
+        }
+        if (definition.getOptionalAttributes().length > 0) {
+            entry.addAttribute("systemMayContain", definition.getOptionalAttributes());
+            attrs.addAll(Arrays.asList(definition.getOptionalAttributes()));
+        }
+
+        connection.add(entry);
+        return attrs;
+    }
+
+    private void addAttributeSchema(final AttributeTypeDefinition definition) throws LDAPException {
+        final String name = definition.getNameOrOID();
+
+        final Entry entry = new Entry("CN=" + name + "," + SCHEMA);
+        entry.addAttribute("objectClass", "top", "attributeSchema");
+        entry.addAttribute("lDAPDisplayName", name);
+        entry.addAttribute("isSingleValued", definition.isSingleValued() ? "TRUE" : "FALSE");
+        entry.addAttribute("systemOnly", ADStandInSchema.SYSTEM_ONLY.contains(name) ? "TRUE" : "FALSE");
+        connection.add(entry);
+    }
+
+    /**
+     * Add users {@code user0} ... and groups {@code group0} ..., each group having the first given number of users as
+     * members.
+     *
+     * @param users number of users
+     * @param groups number of groups
+     * @param members number of members for each group
+     * @throws LDAPException if any entry could not be added
+     */
+    public void populate(final int users, final int groups, final int members) throws LDAPException {
+        for (int i = 0; i < users; i++) {
+            final Entry user = new Entry(userDN(i));
+            user.addAttribute("objectClass", "top", "user");
+            user.addAttribute("sAMAccountName", "user" + i);
+            user.addAttribute("userPrincipalName", "user" + i + "@tirasa.net");
+            user.addAttribute("givenName", "Given" + i);
+            user.addAttribute("sn", "Surname" + i);
+            user.addAttribute("displayName", "Given" + i + " Surname" + i);
+            user.addAttribute("mail", "user" + i + "@tirasa.net");
+            user.addAttribute(ADConnector.UACCONTROL_ATTR, String.valueOf(ADConnector.UF_NORMAL_ACCOUNT));
+            user.addAttribute(ADConnector.PRIMARYGROUPID, "513");
+            for (int j = 1; j <= 5; j++) {
+                user.addAttribute("extensionAttribute" + j, "value " + j + " of user " + i);
+            }
+            connection.add(user);
+        }
+
+        final String[] memberDNs = new String[Math.min(members, users)];
+        for (int i = 0; i < memberDNs.length; i++) {
+            memberDNs[i] = userDN(i);
+        }
+
+        for (int i = 0; i < groups; i++) {
+            final Entry group = new Entry(groupDN(i));
+            group.addAttribute("objectClass", "top", "group");
+            group.addAttribute("sAMAccountName", "group" + i);
+            group.addAttribute("groupType", "-2147483646");
+            if (memberDNs.length > 0) {
+                group.addAttribute("member", memberDNs);
+            }
+            connection.add(group);
+        }
+    }
+
+    /**
+     * Change an attribute of the given entry, as done by another AD client.
+     *
+     * @param dn entry DN
+     * @param attrName attribute name
+     * @param value new attribute value
+     * @throws LDAPException if the entry could not be modified
+     */
+    public void modify(final String dn, final String attrName, final String value) throws LDAPException {
+        connection.modify(dn, new Modification(ModificationType.REPLACE, attrName, value));
+    }
+
+    public static String userDN(final int index) {
+        return "CN=user" + index + "," + USERS;
+    }
+
+    public static String groupDN(final int index) {
+        return "CN=group" + index + "," + USERS;
+    }
+
+    public long getHighestCommittedUSN() {
+        return interceptor.getHighestCommittedUSN();
+    }
+
+    /**
+     * Connector configuration for this stand-in: plain LDAP, no memberships; object classes are the AD ones, with no
+     * person and organizationalPerson.
+     *
+     * @return connector configuration
+     */
+    public ADConfiguration configuration() {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setHost("localhost");
+        conf.setPort(server.getListenPort());
+        conf.setSsl(false);
+        conf.setPrincipal(ADMINISTRATOR);
+        conf.setCredentials(new GuardedString(PASSWORD.toCharArray()));
+        conf.setBaseContexts(DOMAIN);
+        conf.setUserBaseContexts(USERS);
+        conf.setGroupBaseContexts(USERS);
+        conf.setBaseContextsToSynchronize(DOMAIN);
+        conf.setAccountObjectClasses("top", "user");
+        return conf;
+    }
+
+    @Override
+    public void close() {
+        if (connection != null) {
+            connection.close();
+        }
+        server.shutDown(true);
+    }
+}
@@ -0,0 +1,414 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.benchmark;
+
+import com.unboundid.asn1.ASN1Boolean;
+import com.unboundid.asn1.ASN1Element;
+import com.unboundid.asn1.ASN1Exception;
+import com.unboundid.asn1.ASN1Integer;
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.asn1.ASN1Sequence;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedAddRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedDeleteRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedModifyRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchEntry;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.AddRequest;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Control;
+import com.unboundid.ldap.sdk.DeleteRequest;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPResult;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.ModifyRequest;
+import com.unboundid.ldap.sdk.RDN;
+import com.unboundid.ldap.sdk.ReadOnlyEntry;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.util.StaticUtils;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.tirasa.adsddl.ntsd.utils.GUID;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.util.ADDirSyncControl;
+
+/**
+ * Makes the in-memory directory server behave like AD where the connector relies on it:
+ * <ul>
+ * <li>each add and modify gets the next USN, as uSNCreated / uSNChanged, and highestCommittedUSN is published in
+ * the root DSE;</li>
+ * <li>objectGUID and, for users and groups, objectSid are assigned on add, as well as the naming attribute value;</li>
+ * <li>DirSync searches return, by USN, the entries changed since the USN carried by the cookie, up to MaxBytes: the
+ * DirSync response control tells whether more changes are available, and its cookie is the USN of the last change
+ * returned or, with the last page, the highest USN at the time of the search;</li>
+ * <li>multi-valued attributes are returned by range, either when requested as {@code attr;range=low-high} or when
+ * having more than MaxValRange values;</li>
+ * <li>AD-specific request controls other than DirSync are accepted and ignored.</li>
+ * </ul>
+ * Deleted objects are removed rather than turned into tombstones.
+ */
+class ADStandInInterceptor extends InMemoryOperationInterceptor {
+
+    private static final String AD_CONTROL_PREFIX = "1.2.840.113556.1.4.";
+
+    private static final String PAGED_RESULTS_OID = "1.2.840.113556.1.4.319";
+
+    private static final String SERVER_SIDE_SORT_OID = "1.2.840.113556.1.4.473";
+
+    private static final String USN_CREATED = "uSNCreated";
+
+    private static final String USN_CHANGED = "uSNChanged";
+
+    private static final String HIGHEST_COMMITTED_USN = "highestCommittedUSN";
+
+    private static final Pattern RANGE = Pattern.compile("^([^;]+);range=(\\d+)-(\\d+|\\*)$", Pattern.CASE_INSENSITIVE);
+
+    private final AtomicLong usn = new AtomicLong();
+
+    private final AtomicLong rid = new AtomicLong(1100);
+
+    private final int maxValRange;
+
+    private InMemoryDirectoryServer server;
+
+    ADStandInInterceptor(final int maxValRange) {
+        this.maxValRange = maxValRange;
+    }
+
+    /**
+     * @param server server this interceptor is registered with, searched for the changes fitting a DirSync page
+     */
+    void setServer(final InMemoryDirectoryServer server) {
+        this.server = server;
+    }
+
+    long getHighestCommittedUSN() {
+        return usn.get();
+    }
+
+    @Override
+    public void processAddRequest(final InMemoryInterceptedAddRequest request) throws LDAPException {
+        final Entry entry = request.getRequest().toEntry();
+
+        final RDN rdn = entry.getParsedDN().getRDN();
+        for (int i = 0; i < rdn.getAttributeNames().length; i++) {
+            if (!entry.hasAttributeValue(rdn.getAttributeNames()[i], rdn.getAttributeValues()[i])) {
+                entry.addAttribute(rdn.getAttributeNames()[i], rdn.getAttributeValues()[i]);
+            }
+        }
+
+        final String next = String.valueOf(usn.incrementAndGet());
+        final String now = StaticUtils.encodeGeneralizedTime(new Date());
+        entry.addAttribute("objectClass", ADStandInSchema.AD_OBJECT);
+        entry.setAttribute(USN_CREATED, next);
+        entry.setAttribute(USN_CHANGED, next);
+        entry.setAttribute("whenCreated", now);
+        entry.setAttribute("whenChanged", now);
+
+        if (!entry.hasAttribute(ADConnector.OBJECTGUID)) {
+            entry.setAttribute(ADConnector.OBJECTGUID, GUID.getGuidAsByteArray(UUID.randomUUID().toString()));
+        }
+        if (!entry.hasAttribute(ADConnector.OBJECTSID) && (entry.hasObjectClass("user") || entry.hasObjectClass(
+                "group"))) {
+
+            entry.setAttribute(ADConnector.OBJECTSID, Profiles.sid(rid.incrementAndGet()));
+        }
+
+        request.setRequest(new AddRequest(entry, relax(request.getRequest().getControls())));
+    }
+
+    @Override
+    public void processModifyRequest(final InMemoryInterceptedModifyRequest request) throws LDAPException {
+        final ModifyRequest modify = request.getRequest().duplicate();
+        modify.addModification(new Modification(
+                ModificationType.REPLACE, USN_CHANGED, String.valueOf(usn.incrementAndGet())));
+        modify.addModification(new Modification(
+                ModificationType.REPLACE, "whenChanged", StaticUtils.encodeGeneralizedTime(new Date())));
+        modify.setControls(relax(modify.getControls()));
+
+        request.setRequest(modify);
+    }
+
+    @Override
+    public void processDeleteRequest(final InMemoryInterceptedDeleteRequest request) throws LDAPException {
+        final DeleteRequest delete = request.getRequest().duplicate();
+        delete.setControls(relax(delete.getControls()));
+
+        request.setRequest(delete);
+    }
+
+    @Override
+    public void processSearchRequest(final InMemoryInterceptedSearchRequest request) throws LDAPException {
+        final SearchRequest search = request.getRequest().duplicate();
+
+        final Control dirSync = search.getControl(ADDirSyncControl.OID);
+        if (dirSync != null) {
+            final long highest = usn.get();
+            search.setFilter(Filter.createANDFilter(
+                    search.getFilter(),
+                    Filter.createGreaterOrEqualFilter(USN_CHANGED, String.valueOf(fromCookie(dirSync) + 1))));
+
+            final long last = lastFitting(search, maxBytes(dirSync));
+            if (last >= 0) {
+                search.setFilter(Filter.createANDFilter(
+                        search.getFilter(),
+                        Filter.createLessOrEqualFilter(USN_CHANGED, String.valueOf(last))));
+            }
+
+            // the response cookie and more data flag are taken now, and carried by the request control up to the
+            // search result
+            search.removeControl(ADDirSyncControl.OID);
+            search.addControl(new Control(ADDirSyncControl.OID, false, new ASN1OctetString(new ASN1Sequence(
+                    new ASN1Boolean(last >= 0),
+                    new ASN1OctetString(toCookie(last >= 0 ? last : highest))).encode())));
+        }
+        search.setControls(relax(search.getControls()));
+
+        // ranged attributes are only known to the server by their base name
+        final List<String> attrs = new ArrayList<>(search.getAttributeList());
+        for (String attr : search.getAttributeList()) {
+            final Matcher matcher = RANGE.matcher(attr);
+            if (matcher.matches()) {
+                attrs.add(matcher.group(1));
+            }
+        }
+        search.setAttributes(attrs);
+
+        request.setRequest(search);
+    }
+
+    @Override
+    public void processSearchEntry(final InMemoryInterceptedSearchEntry entry) {
+        final ReadOnlyEntry found = entry.getSearchEntry();
+
+        if (found.getDN().isEmpty()) {
+            final Entry rootDSE = found.duplicate();
+            rootDSE.setAttribute(HIGHEST_COMMITTED_USN, String.valueOf(usn.get()));
+            entry.setSearchEntry(rootDSE);
+            return;
+        }
+
+        // requested ranges, by attribute base name
+        final Map<String, long[]> ranges = new HashMap<>();
+        for (String attr : entry.getRequest().getAttributeList()) {
+            final Matcher matcher = RANGE.matcher(attr);
+            if (matcher.matches()) {
+                ranges.put(StaticUtils.toLowerCase(matcher.group(1)), new long[] {
+                    Long.parseLong(matcher.group(2)),
+                    "*".equals(matcher.group(3)) ? -1 : Long.parseLong(matcher.group(3)) });
+            }
+        }
+
+        Entry result = null;
+        for (Attribute attr : found.getAttributes()) {
+            final long[] range = ranges.get(StaticUtils.toLowerCase(attr.getName()));
+            if (range != null || attr.size() > maxValRange) {
+                if (result == null) {
+                    result = found.duplicate();
+                }
+                result.removeAttribute(attr.getName());
+
+                final Attribute window = range == null ? window(attr, 0, -1) : window(attr, range[0], range[1]);
+                if (window != null) {
+                    result.addAttribute(window);
+                }
+            }
+        }
+
+        if (result != null) {
+            entry.setSearchEntry(result);
+        }
+    }
+
+    @Override
+    public void processSearchResult(final InMemoryInterceptedSearchResult result) {
+        final Control dirSync = result.getRequest().getControl(ADDirSyncControl.OID);
+        if (dirSync == null) {
+            return;
+        }
+
+        // more data flag and cookie, as set with the search request
+        final boolean moreData;
+        final ASN1Element cookie;
+        try {
+            final ASN1Element[] page = ASN1Sequence.decodeAsSequence(dirSync.getValue().getValue()).elements();
+            moreData = page[0].decodeAsBoolean().booleanValue();
+            cookie = page[1];
+        } catch (ASN1Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        // moreData, maxReturnLength, cookie
+        final Control response = new Control(ADDirSyncControl.OID, false, new ASN1OctetString(new ASN1Sequence(
+                new ASN1Integer(moreData ? 1 : 0),
+                new ASN1Integer(0),
+                cookie).encode()));
+
+        final LDAPResult ldapResult = result.getResult();
+        final List<Control> controls = new ArrayList<>(Arrays.asList(ldapResult.getResponseControls()));
+        controls.add(response);
+
+        result.setResult(new LDAPResult(
+                ldapResult.getMessageID(),
+                ldapResult.getResultCode(),
+                ldapResult.getDiagnosticMessage(),
+                ldapResult.getMatchedDN(),
+                ldapResult.getReferralURLs(),
+                controls.toArray(new Control[controls.size()])));
+    }
+
+    /**
+     * Values of the given attribute within the given range, bound by MaxValRange, named as AD does: the high bound is
+     * {@code *} for the last range.
+     *
+     * @param attr attribute
+     * @param low index of the first value
+     * @param high index of the last value, or -1 for all remaining values
+     * @return range of values, or null if none
+     */
+    private Attribute window(final Attribute attr, final long low, final long high) {
+        final byte[][] values = attr.getValueByteArrays();
+        if (low >= values.length) {
+            return null;
+        }
+
+        long last = low + maxValRange - 1;
+        if (high >= 0) {
+            last = Math.min(last, high);
+        }
+        last = Math.min(last, values.length - 1);
+
+        return new Attribute(
+                attr.getBaseName() + ";range=" + low + "-" + (last == values.length - 1 ? "*" : String.valueOf(last)),
+                Arrays.copyOfRange(values, (int) low, (int) last + 1));
+    }
+
+    /**
+     * AD-specific controls the server does not know about are made non-critical, so that they are ignored.
+     *
+     * @param controls request controls
+     * @return request controls the server accepts
+     */
+    private static Control[] relax(final Control[] controls) {
+        final Control[] relaxed = new Control[controls.length];
+        for (int i = 0; i < controls.length; i++) {
+            final Control control = controls[i];
+            relaxed[i] = control.isCritical()
+                    && control.getOID().startsWith(AD_CONTROL_PREFIX)
+                    && !PAGED_RESULTS_OID.equals(control.getOID())
+                    && !SERVER_SIDE_SORT_OID.equals(control.getOID())
+                    ? new Control(control.getOID(), false, control.getValue())
+                    : control;
+        }
+        return relaxed;
+    }
+
+    /**
+     * Find the USN of the last change fitting a DirSync page: changes are taken by USN, as long as the size of the
+     * entries returned does not exceed MaxBytes; at least one change is taken.
+     *
+     * @param search DirSync search, already restricted to the changes since the cookie
+     * @param maxBytes MaxBytes of the DirSync request
+     * @return USN of the last change fitting the page, or -1 if all changes fit
+     * @throws LDAPException if changes could not be searched
+     */
+    private long lastFitting(final SearchRequest search, final int maxBytes) throws LDAPException {
+        // all user attributes are returned when none is requested
+        final List<String> attrs = new ArrayList<>(search.getAttributeList());
+        if (attrs.isEmpty()) {
+            attrs.add("*");
+        }
+        attrs.add(USN_CHANGED);
+
+        final List<SearchResultEntry> changes = new ArrayList<>(server.search(new SearchRequest(
+                search.getBaseDN(),
+                search.getScope(),
+                search.getFilter(),
+                attrs.toArray(new String[attrs.size()]))).getSearchEntries());
+        changes.sort(Comparator.comparingLong(entry -> entry.getAttributeValueAsLong(USN_CHANGED)));
+
+        long size = 0;
+        for (int i = 0; i < changes.size(); i++) {
+            size += size(changes.get(i));
+            if (i > 0 && size > maxBytes) {
+                return changes.get(i - 1).getAttributeValueAsLong(USN_CHANGED);
+            }
+        }
+        return -1;
+    }
+
+    private static long size(final Entry entry) {
+        long size = entry.getDN().length();
+        for (Attribute attr : entry.getAttributes()) {
+            size += attr.getName().length();
+            for (byte[] value : attr.getValueByteArrays()) {
+                size += value.length;
+            }
+        }
+        return size;
+    }
+
+    private static byte[] toCookie(final long usn) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(usn).array();
+    }
+
+    /**
+     * The cookie is the last 8 bytes of the DirSync request control value, as issued by the stand-in; any other cookie
+     * (as the empty one of the first request) means all changes.
+     *
+     * @param dirSync DirSync request control
+     * @return USN of the last change already returned
+     */
+    private static long fromCookie(final Control dirSync) {
+        try {
+            final ASN1Element[] elements = ASN1Sequence.decodeAsSequence(dirSync.getValue().getValue()).elements();
+            final byte[] cookie = ASN1OctetString.decodeAsOctetString(elements[2]).getValue();
+            return cookie.length == Long.BYTES ? ByteBuffer.wrap(cookie).getLong() : 0;
+        } catch (ASN1Exception | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param dirSync DirSync request control
+     * @return MaxBytes of the DirSync request, or no limit if missing or invalid
+     */
+    private static int maxBytes(final Control dirSync) {
+        try {
+            final ASN1Element[] elements = ASN1Sequence.decodeAsSequence(dirSync.getValue().getValue()).elements();
+            final int maxBytes = ASN1Integer.decodeAsInteger(elements[1]).intValue();
+            return maxBytes > 0 ? maxBytes : Integer.MAX_VALUE;
+        } catch (ASN1Exception | RuntimeException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+}
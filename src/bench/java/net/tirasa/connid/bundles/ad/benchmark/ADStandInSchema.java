@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.benchmark;
+
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.schema.Schema;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Standard LDAP schema extended with the AD attribute types and object classes handled by the connector.
+ * Definitions are not the ones of AD: only names, syntaxes and multiplicity are meant to match.
+ */
+final class ADStandInSchema {
+
+    /**
+     * Auxiliary object class added to every entry, holding the attributes AD maintains for all objects.
+     */
+    static final String AD_OBJECT = "adObject";
+
+    /**
+     * Attributes that AD does not allow to be written by clients.
+     */
+    static final Set<String> SYSTEM_ONLY = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "objectGUID", "objectSid", "uSNCreated", "uSNChanged", "whenCreated", "whenChanged", "isDeleted",
+            "memberOf")));
+
+    private static final String STRING = "EQUALITY caseIgnoreMatch SUBSTR caseIgnoreSubstringsMatch "
+            + "SYNTAX 1.3.6.1.4.1.1466.115.121.1.15";
+
+    private static final String INTEGER = "EQUALITY integerMatch ORDERING integerOrderingMatch "
+            + "SYNTAX 1.3.6.1.4.1.1466.115.121.1.27";
+
+    private static final String OCTETS = "EQUALITY octetStringMatch SYNTAX 1.3.6.1.4.1.1466.115.121.1.40";
+
+    private static final String BOOLEAN = "EQUALITY booleanMatch SYNTAX 1.3.6.1.4.1.1466.115.121.1.7";
+
+    private static final String TIME = "EQUALITY generalizedTimeMatch ORDERING generalizedTimeOrderingMatch "
+            + "SYNTAX 1.3.6.1.4.1.1466.115.121.1.24";
+
+    private static final String DN = "EQUALITY distinguishedNameMatch SYNTAX 1.3.6.1.4.1.1466.115.121.1.12";
+
+    private static final int EXTENSION_ATTRIBUTES = 15;
+
+    static Schema get() throws LDAPException {
+        final List<String> attributeTypes = new ArrayList<>();
+        attributeTypes.add(attributeType("objectGUID", OCTETS, true));
+        attributeTypes.add(attributeType("objectSid", OCTETS, true));
+        attributeTypes.add(attributeType("uSNCreated", INTEGER, true));
+        attributeTypes.add(attributeType("uSNChanged", INTEGER, true));
+        attributeTypes.add(attributeType("whenCreated", TIME, true));
+        attributeTypes.add(attributeType("whenChanged", TIME, true));
+        attributeTypes.add(attributeType("isDeleted", BOOLEAN, true));
+        attributeTypes.add(attributeType("memberOf", DN, false));
+        attributeTypes.add(attributeType("nTSecurityDescriptor", OCTETS, true));
+        attributeTypes.add(attributeType("sAMAccountName", STRING, true));
+        attributeTypes.add(attributeType("userPrincipalName", STRING, true));
+        attributeTypes.add(attributeType("userAccountControl", INTEGER, true));
+        attributeTypes.add(attributeType("unicodePwd", OCTETS, true));
+        attributeTypes.add(attributeType("primaryGroupID", INTEGER, true));
+        attributeTypes.add(attributeType("pwdLastSet", INTEGER, true));
+        attributeTypes.add(attributeType("lockoutTime", INTEGER, true));
+        attributeTypes.add(attributeType("accountExpires", INTEGER, true));
+        attributeTypes.add(attributeType("groupType", INTEGER, true));
+        attributeTypes.add(attributeType("objectVersion", INTEGER, true));
+        attributeTypes.add(attributeType("lDAPDisplayName", STRING, true));
+        attributeTypes.add(attributeType("mayContain", STRING, false));
+        attributeTypes.add(attributeType("mustContain", STRING, false));
+        attributeTypes.add(attributeType("systemMayContain", STRING, false));
+        attributeTypes.add(attributeType("systemMustContain", STRING, false));
+        attributeTypes.add(attributeType("isSingleValued", BOOLEAN, true));
+        attributeTypes.add(attributeType("systemOnly", BOOLEAN, true));
+        for (int i = 1; i <= EXTENSION_ATTRIBUTES; i++) {
+            attributeTypes.add(attributeType("extensionAttribute" + i, STRING, false));
+        }
+
+        final StringBuilder extensions = new StringBuilder();
+        for (int i = 1; i <= EXTENSION_ATTRIBUTES; i++) {
+            extensions.append(" $ extensionAttribute").append(i);
+        }
+
+        final Entry entry = new Entry("cn=schema");
+        entry.addAttribute("objectClass", "top", "ldapSubentry", "subschema");
+        entry.addAttribute("attributeTypes", attributeTypes.toArray(new String[attributeTypes.size()]));
+        entry.addAttribute("objectClasses",
+                objectClass(AD_OBJECT, "AUXILIARY", null, "objectGUID $ objectSid $ uSNCreated $ uSNChanged "
+                        + "$ whenCreated $ whenChanged $ isDeleted $ memberOf $ nTSecurityDescriptor"),
+                objectClass("container", "STRUCTURAL", "cn", "description $ objectVersion"),
+                objectClass("user", "STRUCTURAL", "cn", "sn $ givenName $ initials $ displayName $ description "
+                        + "$ mail $ telephoneNumber $ sAMAccountName $ userPrincipalName $ userAccountControl "
+                        + "$ unicodePwd $ primaryGroupID $ pwdLastSet $ lockoutTime $ accountExpires" + extensions),
+                objectClass("group", "STRUCTURAL", "cn",
+                        "sAMAccountName $ member $ groupType $ description $ mail $ displayName"),
+                objectClass("classSchema", "STRUCTURAL", "cn $ lDAPDisplayName",
+                        "mayContain $ mustContain $ systemMayContain $ systemMustContain"),
+                objectClass("attributeSchema", "STRUCTURAL", "cn $ lDAPDisplayName", "isSingleValued $ systemOnly"));
+
+        return Schema.mergeSchemas(Schema.getDefaultStandardSchema(), new Schema(entry));
+    }
+
+    private static String attributeType(final String name, final String syntax, final boolean singleValued) {
+        return "( " + name + "-oid NAME '" + name + "' " + syntax + (singleValued ? " SINGLE-VALUE" : "") + " )";
+    }
+
+    private static String objectClass(final String name, final String kind, final String must, final String may) {
+        return "( " + name + "-oid NAME '" + name + "' SUP top " + kind
+                + (must == null ? "" : " MUST ( " + must + " )")
+                + " MAY ( " + may + " ) )";
+    }
+}
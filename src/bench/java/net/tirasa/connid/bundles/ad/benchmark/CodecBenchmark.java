@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import net.tirasa.adsddl.ntsd.SID;
+import net.tirasa.adsddl.ntsd.utils.GUID;
+import net.tirasa.adsddl.ntsd.utils.NumberFacility;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.util.ADUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Binary codecs: objectGUID, primary group SID and ntSecurityDescriptor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({ "16", "64" })
+    public int aces;
+
+    private ADUtilities utils;
+
+    private byte[] guid;
+
+    private String guidString;
+
+    private byte[] sid;
+
+    private byte[] primaryGroupID;
+
+    private Attributes profile;
+
+    @Setup
+    public void setup() {
+        utils = new ADUtilities(Profiles.connection());
+
+        guidString = UUID.randomUUID().toString();
+        guid = GUID.getGuidAsByteArray(guidString);
+        sid = Profiles.sid(1105);
+        primaryGroupID = NumberFacility.getUIntBytes(513);
+
+        profile = new BasicAttributes(true);
+        profile.put(ADConnector.SDDL_ATTR, Profiles.securityDescriptor(aces));
+    }
+
+    @Benchmark
+    public String guidToString() {
+        return GUID.getGuidAsString(guid);
+    }
+
+    @Benchmark
+    public byte[] guidFromString() {
+        return GUID.getGuidAsByteArray(guidString);
+    }
+
+    @Benchmark
+    public SID primaryGroupSID() {
+        return ADUtilities.getPrimaryGroupSID(SID.parse(sid), primaryGroupID);
+    }
+
+    @Benchmark
+    public Attribute userCannotChangePassword() {
+        return utils.userCannotChangePassword(profile, Boolean.TRUE);
+    }
+}
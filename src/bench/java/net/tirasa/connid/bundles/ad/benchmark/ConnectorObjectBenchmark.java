@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.benchmark;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.util.ADUtilities;
+import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of search results into connector objects, as performed for each entry by ADSearch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectorObjectBenchmark {
+
+    private static final int PROFILES = 64;
+
+    @Param({ "20", "150" })
+    public int attributes;
+
+    @Param({ "1000" })
+    public int members;
+
+    private ADConnection conn;
+
+    private ADUtilities utils;
+
+    private Attributes[] users;
+
+    private Set<String> userAttrsToGet;
+
+    private Attributes group;
+
+    private Set<String> groupAttrsToGet;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        conn = Profiles.connection();
+        utils = new ADUtilities(conn);
+
+        users = new Attributes[PROFILES];
+        for (int i = 0; i < PROFILES; i++) {
+            users[i] = Profiles.user(i, attributes);
+        }
+
+        // as returned by ADUtilities.getAttributesToGet, which would need the schema from the server
+        userAttrsToGet = CollectionUtil.newCaseInsensitiveSet();
+        userAttrsToGet.addAll(Arrays.asList(
+                Name.NAME, Uid.NAME, "cn", "sAMAccountName", "userPrincipalName",
+                ADConnector.UACCONTROL_ATTR, ADConnector.OBJECTGUID, ADConnector.SDDL_ATTR,
+                ADConfiguration.PNE_FLAG, ADConfiguration.PNR_FLAG));
+        for (int i = 0; i < attributes; i++) {
+            userAttrsToGet.add("extensionAttribute" + i);
+        }
+
+        group = Profiles.group(members);
+        groupAttrsToGet = CollectionUtil.newCaseInsensitiveSet();
+        groupAttrsToGet.addAll(Arrays.asList(Name.NAME, Uid.NAME, "cn", ADConnector.OBJECTGUID, "member;range=0-999"));
+    }
+
+    @Benchmark
+    public ConnectorObject user() throws NamingException {
+        next = (next + 1) % PROFILES;
+        return utils.createConnectorObject(
+                "cn=user" + next + "," + Profiles.BASE_DN, users[next], userAttrsToGet, ObjectClass.ACCOUNT);
+    }
+
+    @Benchmark
+    public ConnectorObject groupWithMembers() throws NamingException {
+        return utils.createConnectorObject(
+                "cn=group," + Profiles.BASE_DN, group, groupAttrsToGet, ObjectClass.GROUP);
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.search.ADSearch;
+import net.tirasa.connid.bundles.ad.util.ADUtilities;
+import net.tirasa.connid.bundles.ad.util.DirSyncUtils;
+import net.tirasa.connid.bundles.ldap.search.LdapFilter;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Search filter building: objectGUID rewrite in ADSearch and DirSync filter for users.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+    /**
+     * Exposes the filter building of ADSearch.
+     */
+    private static class FilterSearch extends ADSearch {
+
+        FilterSearch(final ADConnection conn) {
+            super(conn, ObjectClass.ACCOUNT, LdapFilter.forNativeFilter(null), object -> true,
+                    new OperationOptionsBuilder().build());
+        }
+
+        String filter(final String... optionalFilters) {
+            return getSearchFilter(optionalFilters);
+        }
+    }
+
+    @Param({ "1", "20" })
+    public int guids;
+
+    private FilterSearch search;
+
+    private ADConfiguration conf;
+
+    private ADUtilities utils;
+
+    private String guidFilter;
+
+    @Setup
+    public void setup() {
+        final ADConnection conn = Profiles.connection();
+        conf = (ADConfiguration) conn.getConfiguration();
+        utils = new ADUtilities(conn);
+        search = new FilterSearch(conn);
+
+        final StringBuilder filter = new StringBuilder("(|");
+        for (int i = 0; i < guids; i++) {
+            filter.append('(').append(ADConnector.OBJECTGUID).append('=').append(UUID.randomUUID()).append(')');
+        }
+        guidFilter = filter.append(')').toString();
+    }
+
+    @Benchmark
+    public String guidRewrite() {
+        return search.filter(guidFilter, "(objectClass=user)");
+    }
+
+    @Benchmark
+    public String dirSyncUserFilter() {
+        return DirSyncUtils.createDirSyncUFilter(conf, utils);
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the timed calls of a load scenario, and number of operations they performed.
+ */
+final class LatencyRecorder {
+
+    private final String scenario;
+
+    private long[] latencies = new long[1024];
+
+    private int calls;
+
+    private long operations;
+
+    private long started;
+
+    private long elapsed;
+
+    LatencyRecorder(final String scenario) {
+        this.scenario = scenario;
+    }
+
+    void start() {
+        started = System.nanoTime();
+    }
+
+    void stop() {
+        elapsed = System.nanoTime() - started;
+    }
+
+    /**
+     * @param nanos duration of a timed call
+     * @param ops number of operations performed by the call
+     */
+    synchronized void record(final long nanos, final int ops) {
+        if (calls == latencies.length) {
+            latencies = Arrays.copyOf(latencies, calls * 2);
+        }
+        latencies[calls++] = nanos;
+        operations += ops;
+    }
+
+    private double percentile(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    synchronized String report() {
+        final long[] sorted = Arrays.copyOf(latencies, calls);
+        Arrays.sort(sorted);
+
+        final double seconds = elapsed / 1_000_000_000.0;
+        return String.format("%-16s %8d calls %9d ops %11.1f ops/s   p50 %9.3f ms   p99 %9.3f ms",
+                scenario,
+                calls,
+                operations,
+                seconds > 0 ? operations / seconds : 0,
+                percentile(sorted, 0.5),
+                percentile(sorted, 0.99));
+    }
+}
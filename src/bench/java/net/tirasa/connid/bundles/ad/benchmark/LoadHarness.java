@@ -0,0 +1,350 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.crud.ADBulkOperation;
+import net.tirasa.connid.bundles.ad.crud.ADBulkResult;
+import net.tirasa.connid.bundles.ldap.search.LdapFilter;
+import org.identityconnectors.common.CollectionUtil;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
+
+/**
+ * Runs search, sync and bulk provisioning scenarios against an {@link ADStandIn}, reporting throughput and latency
+ * percentiles for each of them.
+ * <p>
+ * Arguments, all optional: number of users (default 10000), number of concurrent connectors (default 4), number of
+ * calls per connector for search scenarios (default 1000).
+ */
+public class LoadHarness {
+
+    private static final int GROUPS = 10;
+
+    private static final int PAGE_SIZE = 500;
+
+    private static final int SYNC_ROUNDS = 20;
+
+    /**
+     * DirSync MaxBytes, low enough for the changes of each sync round to be returned in several pages.
+     */
+    private static final int SYNC_MAX_BYTES = 16 * 1024;
+
+    private static final int BULK_BATCH_SIZE = 100;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * Timed call of a scenario.
+     */
+    @FunctionalInterface
+    private interface Call {
+
+        /**
+         * @param connector connector owned by the calling thread
+         * @param random random generator owned by the calling thread
+         * @return number of operations performed
+         * @throws Exception if anything goes wrong
+         */
+        int run(ADConnector connector, Random random) throws Exception;
+    }
+
+    private static class PageHandler implements SearchResultsHandler {
+
+        private int count;
+
+        private String cookie;
+
+        @Override
+        public boolean handle(final ConnectorObject object) {
+            count++;
+            return true;
+        }
+
+        @Override
+        public void handleResult(final SearchResult result) {
+            cookie = result.getPagedResultsCookie();
+        }
+    }
+
+    private static class SyncHandler implements SyncTokenResultsHandler {
+
+        private int count;
+
+        private SyncToken token;
+
+        @Override
+        public boolean handle(final SyncDelta delta) {
+            count++;
+            token = delta.getToken();
+            return true;
+        }
+
+        @Override
+        public void handleResult(final SyncToken result) {
+            token = result;
+        }
+    }
+
+    private final ADStandIn standIn;
+
+    private final int users;
+
+    private final int threads;
+
+    private final int calls;
+
+    public LoadHarness(final ADStandIn standIn, final int users, final int threads, final int calls) {
+        this.standIn = standIn;
+        this.users = users;
+        this.threads = threads;
+        this.calls = calls;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int users = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        final int calls = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        try (ADStandIn standIn = new ADStandIn()) {
+            standIn.start();
+
+            final long start = System.nanoTime();
+            // large groups, to go beyond MaxValRange
+            standIn.populate(users, GROUPS, Math.min(users, ADStandIn.MAX_VAL_RANGE * 2));
+            System.out.printf("Populated %d users and %d groups in %d ms; %d threads, %d calls per thread%n",
+                    users, GROUPS, (System.nanoTime() - start) / 1_000_000, threads, calls);
+
+            final LoadHarness harness = new LoadHarness(standIn, users, threads, calls);
+            harness.searchByUid();
+            harness.pagedSearch();
+            harness.groupMembers();
+            harness.sync();
+            harness.bulkCreate();
+        }
+    }
+
+    private static OperationOptions attributesToGet(final String... attrs) {
+        return new OperationOptionsBuilder().setAttributesToGet(attrs).build();
+    }
+
+    private static LdapFilter uidFilter(
+            final ADConnector connector, final ObjectClass oclass, final String uid, final OperationOptions options) {
+
+        return connector.createFilterTranslator(oclass, options).translate(FilterBuilder.equalTo(new Uid(uid))).get(0);
+    }
+
+    public void searchByUid() throws Exception {
+        final OperationOptions options = attributesToGet(
+                Name.NAME, "sAMAccountName", "mail", "givenName", "sn", "extensionAttribute1", "extensionAttribute2",
+                "extensionAttribute3", "extensionAttribute4", "extensionAttribute5");
+
+        run("search-uid", standIn.configuration(), (connector, random) -> {
+            final AtomicInteger found = new AtomicInteger();
+            connector.executeQuery(
+                    ObjectClass.ACCOUNT,
+                    uidFilter(connector, ObjectClass.ACCOUNT, "user" + random.nextInt(users), options),
+                    object -> found.incrementAndGet() > 0,
+                    options);
+            return found.get();
+        });
+    }
+
+    public void pagedSearch() throws Exception {
+        // cookie of the next page to read, for each thread
+        final ThreadLocal<String> cookies = new ThreadLocal<>();
+
+        run("search-paged", standIn.configuration(), (connector, random) -> {
+            final OperationOptionsBuilder options = new OperationOptionsBuilder().
+                    setAttributesToGet(Name.NAME, "sAMAccountName", "mail").
+                    setPageSize(PAGE_SIZE);
+            if (cookies.get() != null) {
+                options.setPagedResultsCookie(cookies.get());
+            }
+
+            final PageHandler handler = new PageHandler();
+            connector.executeQuery(ObjectClass.ACCOUNT, null, handler, options.build());
+
+            // start again from the first page when the last one was read
+            cookies.set(handler.cookie);
+            return handler.count;
+        });
+    }
+
+    public void groupMembers() throws Exception {
+        final OperationOptions options = attributesToGet(Name.NAME, "member");
+
+        run("group-members", standIn.configuration(), (connector, random) -> {
+            final AtomicInteger members = new AtomicInteger();
+            connector.executeQuery(
+                    ObjectClass.GROUP,
+                    uidFilter(connector, ObjectClass.GROUP, "group" + random.nextInt(GROUPS), options),
+                    object -> {
+                        final Attribute member = object.getAttributeByName("member");
+                        members.addAndGet(member == null ? 0 : member.getValue().size());
+                        return true;
+                    },
+                    options);
+            return members.get() > 0 ? 1 : 0;
+        });
+    }
+
+    /**
+     * Changes a share of users, as another AD client would do, then fetches changes by DirSync pages.
+     *
+     * @throws Exception if anything goes wrong
+     */
+    public void sync() throws Exception {
+        final LatencyRecorder recorder = new LatencyRecorder("sync");
+        final Random random = new Random();
+        final int changes = Math.max(1, users / SYNC_ROUNDS);
+
+        final ADConfiguration conf = standIn.configuration();
+        conf.setDirSyncMaxBytes(SYNC_MAX_BYTES);
+
+        final ADConnector connector = new ADConnector();
+        connector.init(conf);
+        try {
+            SyncToken token = connector.getLatestSyncToken(ObjectClass.ACCOUNT);
+
+            recorder.start();
+            for (int round = 0; round < SYNC_ROUNDS; round++) {
+                for (int i = 0; i < changes; i++) {
+                    standIn.modify(ADStandIn.userDN(random.nextInt(users)),
+                            "extensionAttribute1", "round " + round + " change " + i);
+                }
+
+                final SyncHandler handler = new SyncHandler();
+                handler.token = token;
+
+                final long start = System.nanoTime();
+                connector.sync(ObjectClass.ACCOUNT, token, handler, attributesToGet(Name.NAME, "extensionAttribute1"));
+                recorder.record(System.nanoTime() - start, handler.count);
+
+                token = handler.token;
+            }
+            recorder.stop();
+        } finally {
+            connector.dispose();
+        }
+
+        System.out.println(recorder.report());
+    }
+
+    public void bulkCreate() throws Exception {
+        final LatencyRecorder recorder = new LatencyRecorder("bulk-create");
+        final int creates = Math.max(BULK_BATCH_SIZE, users / 10);
+
+        final ADConfiguration conf = standIn.configuration();
+        conf.setBulkConcurrency(threads);
+        conf.setContextPoolMaxSize(threads);
+
+        final OperationOptions options = new OperationOptionsBuilder().build();
+
+        final ADConnector connector = new ADConnector();
+        connector.init(conf);
+        try {
+            recorder.start();
+            for (int batch = 0; batch < creates; batch += BULK_BATCH_SIZE) {
+                final List<ADBulkOperation> operations = new ArrayList<>(BULK_BATCH_SIZE);
+                for (int i = batch; i < batch + BULK_BATCH_SIZE; i++) {
+                    final Set<Attribute> attrs = CollectionUtil.newSet(
+                            new Name("CN=bulk" + i + "," + ADStandIn.USERS),
+                            AttributeBuilder.build("sAMAccountName", "bulk" + i),
+                            AttributeBuilder.build("givenName", "Bulk" + i),
+                            AttributeBuilder.build("sn", "Surname" + i),
+                            AttributeBuilder.build("mail", "bulk" + i + "@tirasa.net"),
+                            AttributeBuilder.buildPassword(new GuardedString("Password123".toCharArray())),
+                            AttributeBuilder.buildEnabled(true));
+                    operations.add(ADBulkOperation.create(ObjectClass.ACCOUNT, attrs, options));
+                }
+
+                final long start = System.nanoTime();
+                final List<ADBulkResult> results = connector.bulk(operations);
+                recorder.record(System.nanoTime() - start, (int) results.stream().
+                        filter(ADBulkResult::isSuccess).count());
+            }
+            recorder.stop();
+        } finally {
+            connector.dispose();
+        }
+
+        System.out.println(recorder.report());
+    }
+
+    private void run(final String scenario, final ADConfiguration conf, final Call call) throws Exception {
+        final LatencyRecorder recorder = new LatencyRecorder(scenario);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "LoadHarness-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<?>> futures = new ArrayList<>(threads);
+
+            recorder.start();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    final Random random = new Random();
+
+                    final ADConnector connector = new ADConnector();
+                    connector.init(conf);
+                    try {
+                        for (int j = 0; j < calls; j++) {
+                            final long start = System.nanoTime();
+                            final int ops = call.run(connector, random);
+                            recorder.record(System.nanoTime() - start, ops);
+                        }
+                    } finally {
+                        connector.dispose();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            recorder.stop();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        System.out.println(recorder.report());
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import net.tirasa.adsddl.ntsd.utils.GUID;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import org.identityconnectors.common.security.GuardedString;
+
+/**
+ * Synthetic configuration and entry profiles, shaped as returned by AD, for benchmarks not requiring a server.
+ */
+final class Profiles {
+
+    static final String BASE_DN = "cn=users,dc=tirasa,dc=net";
+
+    static ADConfiguration configuration() {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setHost("localhost");
+        conf.setPort(389);
+        conf.setPrincipal("cn=Administrator," + BASE_DN);
+        conf.setCredentials(new GuardedString("password".toCharArray()));
+        conf.setBaseContexts("dc=tirasa,dc=net");
+        conf.setUserBaseContexts(BASE_DN);
+        conf.setGroupBaseContexts(BASE_DN);
+        conf.setReadSchema(false);
+        conf.setMemberships(
+                "cn=groupA," + BASE_DN,
+                "cn=groupB," + BASE_DN,
+                "cn=groupC," + BASE_DN);
+        return conf;
+    }
+
+    /**
+     * Connection that is never opened: connector object creation only needs its schema mapping.
+     *
+     * @return connection
+     */
+    static ADConnection connection() {
+        return new ADConnection(configuration());
+    }
+
+    /**
+     * User with the given number of additional single and multi-valued string attributes.
+     *
+     * @param index user index, making values unique
+     * @param attributes number of additional attributes
+     * @return user profile
+     */
+    static Attributes user(final int index, final int attributes) {
+        final Attributes profile = new BasicAttributes(true);
+        profile.put("cn", "user" + index);
+        profile.put("sAMAccountName", "user" + index);
+        profile.put("userPrincipalName", "user" + index + "@tirasa.net");
+        profile.put(ADConnector.UACCONTROL_ATTR, String.valueOf(ADConnector.UF_NORMAL_ACCOUNT));
+        profile.put(ADConnector.OBJECTGUID, GUID.getGuidAsByteArray(UUID.randomUUID().toString()));
+        profile.put(ADConnector.OBJECTSID, sid(1000 + index));
+        profile.put(ADConnector.PRIMARYGROUPID, "513");
+        profile.put(ADConnector.SDDL_ATTR, securityDescriptor(16));
+
+        for (int i = 0; i < attributes; i++) {
+            final BasicAttribute attr = new BasicAttribute("extensionAttribute" + i);
+            for (int j = 0; j <= i % 4; j++) {
+                attr.add("value " + j + " of attribute " + i + " for user " + index);
+            }
+            profile.put(attr);
+        }
+
+        return profile;
+    }
+
+    /**
+     * Group whose members are all returned within a single, final, range.
+     *
+     * @param members number of members
+     * @return group profile
+     */
+    static Attributes group(final int members) {
+        final Attributes profile = new BasicAttributes(true);
+        profile.put("cn", "group");
+        profile.put("sAMAccountName", "group");
+        profile.put(ADConnector.OBJECTGUID, GUID.getGuidAsByteArray(UUID.randomUUID().toString()));
+
+        final BasicAttribute member = new BasicAttribute("member;range=0-*");
+        for (int i = 0; i < members; i++) {
+            member.add("cn=user" + i + "," + BASE_DN);
+        }
+        profile.put(member);
+
+        return profile;
+    }
+
+    /**
+     * @param rid relative identifier
+     * @return binary SID in domain S-1-5-21-1004336348-1177238915-682003330
+     */
+    static byte[] sid(final long rid) {
+        return ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN).
+                put((byte) 1).put((byte) 5).
+                put(new byte[] { 0, 0, 0, 0, 0, 5 }).
+                putInt(21).putInt(1004336348).putInt(1177238915).putInt(682003330).putInt((int) rid).
+                array();
+    }
+
+    /**
+     * Self-relative security descriptor with owner, group and a DACL granting access to Everyone.
+     *
+     * @param aces number of access allowed ACEs in the DACL
+     * @return binary security descriptor
+     */
+    static byte[] securityDescriptor(final int aces) {
+        final byte[] owner = sid(500);
+        final byte[] group = sid(513);
+        final byte[] everyone = { 1, 1, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0 };
+
+        final int aceSize = 8 + everyone.length;
+        final int aclSize = 8 + aces * aceSize;
+
+        final ByteBuffer sd = ByteBuffer.allocate(20 + owner.length + group.length + aclSize).
+                order(ByteOrder.LITTLE_ENDIAN);
+
+        // header: revision, sbz1, control (self-relative, DACL present), owner, group, SACL and DACL offsets
+        sd.put((byte) 1).put((byte) 0).putShort((short) 0x8004).
+                putInt(20).putInt(20 + owner.length).putInt(0).putInt(20 + owner.length + group.length);
+        sd.put(owner).put(group);
+
+        // DACL: revision, sbz1, size, ACE count, sbz2
+        sd.put((byte) 4).put((byte) 0).putShort((short) aclSize).putShort((short) aces).putShort((short) 0);
+        for (int i = 0; i < aces; i++) {
+            // ACCESS_ALLOWED_ACE: type, flags, size, mask, SID
+            sd.put((byte) 0).put((byte) 0).putShort((short) aceSize).putInt(0x20000 | (1 << (i % 9))).put(everyone);
+        }
+
+        return sd.array();
+    }
+}
@@ -16,9 +16,11 @@
 package net.tirasa.connid.bundles.ad;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import net.tirasa.connid.bundles.ad.search.ADDefaultSearchStrategy;
 import net.tirasa.connid.bundles.ad.sync.ADSyncStrategy;
+import net.tirasa.connid.bundles.ad.util.ADMetricsRegistry;
 import net.tirasa.connid.bundles.ad.util.ADUtilities;
 import net.tirasa.connid.bundles.ldap.LdapConfiguration;
 import net.tirasa.connid.bundles.ldap.search.DefaultSearchStrategy;
@@ -56,6 +58,21 @@ public final class ADConfiguration extends LdapConfiguration {
 
     public static final String PRIMARY_GROUP_DN_NAME = "primaryGroupDN";
 
+    /**
+     * Read ldapGroups with one search for groups having the entry as member.
+     */
+    public static final String LDAP_GROUPS_RETRIEVAL_SEARCH = "search";
+
+    /**
+     * Read ldapGroups from the memberOf values returned with the entry.
+     */
+    public static final String LDAP_GROUPS_RETRIEVAL_MEMBEROF = "memberOf";
+
+    /**
+     * Read ldapGroups from a member to groups index, built once per search when many entries are returned.
+     */
+    public static final String LDAP_GROUPS_RETRIEVAL_INDEX = "index";
+
     private List<String> memberships;
 
     private boolean membershipConservativePolicy;
@@ -86,6 +103,34 @@ public final class ADConfiguration extends LdapConfiguration {
 
     private String[] userAuthenticationAttributes = {};
 
+    private int dirSyncMaxBytes = 0;
+
+    private String ldapGroupsRetrieval = LDAP_GROUPS_RETRIEVAL_SEARCH;
+
+    private int searchConcurrency = 1;
+
+    private int searchPageSize = 1000;
+
+    private boolean searchPrefetch = false;
+
+    private int contextPoolMaxSize = 0;
+
+    private long contextPoolMaxIdleTime = 300;
+
+    private long contextPoolMaxLifetime = 1800;
+
+    private int membershipBatchSize = 0;
+
+    private long membershipBatchLatency = 100;
+
+    private int bulkConcurrency = 1;
+
+    private String schemaSnapshotDirectory;
+
+    private String metricsRegistry;
+
+    private int traceSampleRate = 0;
+
     public ADConfiguration() {
         super();
 
@@ -120,7 +165,8 @@ public final class ADConfiguration extends LdapConfiguration {
 
     @Override
     public DefaultSearchStrategy newDefaultSearchStrategy(boolean ignoreNonExistingBaseDN) {
-        return new ADDefaultSearchStrategy(ignoreNonExistingBaseDN);
+        return new ADDefaultSearchStrategy(
+                ignoreNonExistingBaseDN, searchConcurrency, searchPageSize, searchPrefetch);
     }
 
     @ConfigurationProperty(displayMessageKey = "memberships.display",
@@ -362,6 +408,207 @@ public final class ADConfiguration extends LdapConfiguration {
         }
     }
 
+    @ConfigurationProperty(displayMessageKey = "dirSyncMaxBytes.display",
+            helpMessageKey = "dirSyncMaxBytes.help", order = 19)
+    public int getDirSyncMaxBytes() {
+        return dirSyncMaxBytes;
+    }
+
+    public void setDirSyncMaxBytes(final int dirSyncMaxBytes) {
+        this.dirSyncMaxBytes = dirSyncMaxBytes;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "ldapGroupsRetrieval.display",
+            helpMessageKey = "ldapGroupsRetrieval.help", order = 20)
+    public String getLdapGroupsRetrieval() {
+        return ldapGroupsRetrieval;
+    }
+
+    public void setLdapGroupsRetrieval(final String ldapGroupsRetrieval) {
+        this.ldapGroupsRetrieval = ldapGroupsRetrieval;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "searchConcurrency.display",
+            helpMessageKey = "searchConcurrency.help", order = 21)
+    public int getSearchConcurrency() {
+        return searchConcurrency;
+    }
+
+    public void setSearchConcurrency(final int searchConcurrency) {
+        this.searchConcurrency = searchConcurrency;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "searchPageSize.display",
+            helpMessageKey = "searchPageSize.help", order = 22)
+    public int getSearchPageSize() {
+        return searchPageSize;
+    }
+
+    public void setSearchPageSize(final int searchPageSize) {
+        this.searchPageSize = searchPageSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "searchPrefetch.display",
+            helpMessageKey = "searchPrefetch.help", order = 23)
+    public boolean isSearchPrefetch() {
+        return searchPrefetch;
+    }
+
+    public void setSearchPrefetch(final boolean searchPrefetch) {
+        this.searchPrefetch = searchPrefetch;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "contextPoolMaxSize.display",
+            helpMessageKey = "contextPoolMaxSize.help", order = 24)
+    public int getContextPoolMaxSize() {
+        return contextPoolMaxSize;
+    }
+
+    public void setContextPoolMaxSize(final int contextPoolMaxSize) {
+        this.contextPoolMaxSize = contextPoolMaxSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "contextPoolMaxIdleTime.display",
+            helpMessageKey = "contextPoolMaxIdleTime.help", order = 25)
+    public long getContextPoolMaxIdleTime() {
+        return contextPoolMaxIdleTime;
+    }
+
+    public void setContextPoolMaxIdleTime(final long contextPoolMaxIdleTime) {
+        this.contextPoolMaxIdleTime = contextPoolMaxIdleTime;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "contextPoolMaxLifetime.display",
+            helpMessageKey = "contextPoolMaxLifetime.help", order = 26)
+    public long getContextPoolMaxLifetime() {
+        return contextPoolMaxLifetime;
+    }
+
+    public void setContextPoolMaxLifetime(final long contextPoolMaxLifetime) {
+        this.contextPoolMaxLifetime = contextPoolMaxLifetime;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "membershipBatchSize.display",
+            helpMessageKey = "membershipBatchSize.help", order = 27)
+    public int getMembershipBatchSize() {
+        return membershipBatchSize;
+    }
+
+    public void setMembershipBatchSize(final int membershipBatchSize) {
+        this.membershipBatchSize = membershipBatchSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "membershipBatchLatency.display",
+            helpMessageKey = "membershipBatchLatency.help", order = 28)
+    public long getMembershipBatchLatency() {
+        return membershipBatchLatency;
+    }
+
+    public void setMembershipBatchLatency(final long membershipBatchLatency) {
+        this.membershipBatchLatency = membershipBatchLatency;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "bulkConcurrency.display",
+            helpMessageKey = "bulkConcurrency.help", order = 29)
+    public int getBulkConcurrency() {
+        return bulkConcurrency;
+    }
+
+    public void setBulkConcurrency(final int bulkConcurrency) {
+        this.bulkConcurrency = bulkConcurrency;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "schemaSnapshotDirectory.display",
+            helpMessageKey = "schemaSnapshotDirectory.help", order = 30)
+    public String getSchemaSnapshotDirectory() {
+        return schemaSnapshotDirectory;
+    }
+
+    public void setSchemaSnapshotDirectory(final String schemaSnapshotDirectory) {
+        this.schemaSnapshotDirectory = schemaSnapshotDirectory;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "metricsRegistry.display",
+            helpMessageKey = "metricsRegistry.help", order = 31)
+    public String getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    public void setMetricsRegistry(final String metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "traceSampleRate.display",
+            helpMessageKey = "traceSampleRate.help", order = 32)
+    public int getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    public void setTraceSampleRate(final int traceSampleRate) {
+        this.traceSampleRate = traceSampleRate;
+    }
+
+    @Override
+    public void validate() {
+        super.validate();
+
+        if (searchPageSize < 1) {
+            failValidation("searchPageSize.invalid");
+        }
+
+        if (searchConcurrency < 1) {
+            failValidation("searchConcurrency.invalid");
+        }
+
+        if (bulkConcurrency < 1) {
+            failValidation("bulkConcurrency.invalid");
+        }
+
+        if (dirSyncMaxBytes < 0) {
+            failValidation("dirSyncMaxBytes.invalid");
+        }
+
+        if (contextPoolMaxSize < 0) {
+            failValidation("contextPoolMaxSize.invalid");
+        }
+
+        if (contextPoolMaxIdleTime < 0) {
+            failValidation("contextPoolMaxIdleTime.invalid");
+        }
+
+        if (contextPoolMaxLifetime < 0) {
+            failValidation("contextPoolMaxLifetime.invalid");
+        }
+
+        if (membershipBatchSize < 0) {
+            failValidation("membershipBatchSize.invalid");
+        }
+
+        if (membershipBatchLatency < 0) {
+            failValidation("membershipBatchLatency.invalid");
+        }
+
+        if (traceSampleRate < 0) {
+            failValidation("traceSampleRate.invalid");
+        }
+
+        if (StringUtil.isNotBlank(metricsRegistry)) {
+            try {
+                if (!ADMetricsRegistry.class.isAssignableFrom(Class.forName(metricsRegistry))) {
+                    failValidation("metricsRegistry.invalid");
+                }
+            } catch (ClassNotFoundException e) {
+                failValidation("metricsRegistry.invalid");
+            }
+        }
+
+        if (!Arrays.asList(LDAP_GROUPS_RETRIEVAL_SEARCH, LDAP_GROUPS_RETRIEVAL_MEMBEROF, LDAP_GROUPS_RETRIEVAL_INDEX).
+                contains(ldapGroupsRetrieval)) {
+
+            failValidation("ldapGroupsRetrieval.invalid");
+        }
+    }
+
     @Override
     public String getPasswordHashAlgorithm() {
         return "NONE";
@@ -62,6 +62,15 @@ public class ADConfigurationBeanInfo extends SimpleBeanInfo {
             // readTimeout
             props.add(new PropertyDescriptor("readTimeout", LdapConfiguration.class));
 
+            // contextPoolMaxSize
+            props.add(new PropertyDescriptor("contextPoolMaxSize", ADConfiguration.class));
+
+            // contextPoolMaxIdleTime
+            props.add(new PropertyDescriptor("contextPoolMaxIdleTime", ADConfiguration.class));
+
+            // contextPoolMaxLifetime
+            props.add(new PropertyDescriptor("contextPoolMaxLifetime", ADConfiguration.class));
+
             /*
              * Identifying attributes
              */
@@ -167,6 +176,18 @@ public class ADConfigurationBeanInfo extends SimpleBeanInfo {
             // addPrincipalToNewGroups
             props.add(new PropertyDescriptor("addPrincipalToNewGroups", LdapConfiguration.class));
 
+            // ldapGroupsRetrieval
+            props.add(new PropertyDescriptor("ldapGroupsRetrieval", ADConfiguration.class));
+
+            // membershipBatchSize
+            props.add(new PropertyDescriptor("membershipBatchSize", ADConfiguration.class));
+
+            // membershipBatchLatency
+            props.add(new PropertyDescriptor("membershipBatchLatency", ADConfiguration.class));
+
+            // bulkConcurrency
+            props.add(new PropertyDescriptor("bulkConcurrency", ADConfiguration.class));
+
             /*
             * Search scopes
             */
@@ -191,6 +212,15 @@ public class ADConfigurationBeanInfo extends SimpleBeanInfo {
             // anyObjectSearchFilter
             props.add(new PropertyDescriptor("anyObjectSearchFilter", LdapConfiguration.class));
 
+            // searchConcurrency
+            props.add(new PropertyDescriptor("searchConcurrency", ADConfiguration.class));
+
+            // searchPageSize
+            props.add(new PropertyDescriptor("searchPageSize", ADConfiguration.class));
+
+            // searchPrefetch
+            props.add(new PropertyDescriptor("searchPrefetch", ADConfiguration.class));
+
             /*
              * VLV attributes
              */
@@ -236,6 +266,9 @@ public class ADConfigurationBeanInfo extends SimpleBeanInfo {
             // accountSynchronizationFilter
             props.add(new PropertyDescriptor("accountSynchronizationFilter", LdapConfiguration.class));
 
+            // dirSyncMaxBytes
+            props.add(new PropertyDescriptor("dirSyncMaxBytes", ADConfiguration.class));
+
             /*
             * Misc
             */
@@ -247,6 +280,15 @@ public class ADConfigurationBeanInfo extends SimpleBeanInfo {
 
             // readSchema
             props.add(new PropertyDescriptor("readSchema", LdapConfiguration.class));
+
+            // schemaSnapshotDirectory
+            props.add(new PropertyDescriptor("schemaSnapshotDirectory", ADConfiguration.class));
+
+            // metricsRegistry
+            props.add(new PropertyDescriptor("metricsRegistry", ADConfiguration.class));
+
+            // traceSampleRate
+            props.add(new PropertyDescriptor("traceSampleRate", ADConfiguration.class));
         } catch (IntrospectionException e) {
             LOG.error(e, "Failure retrieving properties");
             props.clear();
@@ -15,18 +15,31 @@
  */
 package net.tirasa.connid.bundles.ad;
 
+import static org.identityconnectors.common.StringUtil.isBlank;
 import static org.identityconnectors.common.StringUtil.isNotBlank;
 
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.StartTlsResponse;
 import net.tirasa.adsddl.ntsd.controls.SDFlagsControl;
+import net.tirasa.connid.bundles.ad.crud.ADBulk;
 import net.tirasa.connid.bundles.ad.schema.ADSchema;
+import net.tirasa.connid.bundles.ad.search.ADDefaultSearchStrategy;
+import net.tirasa.connid.bundles.ad.util.ADContextPool;
+import net.tirasa.connid.bundles.ad.util.ADInstrumentedContext;
+import net.tirasa.connid.bundles.ad.util.ADMembershipBatcher;
+import net.tirasa.connid.bundles.ad.util.ADMetrics;
+import net.tirasa.connid.bundles.ad.util.ADRangeRetrieval;
+import net.tirasa.connid.bundles.ad.util.ADReadEntryControl;
+import net.tirasa.connid.bundles.ad.util.ADTrace;
+import net.tirasa.connid.bundles.ad.util.TimedCache;
 import net.tirasa.connid.bundles.ad.util.TrustAllSocketFactory;
 import net.tirasa.connid.bundles.ldap.LdapConfiguration;
 import net.tirasa.connid.bundles.ldap.LdapConnection;
@@ -35,6 +48,8 @@ import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
 import org.identityconnectors.common.Pair;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.common.security.SecurityUtil;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.exceptions.InvalidCredentialException;
 
 public class ADConnection extends LdapConnection {
@@ -47,15 +62,277 @@ public class ADConnection extends LdapConnection {
 
     private static final String LDAP_BINARY_ATTRIBUTE = "java.naming.ldap.attributes.binary";
 
+    private static final int PRIMARY_GROUP_CACHE_SIZE = 1000;
+
+    private static final long PRIMARY_GROUP_CACHE_TTL = 10 * 60 * 1000L;
+
+    private static final int ENTRY_DN_CACHE_SIZE = 10000;
+
+    private static final long ENTRY_DN_CACHE_TTL = 10 * 60 * 1000L;
+
+    private static final long CONTEXT_LEASE_TIMEOUT = 30 * 1000L;
+
     private LdapContext syncCtx = null;
 
+    private ADContextPool contextPool = null;
+
+    private ADMembershipBatcher membershipBatcher = null;
+
+    private ADMetrics metrics = null;
+
+    private ExecutorService rangeRetrievalExecutor = null;
+
+    private ExecutorService searchExecutor = null;
+
+    private ExecutorService bulkExecutor = null;
+
+    /**
+     * Primary group DNs (if found) by primary group SID.
+     */
+    private final TimedCache<String, Optional<String>> primaryGroupCache =
+            new TimedCache<>(PRIMARY_GROUP_CACHE_SIZE, PRIMARY_GROUP_CACHE_TTL);
+
+    /**
+     * Entry DNs by object class and uid.
+     */
+    private final TimedCache<String, String> entryDNCache =
+            new TimedCache<>(ENTRY_DN_CACHE_SIZE, ENTRY_DN_CACHE_TTL);
+
+    private final ADTrace trace;
+
     public ADConnection(LdapConfiguration config) {
         super(config);
         schema = new ADSchema(this);
+        trace = config instanceof ADConfiguration && ((ADConfiguration) config).getTraceSampleRate() > 0
+                ? new ADTrace(((ADConfiguration) config).getTraceSampleRate())
+                : ADTrace.NONE;
+    }
+
+    /**
+     * Get the trace of per-entry processing, disabled unless a sample rate is configured.
+     *
+     * @return trace
+     */
+    public ADTrace getTrace() {
+        return trace;
+    }
+
+    public TimedCache<String, Optional<String>> getPrimaryGroupCache() {
+        return primaryGroupCache;
+    }
+
+    public TimedCache<String, String> getEntryDNCache() {
+        return entryDNCache;
     }
 
+    /**
+     * Get a context to be used for synchronization, with the given request controls: it must be given back via
+     * {@link #releaseContext(javax.naming.ldap.LdapContext)}.
+     *
+     * @param control request controls
+     * @return context to be used for synchronization
+     * @throws ConnectorException if the context could not be initialized with the given request controls
+     */
     public LdapContext getSyncContext(final Control[] control) {
-        return cloneContext(control);
+        return leaseContext(control);
+    }
+
+    /**
+     * Lease a context from the pool, if configured, or get the initial context otherwise: in both cases, it must be
+     * given back via {@link #releaseContext(javax.naming.ldap.LdapContext)}.
+     *
+     * @return leased context
+     */
+    public LdapContext leaseContext() {
+        final ADContextPool pool = getContextPool();
+        return pool == null ? getInitialContext() : pool.lease();
+    }
+
+    /**
+     * Lease a context with the given request controls: as the initial context is shared, a distinct one is returned
+     * if no pool is configured. In both cases, it must be given back via
+     * {@link #releaseContext(javax.naming.ldap.LdapContext)}, which resets or discards the request controls.
+     *
+     * @param controls request controls
+     * @return leased context
+     * @throws ConnectorException if the context could not be initialized with the given request controls
+     */
+    public LdapContext leaseContext(final Control[] controls) {
+        final ADContextPool pool = getContextPool();
+        try {
+            if (pool == null) {
+                return getInitialContext().newInstance(controls);
+            }
+
+            final LdapContext ctx = pool.lease();
+            try {
+                ctx.setRequestControls(controls);
+            } catch (NamingException e) {
+                pool.invalidate(ctx);
+                throw e;
+            }
+            return ctx;
+        } catch (NamingException e) {
+            throw new ConnectorException("Context initialization failed", e);
+        }
+    }
+
+    /**
+     * Give back a context obtained via {@link #leaseContext()} or {@link #getSyncContext(javax.naming.ldap.Control[])}.
+     *
+     * @param ctx context
+     */
+    public void releaseContext(final LdapContext ctx) {
+        if (ctx == null || ctx == initCtx) {
+            return;
+        }
+
+        final ADContextPool pool = contextPool;
+        if (pool != null && pool.isLeased(ctx)) {
+            try {
+                ctx.setRequestControls(getDefaultRequestControls());
+                pool.release(ctx);
+            } catch (NamingException e) {
+                LOG.ok(e, "Could not reset request controls");
+                pool.invalidate(ctx);
+            }
+        } else {
+            try {
+                ctx.close();
+            } catch (NamingException e) {
+                LOG.ok(e, "Could not close context");
+            }
+        }
+    }
+
+    private synchronized ADContextPool getContextPool() {
+        final ADConfiguration conf = (ADConfiguration) config;
+        if (contextPool == null && conf.getContextPoolMaxSize() > 0) {
+            contextPool = new ADContextPool(
+                    () -> {
+                        final Pair<LdapContext, StartTlsResponse> pair =
+                                connect(config.getPrincipal(), config.getCredentials());
+                        try {
+                            pair.first.setRequestControls(getDefaultRequestControls());
+                        } catch (NamingException e) {
+                            LOG.error(e, "Error initializing request controls");
+                        }
+                        return pair;
+                    },
+                    LdapConnection::quietClose,
+                    conf.getContextPoolMaxSize(),
+                    conf.getContextPoolMaxIdleTime() * 1000L,
+                    conf.getContextPoolMaxLifetime() * 1000L,
+                    config.getConnectTimeout() > 0 ? config.getConnectTimeout() : CONTEXT_LEASE_TIMEOUT);
+        }
+        return contextPool;
+    }
+
+    /**
+     * Get the batcher coalescing group membership changes, if configured.
+     *
+     * @return membership batcher, or null if not configured
+     */
+    public synchronized ADMembershipBatcher getMembershipBatcher() {
+        final ADConfiguration conf = (ADConfiguration) config;
+        if (membershipBatcher == null && conf.getMembershipBatchSize() > 0) {
+            // connections sharing a batcher must write with the same credentials and settings
+            final StringBuilder credentials = new StringBuilder();
+            if (config.getCredentials() != null) {
+                config.getCredentials().access(chars -> credentials.append(SecurityUtil.computeBase64SHA1Hash(chars)));
+            }
+
+            membershipBatcher = ADMembershipBatcher.acquire(
+                    getLdapUrls() + "|" + config.getPrincipal() + "|" + credentials
+                    + "|" + config.getGroupMemberAttribute()
+                    + "|" + conf.getMembershipBatchSize() + "|" + conf.getMembershipBatchLatency(),
+                    () -> new ADConnection(config),
+                    conf.getMembershipBatchSize(),
+                    conf.getMembershipBatchLatency());
+        }
+        return membershipBatcher;
+    }
+
+    /**
+     * Get the executor reading windows ahead for range retrievals, shared by all of them on this connection.
+     *
+     * @return range retrieval executor
+     */
+    public synchronized ExecutorService getRangeRetrievalExecutor() {
+        if (rangeRetrievalExecutor == null) {
+            rangeRetrievalExecutor = ADRangeRetrieval.newExecutor();
+        }
+        return rangeRetrievalExecutor;
+    }
+
+    /**
+     * Get the executor running background searches, shared by all of them on this connection.
+     *
+     * @return background search executor
+     */
+    public synchronized ExecutorService getSearchExecutor() {
+        if (searchExecutor == null) {
+            searchExecutor = ADDefaultSearchStrategy.newExecutor();
+        }
+        return searchExecutor;
+    }
+
+    /**
+     * Get the executor running bulk workers, shared by all bulk requests on this connection.
+     *
+     * @return bulk executor
+     */
+    public synchronized ExecutorService getBulkExecutor() {
+        if (bulkExecutor == null) {
+            bulkExecutor = ADBulk.newExecutor();
+        }
+        return bulkExecutor;
+    }
+
+    /**
+     * Get the metrics of connections towards the same server: if no metrics registry is configured, metrics are
+     * discarded.
+     *
+     * @return metrics
+     */
+    public synchronized ADMetrics getMetrics() {
+        final ADConfiguration conf = (ADConfiguration) config;
+        if (metrics == null) {
+            if (isBlank(conf.getMetricsRegistry())) {
+                metrics = ADMetrics.NONE;
+            } else {
+                metrics = ADMetrics.acquire(getLdapUrls() + "|" + config.getPrincipal(), conf.getMetricsRegistry());
+                metrics.addCache("primaryGroup", primaryGroupCache);
+                metrics.addCache("entryDN", entryDNCache);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Whether the server advertises the Post-Read control (RFC 4527).
+     *
+     * @return whether entries can be read back with the response of add and modify operations
+     */
+    public boolean supportsPostRead() {
+        return supportsControl(ADReadEntryControl.POST_READ_OID);
+    }
+
+    /**
+     * Whether values of the given attribute are returned as byte arrays.
+     *
+     * @param attrName attribute name
+     * @return whether values of the given attribute are binary
+     */
+    public boolean isBinaryAttribute(final String attrName) {
+        return ADConnector.SDDL_ATTR.equalsIgnoreCase(attrName)
+                || ADConnector.OBJECTGUID.equalsIgnoreCase(attrName)
+                || ADConnector.OBJECTSID.equalsIgnoreCase(attrName)
+                || isBinarySyntax(attrName);
+    }
+
+    private static Control[] getDefaultRequestControls() {
+        return new Control[] { new SDFlagsControl(0x00000004) };
     }
 
     @Override
@@ -65,6 +342,41 @@ public class ADConnection extends LdapConnection {
             quietClose(new Pair<>(syncCtx, tlsCtx));
         } finally {
             syncCtx = null;
+
+            synchronized (this) {
+                if (membershipBatcher != null) {
+                    membershipBatcher.release();
+                    membershipBatcher = null;
+                }
+                if (rangeRetrievalExecutor != null) {
+                    rangeRetrievalExecutor.shutdownNow();
+                    rangeRetrievalExecutor = null;
+                }
+                if (searchExecutor != null) {
+                    searchExecutor.shutdownNow();
+                    searchExecutor = null;
+                }
+                if (bulkExecutor != null) {
+                    bulkExecutor.shutdownNow();
+                    bulkExecutor = null;
+                }
+                if (contextPool != null) {
+                    contextPool.close();
+                    contextPool = null;
+                }
+                if (metrics != null) {
+                    metrics.removeCache("primaryGroup", primaryGroupCache);
+                    metrics.removeCache("entryDN", entryDNCache);
+                    metrics.release();
+                    metrics = null;
+                }
+            }
+
+            if (LOG.isOk()) {
+                LOG.ok("Primary group cache: {0} hits, {1} misses",
+                        primaryGroupCache.getHits(), primaryGroupCache.getMisses());
+            }
+            primaryGroupCache.clear();
         }
     }
 
@@ -78,7 +390,7 @@ public class ADConnection extends LdapConnection {
     }
 
     @Override
-    public LdapContext getInitialContext() {
+    public synchronized LdapContext getInitialContext() {
         if (this.initCtx != null) {
             return this.initCtx;
         }
@@ -88,7 +400,7 @@ public class ADConnection extends LdapConnection {
         tlsCtx = connectPair.second;
 
         try {
-            initCtx.setRequestControls(new Control[] { new SDFlagsControl(0x00000004) });
+            initCtx.setRequestControls(getDefaultRequestControls());
         } catch (NamingException e) {
             LOG.error(e, "Error initializing request controls");
         }
@@ -145,7 +457,11 @@ public class ADConnection extends LdapConnection {
             }
         }
 
-        result.add(createContext(env));
+        final Pair<AuthenticationResult, Pair<LdapContext, StartTlsResponse>> created = createContext(env);
+        result.add(created.second == null
+                ? created
+                : new Pair<>(created.first, new Pair<>(
+                        ADInstrumentedContext.wrap(created.second.first, getMetrics()), created.second.second)));
 
         return result.get(0);
     }
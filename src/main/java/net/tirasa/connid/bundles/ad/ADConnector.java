@@ -20,11 +20,17 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 import net.tirasa.connid.bundles.ad.authentication.ADAuthenticate;
+import net.tirasa.connid.bundles.ad.crud.ADBulk;
+import net.tirasa.connid.bundles.ad.crud.ADBulkOperation;
+import net.tirasa.connid.bundles.ad.crud.ADBulkResult;
 import net.tirasa.connid.bundles.ad.crud.ADCreate;
 import net.tirasa.connid.bundles.ad.crud.ADDelete;
 import net.tirasa.connid.bundles.ad.crud.ADUpdate;
 import net.tirasa.connid.bundles.ad.search.ADSearch;
+import net.tirasa.connid.bundles.ad.util.ADMetrics;
+import net.tirasa.connid.bundles.ad.util.ADUtilities;
 import net.tirasa.connid.bundles.ldap.LdapConnector;
 import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
 import net.tirasa.connid.bundles.ldap.search.LdapFilter;
@@ -37,6 +43,8 @@ import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.spi.ConnectorClass;
 
@@ -59,6 +67,11 @@ public class ADConnector extends LdapConnector {
 
     public static final String SDDL_ATTR = "ntSecurityDescriptor";
 
+    /**
+     * Operation option carrying the DN of the entry to be updated, when known to the caller.
+     */
+    public static final String OP_ENTRY_DN = "entryDN";
+
     // These attributes have to be removed for ADDS 2012
     public final static List<String> ADDS2012_ATTRIBUTES_TO_BE_REMOVED = Arrays.asList(
             "msds-memberOfTransitive", "msDS-parentdistname", "msds-memberTransitive");
@@ -83,7 +96,10 @@ public class ADConnector extends LdapConnector {
             final LdapFilter query,
             final ResultsHandler handler,
             final OperationOptions options) {
-        new ADSearch(conn, oclass, query, handler, options).execute();
+        measure("executeQuery", () -> {
+            new ADSearch(conn, oclass, query, handler, options).execute();
+            return null;
+        });
     }
 
     @Override
@@ -92,6 +108,25 @@ public class ADConnector extends LdapConnector {
             final Set<Attribute> attrs,
             final OperationOptions options) {
 
+        return create(oclass, attrs, options, new ADUtilities((ADConnection) conn));
+    }
+
+    /**
+     * Same as {@link #create(ObjectClass, Set, OperationOptions)}, with the given utilities: as they are not
+     * thread-safe, each thread must provide its own.
+     *
+     * @param oclass object class
+     * @param attrs attributes of the entry to be created
+     * @param options operation options
+     * @param utils utilities
+     * @return uid of the entry created
+     */
+    public Uid create(
+            final ObjectClass oclass,
+            final Set<Attribute> attrs,
+            final OperationOptions options,
+            final ADUtilities utils) {
+
         if (ADConfiguration.class.cast(conn.getConfiguration()).isPwdUpdateOnly()) {
             throw new IllegalStateException("Create operation not permitted");
         }
@@ -117,7 +152,8 @@ public class ADConnector extends LdapConnector {
             attributes.add(AttributeBuilder.build("ldapGroups", ldapGroupsToBeAdded));
         }
 
-        return new ADCreate((ADConnection) conn, oclass, attributes, options).execute();
+        return measure("create",
+                () -> new ADCreate((ADConnection) conn, oclass, attributes, options, utils).execute());
     }
 
     @Override
@@ -127,6 +163,27 @@ public class ADConnector extends LdapConnector {
             final Set<Attribute> attrs,
             final OperationOptions options) {
 
+        return update(oclass, uid, attrs, options, new ADUtilities((ADConnection) conn));
+    }
+
+    /**
+     * Same as {@link #update(ObjectClass, Uid, Set, OperationOptions)}, with the given utilities: as they are not
+     * thread-safe, each thread must provide its own.
+     *
+     * @param oclass object class
+     * @param uid uid of the entry to be updated
+     * @param attrs attributes to be replaced
+     * @param options operation options
+     * @param utils utilities
+     * @return uid of the entry updated
+     */
+    public Uid update(
+            final ObjectClass oclass,
+            final Uid uid,
+            final Set<Attribute> attrs,
+            final OperationOptions options,
+            final ADUtilities utils) {
+
         final Set<Attribute> attributes = new HashSet<Attribute>();
 
         if (ADConfiguration.class.cast(conn.getConfiguration()).isPwdUpdateOnly()) {
@@ -156,7 +213,8 @@ public class ADConnector extends LdapConnector {
             }
         }
 
-        return new ADUpdate((ADConnection) conn, oclass, uid).update(attributes);
+        return measure("update",
+                () -> new ADUpdate((ADConnection) conn, oclass, uid, options, utils).update(attributes));
     }
 
     @Override
@@ -164,7 +222,8 @@ public class ADConnector extends LdapConnector {
             final Uid uid,
             final Set<AttributeDelta> modifications,
             final OperationOptions options) {
-        return new ADUpdate((ADConnection) conn, oclass, uid).updateDelta(modifications);
+        return measure("updateDelta",
+                () -> new ADUpdate((ADConnection) conn, oclass, uid, options).updateDelta(modifications));
     }
 
     @Override
@@ -173,11 +232,56 @@ public class ADConnector extends LdapConnector {
             final Uid uid,
             final OperationOptions options) {
 
+        delete(oclass, uid, options, new ADUtilities((ADConnection) conn));
+    }
+
+    /**
+     * Same as {@link #delete(ObjectClass, Uid, OperationOptions)}, with the given utilities: as they are not
+     * thread-safe, each thread must provide its own.
+     *
+     * @param oclass object class
+     * @param uid uid of the entry to be deleted
+     * @param options operation options
+     * @param utils utilities
+     */
+    public void delete(
+            final ObjectClass oclass,
+            final Uid uid,
+            final OperationOptions options,
+            final ADUtilities utils) {
+
         if (ADConfiguration.class.cast(conn.getConfiguration()).isPwdUpdateOnly()) {
             throw new IllegalStateException("Delete operation not permitted");
         }
 
-        new ADDelete((ADConnection) conn, oclass, uid).execute();
+        measure("delete", () -> {
+            new ADDelete((ADConnection) conn, oclass, uid, utils).execute();
+            return null;
+        });
+    }
+
+    @Override
+    public void sync(
+            final ObjectClass oclass,
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options) {
+
+        measure("sync", () -> {
+            super.sync(oclass, token, handler, options);
+            return null;
+        });
+    }
+
+    /**
+     * Perform the given create, update and delete operations, up to the configured bulk concurrency at the same time.
+     * Failures are reported per operation, without stopping the others.
+     *
+     * @param operations operations to perform
+     * @return one result per operation, in the same order
+     */
+    public List<ADBulkResult> bulk(final List<ADBulkOperation> operations) {
+        return new ADBulk(this, (ADConnection) conn).execute(operations);
     }
 
     @Override
@@ -187,7 +291,8 @@ public class ADConnector extends LdapConnector {
             final GuardedString password,
             final OperationOptions options) {
 
-        return new ADAuthenticate((ADConnection) conn, objectClass, username, options).authenticate(password);
+        return measure("authenticate",
+                () -> new ADAuthenticate((ADConnection) conn, objectClass, username, options).authenticate(password));
     }
 
     @Override
@@ -198,4 +303,25 @@ public class ADConnector extends LdapConnector {
 
         return new ADAuthenticate((ADConnection) conn, objectClass, username, options).resolveUsername();
     }
+
+    /**
+     * Perform the given operation, recording its latency and failure, if any.
+     *
+     * @param <T> result type
+     * @param operation operation name
+     * @param action operation
+     * @return operation result
+     */
+    private <T> T measure(final String operation, final Supplier<T> action) {
+        final ADMetrics metrics = ((ADConnection) conn).getMetrics();
+        final long start = System.nanoTime();
+        try {
+            return action.get();
+        } catch (RuntimeException e) {
+            metrics.increment(operation + ".errors", 1);
+            throw e;
+        } finally {
+            metrics.record(operation, start);
+        }
+    }
 }
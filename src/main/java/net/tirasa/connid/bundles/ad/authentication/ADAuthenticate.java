@@ -15,14 +15,18 @@
  */
 package net.tirasa.connid.bundles.ad.authentication;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import net.tirasa.connid.bundles.ad.ADConfiguration;
 import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.search.ADSearch;
+import net.tirasa.connid.bundles.ad.util.ADExtendedDN;
 import net.tirasa.connid.bundles.ldap.LdapAuthenticate;
 import net.tirasa.connid.bundles.ldap.LdapConnection.AuthenticationResult;
+import net.tirasa.connid.bundles.ldap.search.LdapFilter;
 import net.tirasa.connid.bundles.ldap.search.LdapSearches;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
@@ -34,6 +38,7 @@ import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
 import org.identityconnectors.framework.common.objects.Uid;
 
 public class ADAuthenticate extends LdapAuthenticate {
@@ -84,8 +89,7 @@ public class ADAuthenticate extends LdapAuthenticate {
             for (String userNameAttr : userNameAttrs) {
                 Attribute attr = AttributeBuilder.build(userNameAttr, username);
 
-                for (ConnectorObject object : LdapSearches.findObjects(conn, oclass, baseContext, attr,
-                        dnAttributeName)) {
+                for (ConnectorObject object : findObjects(baseContext, attr, dnAttributeName)) {
                     String entryDN = object.getAttributeByName(dnAttributeName).getValue().get(0).toString();
                     entryDN2Object.put(entryDN, object);
                 }
@@ -105,6 +109,25 @@ public class ADAuthenticate extends LdapAuthenticate {
         return null;
     }
 
+    private List<ConnectorObject> findObjects(
+            final String baseContext, final Attribute attr, final String dnAttributeName) {
+
+        if (ADExtendedDN.get(attr.getName(), username) == null) {
+            return LdapSearches.findObjects(conn, oclass, baseContext, attr, dnAttributeName);
+        }
+
+        // objectGUID or objectSID: ADSearch reads the entry directly via its extended DN
+        final List<ConnectorObject> objects = new ArrayList<>();
+        new ADSearch(
+                conn,
+                oclass,
+                LdapFilter.forNativeFilter("(" + attr.getName() + "=" + username + ")"),
+                objects::add,
+                new OperationOptionsBuilder().setAttributesToGet(dnAttributeName).build(),
+                new String[] { baseContext }).execute();
+        return objects;
+    }
+
     @Override
     protected List<String> getUserNameAttributes() {
         String[] result = ADConfiguration.class.cast(conn.getConfiguration()).getUserAuthenticationAttributes();
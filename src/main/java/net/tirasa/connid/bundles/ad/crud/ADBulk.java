@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.crud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.util.ADUtilities;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Performs a batch of create, update and delete operations with bounded concurrency.
+ * Up to the configured bulk concurrency operations are in flight at the same time, each worker taking the next
+ * pending operation as soon as its previous one completes; the calling thread is one of the workers, the others run
+ * on the executor of the connection. All workers share the connection of the calling connector, each operation
+ * leasing its own context: as many workers as pooled contexts are used at most, and operations are performed one
+ * after the other if no context pool is configured. Each worker reuses its own utilities across operations.
+ * Operations are independent from each other: when more than one worker is used, operations on the same entry should
+ * not be part of the same batch.
+ */
+public class ADBulk {
+
+    private static final Log LOG = Log.getLog(ADBulk.class);
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final ADConnector connector;
+
+    private final ADConnection connection;
+
+    private final ADConfiguration config;
+
+    public ADBulk(final ADConnector connector, final ADConnection connection) {
+        this.connector = connector;
+        this.connection = connection;
+        this.config = (ADConfiguration) connection.getConfiguration();
+    }
+
+    /**
+     * Create an executor for bulk workers.
+     *
+     * @return bulk executor
+     */
+    public static ExecutorService newExecutor() {
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ADBulk-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Perform the given operations.
+     *
+     * @param operations operations to perform
+     * @return one result per operation, in the same order
+     */
+    public List<ADBulkResult> execute(final List<ADBulkOperation> operations) {
+        final ADBulkResult[] results = new ADBulkResult[operations.size()];
+        final AtomicInteger next = new AtomicInteger();
+
+        int threads = Math.min(config.getBulkConcurrency(), operations.size());
+        if (threads > 1 && config.getContextPoolMaxSize() < 1) {
+            LOG.ok("No context pool configured, performing bulk operations one after the other");
+            threads = 1;
+        } else if (threads > 1) {
+            threads = Math.min(threads, config.getContextPoolMaxSize());
+        }
+
+        if (threads <= 1) {
+            drain(operations, results, next);
+            return Arrays.asList(results);
+        }
+
+        final ExecutorService executor = connection.getBulkExecutor();
+        final List<Future<?>> futures = new ArrayList<>(threads - 1);
+        try {
+            for (int i = 1; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    drain(operations, results, next);
+                    return null;
+                }));
+            }
+
+            drain(operations, results, next);
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException(e);
+        } catch (ExecutionException e) {
+            throw new ConnectorException(e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+
+        return Arrays.asList(results);
+    }
+
+    private void drain(
+            final List<ADBulkOperation> operations,
+            final ADBulkResult[] results,
+            final AtomicInteger next) {
+
+        final ADUtilities utils = new ADUtilities(connection);
+        for (int i = next.getAndIncrement(); i < operations.size(); i = next.getAndIncrement()) {
+            results[i] = perform(operations.get(i), utils);
+        }
+    }
+
+    private ADBulkResult perform(final ADBulkOperation operation, final ADUtilities utils) {
+        try {
+            Uid uid;
+            switch (operation.getType()) {
+                case CREATE:
+                    uid = connector.create(
+                            operation.getObjectClass(), operation.getAttributes(), operation.getOptions(), utils);
+                    break;
+
+                case UPDATE:
+                    uid = connector.update(
+                            operation.getObjectClass(),
+                            operation.getUid(),
+                            operation.getAttributes(),
+                            operation.getOptions(),
+                            utils);
+                    break;
+
+                case DELETE:
+                default:
+                    connector.delete(operation.getObjectClass(), operation.getUid(), operation.getOptions(), utils);
+                    uid = operation.getUid();
+            }
+
+            return new ADBulkResult(operation, uid, null);
+        } catch (RuntimeException e) {
+            LOG.error(e, "Bulk {0} of {1} failed", operation.getType(), operation.getUid());
+            return new ADBulkResult(operation, null, e);
+        }
+    }
+}
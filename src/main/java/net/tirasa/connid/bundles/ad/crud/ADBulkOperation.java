@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.crud;
+
+import java.util.Collections;
+import java.util.Set;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Single create, update or delete to be performed as part of a bulk execution.
+ */
+public final class ADBulkOperation {
+
+    public enum Type {
+        CREATE,
+        UPDATE,
+        DELETE
+
+    }
+
+    public static ADBulkOperation create(
+            final ObjectClass oclass,
+            final Set<Attribute> attrs,
+            final OperationOptions options) {
+
+        return new ADBulkOperation(Type.CREATE, oclass, null, attrs, options);
+    }
+
+    public static ADBulkOperation update(
+            final ObjectClass oclass,
+            final Uid uid,
+            final Set<Attribute> attrs,
+            final OperationOptions options) {
+
+        return new ADBulkOperation(Type.UPDATE, oclass, uid, attrs, options);
+    }
+
+    public static ADBulkOperation delete(
+            final ObjectClass oclass,
+            final Uid uid,
+            final OperationOptions options) {
+
+        return new ADBulkOperation(Type.DELETE, oclass, uid, Collections.<Attribute>emptySet(), options);
+    }
+
+    private final Type type;
+
+    private final ObjectClass oclass;
+
+    private final Uid uid;
+
+    private final Set<Attribute> attrs;
+
+    private final OperationOptions options;
+
+    private ADBulkOperation(
+            final Type type,
+            final ObjectClass oclass,
+            final Uid uid,
+            final Set<Attribute> attrs,
+            final OperationOptions options) {
+
+        this.type = type;
+        this.oclass = oclass;
+        this.uid = uid;
+        this.attrs = attrs;
+        this.options = options;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public ObjectClass getObjectClass() {
+        return oclass;
+    }
+
+    public Uid getUid() {
+        return uid;
+    }
+
+    public Set<Attribute> getAttributes() {
+        return attrs;
+    }
+
+    public OperationOptions getOptions() {
+        return options;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.crud;
+
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Outcome of a single {@link ADBulkOperation}: the resulting uid on success, the error otherwise.
+ */
+public final class ADBulkResult {
+
+    private final ADBulkOperation operation;
+
+    private final Uid uid;
+
+    private final RuntimeException error;
+
+    public ADBulkResult(final ADBulkOperation operation, final Uid uid, final RuntimeException error) {
+        this.operation = operation;
+        this.uid = uid;
+        this.error = error;
+    }
+
+    public ADBulkOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return uid of the created or updated entry, or the uid of the deleted entry
+     */
+    public Uid getUid() {
+        return uid;
+    }
+
+    public RuntimeException getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
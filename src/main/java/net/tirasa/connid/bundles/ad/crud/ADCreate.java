@@ -16,6 +16,7 @@
 package net.tirasa.connid.bundles.ad.crud;
 
 import static net.tirasa.connid.bundles.ad.ADConnector.OBJECTGUID;
+import static net.tirasa.connid.bundles.ad.ADConnector.SDDL_ATTR;
 import static net.tirasa.connid.bundles.ad.ADConnector.UACCONTROL_ATTR;
 import static net.tirasa.connid.bundles.ad.ADConnector.UF_ACCOUNTDISABLE;
 import static net.tirasa.connid.bundles.ad.ADConnector.UF_NORMAL_ACCOUNT;
@@ -23,19 +24,26 @@ import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.checkedListByFilte
 import static org.identityconnectors.common.CollectionUtil.isEmpty;
 import static org.identityconnectors.common.CollectionUtil.nullAsEmpty;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
 import net.tirasa.adsddl.ntsd.utils.GUID;
 import net.tirasa.connid.bundles.ad.ADConfiguration;
 import net.tirasa.connid.bundles.ad.ADConnection;
 import net.tirasa.connid.bundles.ad.ADConnector;
 import net.tirasa.connid.bundles.ad.util.ADGuardedPasswordAttribute;
+import net.tirasa.connid.bundles.ad.util.ADMembershipBatcher;
+import net.tirasa.connid.bundles.ad.util.ADReadEntryControl;
 import net.tirasa.connid.bundles.ad.util.ADUtilities;
 import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
 import net.tirasa.connid.bundles.ldap.modify.LdapCreate;
@@ -44,6 +52,7 @@ import net.tirasa.connid.bundles.ldap.schema.GuardedPasswordAttribute.Accessor;
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeUtil;
@@ -57,12 +66,24 @@ public class ADCreate extends LdapCreate {
 
     private static final Log LOG = Log.getLog(ADConnection.class);
 
+    private final ADUtilities utils;
+
     public ADCreate(
             final ADConnection conn,
             final ObjectClass oclass,
             final Set<Attribute> attrs,
             final OperationOptions options) {
+        this(conn, oclass, attrs, options, new ADUtilities(conn));
+    }
+
+    public ADCreate(
+            final ADConnection conn,
+            final ObjectClass oclass,
+            final Set<Attribute> attrs,
+            final OperationOptions options,
+            final ADUtilities utils) {
         super(conn, oclass, attrs, options);
+        this.utils = utils;
     }
 
     @Override
@@ -82,8 +103,6 @@ public class ADCreate extends LdapCreate {
             attrs.remove(cnAttr);
         }
 
-        final ADUtilities utils = new ADUtilities((ADConnection) conn);
-
         Name name;
         Uid uid = AttributeUtil.getUidAttribute(attrs);
 
@@ -255,37 +274,110 @@ public class ADCreate extends LdapCreate {
             adAttrs.put(UACCONTROL_ATTR, Integer.toString(uacValue));
         }
 
-        final String entryDN = conn.getSchema().create(oclass, name, adAttrs);
+        final boolean guidAsUid = OBJECTGUID.equals(conn.getSchema().getLdapUidAttribute(oclass));
 
+        // what is needed below: current ntSecurityDescriptor and objectGUID
+        final List<String> attrsToRead = new ArrayList<>(2);
         if (uccp != null) {
+            attrsToRead.add(SDDL_ATTR);
+        }
+        if (guidAsUid) {
+            attrsToRead.add(OBJECTGUID);
+        }
+
+        final LdapContext ctx = ((ADConnection) conn).leaseContext();
+        try {
+            final String entryDN;
+            Attributes profile = null;
+            if (!attrsToRead.isEmpty() && ((ADConnection) conn).supportsPostRead()) {
+                // ---------------------------------
+                // Create and read back with the same operation
+                // ---------------------------------
+                entryDN = conn.getSchema().getEntryDN(oclass, name);
+                profile = create(ctx, entryDN, adAttrs, attrsToRead);
+                // ---------------------------------
+            } else {
+                entryDN = conn.getSchema().create(oclass, name, adAttrs);
+            }
+
+            if (profile == null || profile.size() < attrsToRead.size()) {
+                // ---------------------------------
+                // Read at once what is needed below
+                // ---------------------------------
+                profile = attrsToRead.isEmpty()
+                        ? new BasicAttributes(true)
+                        : ctx.getAttributes(entryDN, attrsToRead.toArray(new String[attrsToRead.size()]));
+                // ---------------------------------
+            }
+
+            if (!isEmpty(ldapGroups)) {
+                final ADMembershipBatcher batcher = ((ADConnection) conn).getMembershipBatcher();
+                if (batcher == null) {
+                    groupHelper.addLdapGroupMemberships(entryDN, ldapGroups);
+                } else {
+                    batcher.apply(entryDN, ldapGroups, Collections.emptySet());
+                }
+            }
+
             // ---------------------------------
-            // Change ntSecurityDescriptor
+            // Change ntSecurityDescriptor and primaryGroupID with a single modification: primaryGroupID
+            // requires the membership to be already in place
             // ---------------------------------
-            conn.getInitialContext().modifyAttributes(entryDN, new ModificationItem[] {
-                new ModificationItem(DirContext.REPLACE_ATTRIBUTE, utils.userCannotChangePassword(entryDN, uccp)) });
+            final List<ModificationItem> modItems = new ArrayList<>(2);
+
+            if (uccp != null) {
+                final javax.naming.directory.Attribute sddl = utils.userCannotChangePassword(profile, uccp);
+                if (sddl != null) {
+                    modItems.add(new ModificationItem(DirContext.REPLACE_ATTRIBUTE, sddl));
+                }
+            }
+
+            if (StringUtil.isNotBlank(primaryGroupDN)) {
+                modItems.add(new ModificationItem(DirContext.REPLACE_ATTRIBUTE, utils.getGroupID(primaryGroupDN)));
+            }
 
+            if (!modItems.isEmpty()) {
+                ctx.modifyAttributes(entryDN, modItems.toArray(new ModificationItem[modItems.size()]));
+            }
             // ---------------------------------
+
+            final Uid created = guidAsUid
+                    ? new Uid(GUID.getGuidAsString((byte[]) profile.get(OBJECTGUID).get()))
+                    : conn.getSchema().createUid(oclass, entryDN);
+            utils.cacheEntryDN(oclass, created, entryDN);
+            return created;
+        } finally {
+            ((ADConnection) conn).releaseContext(ctx);
         }
+    }
 
-        if (!isEmpty(ldapGroups)) {
-            groupHelper.addLdapGroupMemberships(entryDN, ldapGroups);
+    private Attributes create(
+            final LdapContext ctx,
+            final String entryDN,
+            final Attributes adAttrs,
+            final List<String> attrsToRead)
+            throws NamingException {
+
+        final BasicAttributes entry = new BasicAttributes(true);
+        final NamingEnumeration<? extends javax.naming.directory.Attribute> attrs = adAttrs.getAll();
+        while (attrs.hasMoreElements()) {
+            entry.put(attrs.nextElement());
         }
 
-        if (StringUtil.isNotBlank(primaryGroupDN)) {
-            // ---------------------------------
-            // Change primaryGroupID
-            // ---------------------------------
-            conn.getInitialContext().modifyAttributes(entryDN, new ModificationItem[] {
-                new ModificationItem(DirContext.REPLACE_ATTRIBUTE, utils.getGroupID(primaryGroupDN)) });
+        final BasicAttribute objectClass = new BasicAttribute("objectClass");
+        conn.getSchema().getEffectiveLdapClasses(oclass).forEach(objectClass::add);
+        entry.put(objectClass);
 
-            // ---------------------------------
-        }
+        LOG.ok("Creating LDAP subcontext {0} with attributes {1}", entryDN, entry);
 
-        if (OBJECTGUID.equals(conn.getSchema().getLdapUidAttribute(oclass))) {
-            final Attributes profile = conn.getInitialContext().getAttributes(entryDN, new String[] { OBJECTGUID });
-            return new Uid(GUID.getGuidAsString((byte[]) profile.get(OBJECTGUID).get()));
-        } else {
-            return conn.getSchema().createUid(oclass, entryDN);
+        try {
+            return ADReadEntryControl.postRead(
+                    ctx,
+                    attrsToRead.toArray(new String[attrsToRead.size()]),
+                    ((ADConnection) conn)::isBinaryAttribute,
+                    c -> c.createSubcontext(new LdapName(entryDN), entry).close());
+        } catch (NamingException e) {
+            throw new ConnectorException(e);
         }
     }
 }
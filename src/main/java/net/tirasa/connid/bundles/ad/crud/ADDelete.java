@@ -15,12 +15,15 @@
  */
 package net.tirasa.connid.bundles.ad.crud;
 
-import static net.tirasa.connid.bundles.ad.ADConnector.OBJECTGUID;
-
+import java.util.Collections;
 import java.util.Set;
 import java.util.TreeSet;
 import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
 import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.util.ADExtendedDN;
+import net.tirasa.connid.bundles.ad.util.ADMembershipBatcher;
+import net.tirasa.connid.bundles.ad.util.ADUtilities;
 import net.tirasa.connid.bundles.ldap.modify.LdapDelete;
 import net.tirasa.connid.bundles.ldap.search.LdapSearches;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
@@ -29,28 +32,40 @@ import org.identityconnectors.framework.common.objects.Uid;
 
 public class ADDelete extends LdapDelete {
 
+    private final ADUtilities utils;
+
     public ADDelete(final ADConnection conn, final ObjectClass oclass, final Uid uid) {
+        this(conn, oclass, uid, new ADUtilities(conn));
+    }
+
+    public ADDelete(final ADConnection conn, final ObjectClass oclass, final Uid uid, final ADUtilities utils) {
         super(conn, oclass, uid);
+        this.utils = utils;
     }
 
     @Override
     public void execute() {
-        final String entryDN;
-        if (OBJECTGUID.equals(conn.getSchema().getLdapUidAttribute(oclass))) {
-            entryDN = String.format("<GUID=%s>", uid.getUidValue());
-        } else {
-            entryDN = LdapSearches.getEntryDN(conn, oclass, uid);
-        }
+        final String extendedDN = ADExtendedDN.get(conn.getSchema().getLdapUidAttribute(oclass), uid.getUidValue());
+        final String entryDN = extendedDN == null ? LdapSearches.getEntryDN(conn, oclass, uid) : extendedDN;
 
         final Set<String> ldapGroups = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
         ldapGroups.addAll(groupHelper.getLdapGroups(entryDN));
 
-        groupHelper.removeLdapGroupMemberships(entryDN, ldapGroups);
+        final ADMembershipBatcher batcher = ((ADConnection) conn).getMembershipBatcher();
+        if (batcher == null) {
+            groupHelper.removeLdapGroupMemberships(entryDN, ldapGroups);
+        } else {
+            batcher.apply(entryDN, Collections.emptySet(), ldapGroups);
+        }
 
+        final LdapContext ctx = ((ADConnection) conn).leaseContext();
         try {
-            conn.getInitialContext().destroySubcontext(entryDN);
+            ctx.destroySubcontext(entryDN);
+            utils.invalidateEntryDN(oclass, uid);
         } catch (NamingException e) {
             throw new ConnectorException(e);
+        } finally {
+            ((ADConnection) conn).releaseContext(ctx);
         }
     }
 }
@@ -16,18 +16,22 @@
 package net.tirasa.connid.bundles.ad.crud;
 
 import static net.tirasa.connid.bundles.ad.ADConnector.OBJECTGUID;
-import static net.tirasa.connid.bundles.ad.ADConnector.OBJECTSID;
 import static net.tirasa.connid.bundles.ad.ADConnector.PRIMARYGROUPID;
 import static net.tirasa.connid.bundles.ad.ADConnector.UACCONTROL_ATTR;
 import static net.tirasa.connid.bundles.ad.ADConnector.UF_ACCOUNTDISABLE;
-import static net.tirasa.connid.bundles.ad.util.ADUtilities.getPrimaryGroupSID;
+import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.checkedListByFilter;
 import static org.identityconnectors.common.CollectionUtil.isEmpty;
 import static org.identityconnectors.common.CollectionUtil.newSet;
+import static org.identityconnectors.common.CollectionUtil.nullAsEmpty;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.stream.Collectors;
 import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
@@ -36,20 +40,20 @@ import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
-import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
-import net.tirasa.adsddl.ntsd.SID;
 import net.tirasa.adsddl.ntsd.utils.GUID;
-import net.tirasa.adsddl.ntsd.utils.Hex;
-import net.tirasa.adsddl.ntsd.utils.NumberFacility;
 import net.tirasa.connid.bundles.ad.ADConfiguration;
 import net.tirasa.connid.bundles.ad.ADConnection;
 import net.tirasa.connid.bundles.ad.ADConnector;
 import net.tirasa.connid.bundles.ad.util.ADGuardedPasswordAttribute;
+import net.tirasa.connid.bundles.ad.util.ADMembershipBatcher;
+import net.tirasa.connid.bundles.ad.util.ADReadEntryControl;
 import net.tirasa.connid.bundles.ad.util.ADUtilities;
 import net.tirasa.connid.bundles.ldap.commons.GroupHelper.GroupMembership;
 import net.tirasa.connid.bundles.ldap.commons.GroupHelper.Modification;
+import net.tirasa.connid.bundles.ldap.commons.StatusManagement;
 import net.tirasa.connid.bundles.ldap.modify.LdapUpdate;
 import net.tirasa.connid.bundles.ldap.schema.GuardedPasswordAttribute;
 import net.tirasa.connid.bundles.ldap.schema.GuardedPasswordAttribute.Accessor;
@@ -61,10 +65,13 @@ import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeDelta;
+import org.identityconnectors.framework.common.objects.AttributeDeltaUtil;
 import org.identityconnectors.framework.common.objects.AttributeUtil;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.identityconnectors.framework.common.objects.Uid;
 
@@ -74,6 +81,21 @@ public class ADUpdate extends LdapUpdate {
 
     private final ADUtilities utils;
 
+    /**
+     * DN of the entry to be updated, if supplied by the caller.
+     */
+    private final String knownEntryDN;
+
+    /**
+     * Attributes to be read back with the response of the next modification, if supported by the server.
+     */
+    private String[] postReadAttrs;
+
+    /**
+     * Attributes read back with the response of the last modification.
+     */
+    private Attributes postRead;
+
     /**
      * Retrieve new name if specified.
      *
@@ -127,15 +149,41 @@ public class ADUpdate extends LdapUpdate {
     }
 
     public ADUpdate(final ADConnection conn, final ObjectClass oclass, final Uid uid) {
+        this(conn, oclass, uid, null);
+    }
+
+    public ADUpdate(
+            final ADConnection conn,
+            final ObjectClass oclass,
+            final Uid uid,
+            final OperationOptions options) {
+
+        this(conn, oclass, uid, options, new ADUtilities(conn));
+    }
+
+    public ADUpdate(
+            final ADConnection conn,
+            final ObjectClass oclass,
+            final Uid uid,
+            final OperationOptions options,
+            final ADUtilities utils) {
+
         super(conn, oclass, uid);
-        this.utils = new ADUtilities(conn);
+        this.utils = utils;
+        this.knownEntryDN = options == null || options.getOptions().get(ADConnector.OP_ENTRY_DN) == null
+                ? null : options.getOptions().get(ADConnector.OP_ENTRY_DN).toString();
     }
 
     @Override
     public Uid update(final Set<Attribute> attrs) {
-        final ConnectorObject obj = utils.getEntryToBeUpdated(uid, oclass);
+        final ConnectorObject obj = utils.getEntryToBeUpdated(uid, oclass, knownEntryDN);
         String entryDN = obj.getName().getNameValue();
 
+        final boolean guidAsUid = OBJECTGUID.equals(conn.getSchema().getLdapUidAttribute(oclass));
+        if (guidAsUid && ((ADConnection) conn).supportsPostRead()) {
+            postReadAttrs = new String[] { OBJECTGUID };
+        }
+
         // ---------------------------------
         // Check if entry should be renamed.
         // ---------------------------------
@@ -163,28 +211,106 @@ public class ADUpdate extends LdapUpdate {
             // Update the attributes.
             modifyAttributes(entryDN, attrToModify, DirContext.REPLACE_ATTRIBUTE);
         }
+        postReadAttrs = null;
         // ---------------------------------
 
         modifyMemberships(entryDN, attrsToBeUpdated);
         modifyPrimaryGroupID(entryDN, attrsToBeUpdated);
 
-        if (OBJECTGUID.equals(conn.getSchema().getLdapUidAttribute(oclass))) {
+        final Uid updated;
+        if (guidAsUid && postRead != null && postRead.get(OBJECTGUID) != null) {
+            try {
+                updated = new Uid(GUID.getGuidAsString((byte[]) postRead.get(OBJECTGUID).get()));
+            } catch (NamingException e) {
+                LOG.error("Error managing objectGUID after update", e);
+                throw new ConnectorException("Error managing objectGUID after update", e);
+            }
+        } else if (guidAsUid) {
             final Attributes profile;
+            final LdapContext ctx = ((ADConnection) conn).leaseContext();
             try {
-                profile = conn.getInitialContext().getAttributes(entryDN, new String[] { OBJECTGUID });
-                return new Uid(GUID.getGuidAsString((byte[]) profile.get(OBJECTGUID).get()));
+                profile = ctx.getAttributes(entryDN, new String[] { OBJECTGUID });
+                updated = new Uid(GUID.getGuidAsString((byte[]) profile.get(OBJECTGUID).get()));
             } catch (NamingException e) {
                 LOG.error("Error managing objectGUID after update", e);
                 throw new ConnectorException("Error managing objectGUID after update", e);
+            } finally {
+                ((ADConnection) conn).releaseContext(ctx);
             }
         } else {
-            return conn.getSchema().createUid(oclass, entryDN);
+            updated = conn.getSchema().createUid(oclass, entryDN);
         }
+
+        // both DN and uid might have changed
+        utils.invalidateEntryDN(oclass, uid);
+        utils.cacheEntryDN(oclass, updated, entryDN);
+
+        return updated;
+    }
+
+    /**
+     * Same as {@link LdapUpdate#updateDelta(java.util.Set)}, except for the entry to be updated, found as by
+     * {@link #update(java.util.Set)}, and for ldapGroups, replaced as by {@link #update(java.util.Set)}.
+     *
+     * @param modifications attribute changes
+     * @return attribute changes, as performed
+     */
+    @Override
+    public Set<AttributeDelta> updateDelta(final Set<AttributeDelta> modifications) {
+        final Set<AttributeDelta> deltas = new HashSet<>(modifications);
+
+        final String entryDN = utils.getEntryToBeUpdated(uid, oclass, knownEntryDN).getName().getNameValue();
+        try {
+            Optional.ofNullable(AttributeDeltaUtil.find(OperationalAttributes.ENABLE_NAME, deltas)).
+                    filter(delta -> !isEmpty(delta.getValuesToReplace())).
+                    ifPresent(delta -> {
+                        StatusManagement.getInstance(conn.getConfiguration().getStatusManagementClass()).
+                                setStatus((Boolean) delta.getValuesToReplace().get(0), deltas);
+                        deltas.remove(delta);
+                    });
+
+            GuardedPasswordAttribute pwdAttr = null;
+            final List<ModificationItem> modItems = new ArrayList<ModificationItem>();
+            for (AttributeDelta delta : deltas) {
+                if (delta.is(Uid.NAME) || delta.is(Name.NAME)) {
+                    throw new IllegalArgumentException("Do not perform rename via updateDelta, use standard update");
+                } else if (delta.is(OperationalAttributes.PASSWORD_NAME)) {
+                    pwdAttr = conn.getSchema().encodePassword(delta);
+                } else if (!LdapConstants.isLdapGroups(delta.getName())
+                        && !LdapConstants.isPosixGroups(delta.getName())) {
+                    modItems.addAll(conn.getSchema().encodeAttribute(oclass, delta));
+                }
+            }
+
+            if (pwdAttr == null) {
+                modifyAttributes(entryDN, modItems);
+            } else {
+                pwdAttr.access(attr -> {
+                    hashPassword(attr, entryDN);
+                    modItems.add(new ModificationItem(DirContext.REPLACE_ATTRIBUTE, attr));
+                    modifyAttributes(entryDN, modItems);
+                });
+            }
+
+            Optional.ofNullable(AttributeDeltaUtil.find(LdapConstants.LDAP_GROUPS_NAME, deltas)).
+                    ifPresent(delta -> modifyMemberships(entryDN, delta));
+            Optional.ofNullable(AttributeDeltaUtil.find(LdapConstants.POSIX_GROUPS_NAME, deltas)).
+                    ifPresent(delta -> modifyPosixMemberships(entryDN, delta));
+        } catch (ConnectorException e) {
+            // the entry might have been moved or deleted meanwhile
+            utils.invalidateEntryDN(oclass, uid);
+            throw e;
+        }
+
+        // neither DN nor uid can change
+        utils.cacheEntryDN(oclass, uid, entryDN);
+
+        return deltas;
     }
 
     @Override
     public Uid addAttributeValues(final Set<Attribute> attrs) {
-        final ConnectorObject obj = utils.getEntryToBeUpdated(uid, oclass);
+        final ConnectorObject obj = utils.getEntryToBeUpdated(uid, oclass, knownEntryDN);
         final String entryDN = obj.getName().getNameValue();
 
         final Pair<Attributes, GuardedPasswordAttribute> attrsToModify = getAttributesToModify(obj, attrs);
@@ -198,7 +324,7 @@ public class ADUpdate extends LdapUpdate {
 
     @Override
     public Uid removeAttributeValues(final Set<Attribute> attrs) {
-        final ConnectorObject obj = utils.getEntryToBeUpdated(uid, oclass);
+        final ConnectorObject obj = utils.getEntryToBeUpdated(uid, oclass, knownEntryDN);
         final String entryDN = obj.getName().getNameValue();
 
         final Pair<Attributes, GuardedPasswordAttribute> attrsToModify = getAttributesToModify(obj, attrs);
@@ -207,7 +333,12 @@ public class ADUpdate extends LdapUpdate {
 
         List<String> ldapGroups = getStringListValue(attrs, LdapConstants.LDAP_GROUPS_NAME);
         if (!isEmpty(ldapGroups)) {
-            groupHelper.removeLdapGroupMemberships(entryDN, ldapGroups);
+            final ADMembershipBatcher batcher = ((ADConnection) conn).getMembershipBatcher();
+            if (batcher == null) {
+                groupHelper.removeLdapGroupMemberships(entryDN, ldapGroups);
+            } else {
+                batcher.apply(entryDN, Collections.emptySet(), ldapGroups);
+            }
         }
 
         return uid;
@@ -399,10 +530,21 @@ public class ADUpdate extends LdapUpdate {
 
     @Override
     protected void modifyAttributes(final String entryDN, final List<ModificationItem> modItems) {
+        final LdapContext ctx = ((ADConnection) conn).leaseContext();
         try {
-            conn.getInitialContext().modifyAttributes(entryDN, modItems.toArray(new ModificationItem[modItems.size()]));
+            if (postReadAttrs == null || modItems.isEmpty()) {
+                ctx.modifyAttributes(entryDN, modItems.toArray(new ModificationItem[modItems.size()]));
+            } else {
+                postRead = ADReadEntryControl.postRead(
+                        ctx,
+                        postReadAttrs,
+                        ((ADConnection) conn)::isBinaryAttribute,
+                        c -> c.modifyAttributes(entryDN, modItems.toArray(new ModificationItem[modItems.size()])));
+            }
         } catch (NamingException e) {
             throw new ConnectorException(e);
+        } finally {
+            ((ADConnection) conn).releaseContext(ctx);
         }
     }
 
@@ -419,11 +561,14 @@ public class ADUpdate extends LdapUpdate {
         final List<String> primaryGroupDN = getStringListValue(attrs, ADConfiguration.PRIMARY_GROUP_DN_NAME);
 
         if (primaryGroupDN != null && !primaryGroupDN.isEmpty()) {
+            final LdapContext ctx = ((ADConnection) conn).leaseContext();
             try {
-                conn.getInitialContext().modifyAttributes(entryDN, new ModificationItem[] {
+                ctx.modifyAttributes(entryDN, new ModificationItem[] {
                     new ModificationItem(DirContext.REPLACE_ATTRIBUTE, utils.getGroupID(primaryGroupDN.get(0))) });
             } catch (NamingException e) {
                 LOG.error(e, "Error setting primaryGroupID '{0}' for '{1}'", primaryGroupDN, entryDN);
+            } finally {
+                ((ADConnection) conn).releaseContext(ctx);
             }
         }
     }
@@ -440,37 +585,47 @@ public class ADUpdate extends LdapUpdate {
         final List<String> ldapGroups = getStringListValue(attrs, LdapConstants.LDAP_GROUPS_NAME);
 
         if (ldapGroups != null) {
-            // All current roles ....
-            final Set<String> currents = utils.getGroups(entryDN,
-                    ((ADConfiguration) conn.getConfiguration()).getBaseContexts());
+            final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
+            final boolean useMemberOf = ADConfiguration.LDAP_GROUPS_RETRIEVAL_MEMBEROF.equals(
+                    conf.getLdapGroupsRetrieval());
+
+            final LdapEntry profile = useMemberOf
+                    ? utils.getEntryToBeUpdated(entryDN, ADConnector.MEMBEROF)
+                    : utils.getEntryToBeUpdated(entryDN);
+
+            Set<String> currents = null;
+            Set<String> oldMemberships = null;
+            if (useMemberOf) {
+                // diff against the memberOf values just read, unless returned by range
+                try {
+                    currents = utils.getMemberOf(profile.getAttributes(), conf.getBaseContexts());
+                    if (currents != null) {
+                        oldMemberships = utils.getMemberOf(profile.getAttributes(), conf.getGroupBaseContexts());
+                    }
+                } catch (NamingException ne) {
+                    LOG.error(ne, "Error reading memberOf for {0}", entryDN);
+                }
+            }
 
-            // Current role into the managed group base contexts
-            final Set<String> oldMemberships = utils.getGroups(entryDN);
+            if (currents == null || oldMemberships == null) {
+                // All current roles ....
+                currents = utils.getGroups(entryDN, conf.getBaseContexts());
 
-            String primaryGroup = null;
+                // Current role into the managed group base contexts
+                oldMemberships = utils.getGroups(entryDN);
+            }
 
-            final LdapEntry profile = utils.getEntryToBeUpdated(entryDN);
+            String primaryGroup = null;
 
             try {
-                final javax.naming.directory.Attribute primaryGroupID = profile.getAttributes().get(PRIMARYGROUPID);
-                if (primaryGroupID != null && primaryGroupID.get() != null) {
-
-                    final javax.naming.directory.Attribute objectsid = profile.getAttributes().get(OBJECTSID);
-
-                    final SID groupSID = getPrimaryGroupSID(
-                            SID.parse((byte[]) objectsid.get()),
-                            NumberFacility.getUIntBytes(Long.parseLong(primaryGroupID.get().toString())));
-
-                    final Set<SearchResult> res = utils.basicLdapSearch(String.format(
-                            "(&(objectclass=group)(%s=%s))", OBJECTSID, Hex.getEscaped(groupSID.toByteArray())),
-                            ((ADConfiguration) conn.getConfiguration()).getBaseContexts());
-
-                    if (res == null || res.isEmpty()) {
+                primaryGroup = utils.getPrimaryGroupDN(
+                        profile.getAttributes(), ((ADConfiguration) conn.getConfiguration()).getBaseContexts());
+                if (primaryGroup == null) {
+                    if (profile.getAttributes().get(PRIMARYGROUPID) != null) {
                         LOG.warn("Error retrieving primary group for {0}", entryDN);
-                    } else {
-                        primaryGroup = res.iterator().next().getNameInNamespace();
-                        LOG.info("Found primary group {0}", primaryGroup);
                     }
+                } else {
+                    LOG.info("Found primary group {0}", primaryGroup);
                 }
             } catch (NamingException ne) {
                 LOG.error(ne, "Error retrieving primary group");
@@ -504,7 +659,78 @@ public class ADUpdate extends LdapUpdate {
                 ldapGroupMod.add(new GroupMembership(entryDN, membership));
             }
 
+            modifyLdapGroupMemberships(entryDN, ldapGroupMod);
+        }
+    }
+
+    private void modifyLdapGroupMemberships(final String entryDN, final Modification<GroupMembership> ldapGroupMod) {
+        final ADMembershipBatcher batcher = ((ADConnection) conn).getMembershipBatcher();
+        if (batcher == null) {
             groupHelper.modifyLdapGroupMemberships(ldapGroupMod);
+        } else {
+            batcher.apply(entryDN,
+                    ldapGroupMod.getAdded().stream().
+                            map(GroupMembership::getGroupDN).collect(Collectors.toList()),
+                    ldapGroupMod.getRemoved().stream().
+                            map(GroupMembership::getGroupDN).collect(Collectors.toList()));
+        }
+    }
+
+    private static Modification<GroupMembership> getMembershipModification(
+            final String memberRef, final AttributeDelta delta) {
+
+        final Modification<GroupMembership> mod = new Modification<GroupMembership>();
+        for (String group : checkedListByFilter(nullAsEmpty(delta.getValuesToAdd()), String.class)) {
+            mod.add(new GroupMembership(memberRef, group));
+        }
+        for (String group : checkedListByFilter(nullAsEmpty(delta.getValuesToRemove()), String.class)) {
+            mod.remove(new GroupMembership(memberRef, group));
+        }
+        return mod;
+    }
+
+    /**
+     * Perform group membership changes.
+     *
+     * @param entryDN entry to be modified.
+     * @param delta ldapGroups changes.
+     */
+    private void modifyMemberships(final String entryDN, final AttributeDelta delta) {
+        if (isEmpty(delta.getValuesToReplace())) {
+            final Modification<GroupMembership> ldapGroupMod = getMembershipModification(entryDN, delta);
+            if (!ldapGroupMod.isEmpty()) {
+                modifyLdapGroupMemberships(entryDN, ldapGroupMod);
+            }
+        } else {
+            modifyMemberships(entryDN, Collections.singleton(
+                    AttributeBuilder.build(LdapConstants.LDAP_GROUPS_NAME, delta.getValuesToReplace())));
+        }
+    }
+
+    /**
+     * Perform POSIX group membership changes.
+     *
+     * @param entryDN entry to be modified.
+     * @param delta posixGroups changes.
+     */
+    private void modifyPosixMemberships(final String entryDN, final AttributeDelta delta) {
+        final PosixGroupMember posixMember = new PosixGroupMember(entryDN);
+        final String posixRefAttr = getFirstPosixRefAttr(entryDN, posixMember.getPosixRefAttributes());
+
+        final Modification<GroupMembership> posixGroupMod;
+        if (isEmpty(delta.getValuesToReplace())) {
+            posixGroupMod = getMembershipModification(posixRefAttr, delta);
+        } else {
+            posixGroupMod = new Modification<GroupMembership>();
+            posixGroupMod.removeAll(posixMember.getPosixGroupMemberships());
+            posixGroupMod.clearAdded();
+            for (String group : checkedListByFilter(nullAsEmpty(delta.getValuesToReplace()), String.class)) {
+                posixGroupMod.add(new GroupMembership(posixRefAttr, group));
+            }
+        }
+
+        if (!posixGroupMod.isEmpty()) {
+            groupHelper.modifyPosixGroupMemberships(posixGroupMod);
         }
     }
 }
@@ -38,7 +38,7 @@ public class ADSchema extends LdapSchema {
 
     public Schema schema() {
         if (schema == null) {
-            schema = new ADSchemaBuilder((ADConnection) conn).getSchema();
+            schema = ADSchemaCache.get((ADConnection) conn, () -> new ADSchemaBuilder((ADConnection) conn).getSchema());
         }
 
         return schema;
@@ -17,26 +17,35 @@ package net.tirasa.connid.bundles.ad.schema;
 
 import static net.tirasa.connid.bundles.ad.ADConnector.OBJECTGUID;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 import net.tirasa.connid.bundles.ad.ADConfiguration;
 import net.tirasa.connid.bundles.ad.ADConnection;
 import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ldap.commons.LdapUtil;
 import net.tirasa.connid.bundles.ldap.schema.LdapSchema;
 import net.tirasa.connid.bundles.ldap.schema.LdapSchemaBuilder;
 import net.tirasa.connid.bundles.ldap.search.LdapInternalSearch;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
 import org.identityconnectors.framework.common.objects.AttributeInfo.Flags;
 import org.identityconnectors.framework.common.objects.AttributeInfoBuilder;
@@ -55,6 +64,16 @@ class ADSchemaBuilder extends LdapSchemaBuilder {
         "mustcontain",
         "systemmustcontain" };
 
+    private static final String IS_SINGLE_VALUE = "isSingleValued";
+
+    private static final String SYSTEM_ONLY = "systemOnly";
+
+    private static final String LDAP_DISPLAY_NAME = "lDAPDisplayName";
+
+    private static final int ATTRIBUTE_SCHEMA_BATCH_SIZE = 200;
+
+    private static final int ATTRIBUTE_SCHEMA_PAGE_SIZE = 1000;
+
     public ADSchemaBuilder(final ADConnection conn) {
         super(conn);
     }
@@ -100,8 +119,6 @@ class ADSchemaBuilder extends LdapSchemaBuilder {
         filter.insert(0, "(&(|").append(")(objectClass=classSchema))");
         // -----------------------------------
 
-        final LdapContext ctx = conn.getInitialContext();
-
         final Set<String> schemaNames = new HashSet<String>();
 
         // Issue http://code.google.com/p/connid/issues/detail?id=24
@@ -117,20 +134,25 @@ class ADSchemaBuilder extends LdapSchemaBuilder {
 
         final String schemaConfigurationPath = "CN=Schema,CN=Configuration";
 
-        for (String suffix : conf.getBaseContexts()) {
-            try {
-                final NamingEnumeration<SearchResult> oclasses = ctx.search(
-                        schemaConfigurationPath + "," + suffix,
-                        filter.toString(),
-                        searchCtls);
-
-                while (oclasses.hasMoreElements()) {
-                    final SearchResult oclass = oclasses.next();
-                    schemaNames.addAll(getObjectSchemaNames(oclass));
+        final LdapContext ctx = ((ADConnection) conn).leaseContext();
+        try {
+            for (String suffix : conf.getBaseContexts()) {
+                try {
+                    final NamingEnumeration<SearchResult> oclasses = ctx.search(
+                            schemaConfigurationPath + "," + suffix,
+                            filter.toString(),
+                            searchCtls);
+
+                    while (oclasses.hasMoreElements()) {
+                        final SearchResult oclass = oclasses.next();
+                        schemaNames.addAll(getObjectSchemaNames(oclass));
+                    }
+                } catch (NamingException e) {
+                    LOG.error(e, "Error retrieving schema names from {0}", suffix);
                 }
-            } catch (NamingException e) {
-                LOG.error(e, "Error retrieving schema names from {0}", suffix);
             }
+        } finally {
+            ((ADConnection) conn).releaseContext(ctx);
         }
 
         schemaNames.remove(ADConnector.SDDL_ATTR);
@@ -180,65 +202,100 @@ class ADSchemaBuilder extends LdapSchemaBuilder {
     }
 
     private List<AttributeInfo> createAttrInfos(final Set<String> schemaNames) {
+        final Map<String, Attributes> attributeSchemas = getAttributeSchemas(schemaNames);
 
         final List<AttributeInfo> infos = new ArrayList<AttributeInfo>();
-
         for (String schemaName : schemaNames) {
-            infos.add(handleAttribute(schemaName));
+            infos.add(handleAttribute(schemaName, schemaName == null ? null : attributeSchemas.get(schemaName)));
         }
 
         return infos;
     }
 
-    private AttributeInfo handleAttribute(final String displayName) {
-        final String IS_SINGLE_VALUE = "isSingleValued";
-        final String SYSTEM_ONLY = "systemOnly";
-        final String LDAP_DISPLAY_NAME = "lDAPDisplayName";
-
-        final Set<Flags> flags = EnumSet.noneOf(Flags.class);
-
-        boolean binary = conn.isBinarySyntax(displayName);
-
-        boolean objectClass = displayName == null || "objectClass".equalsIgnoreCase(displayName);
-
-        final LdapContext ctx = conn.getInitialContext();
-
-        final String[] baseContexts = conn.getConfiguration().getBaseContexts();
+    /**
+     * Read the attributeSchema entries of the given attributes, with paged searches matching up to
+     * {@link #ATTRIBUTE_SCHEMA_BATCH_SIZE} attributes each.
+     *
+     * @param schemaNames attribute names
+     * @return attributeSchema entries, by attribute name
+     */
+    private Map<String, Attributes> getAttributeSchemas(final Set<String> schemaNames) {
+        final Map<String, Attributes> attributeSchemas = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
         // ------------------------------
         // Search control
         // ------------------------------
         final SearchControls searchCtls = LdapInternalSearch.createDefaultSearchControls();
         searchCtls.setSearchScope(SearchControls.SUBTREE_SCOPE);
-        searchCtls.setReturningAttributes(new String[] { IS_SINGLE_VALUE, SYSTEM_ONLY });
+        searchCtls.setReturningAttributes(new String[] { LDAP_DISPLAY_NAME, IS_SINGLE_VALUE, SYSTEM_ONLY });
         // ------------------------------
 
-        int i = 0;
-        Attributes attributes = null;
-
-        while (attributes == null && i < baseContexts.length) {
-
-            final StringBuilder dn = new StringBuilder();
-
-            dn.append("cn=schema, cn=configuration,").append(baseContexts[i]);
-
-            try {
+        LdapContext ctx = null;
+        try {
+            // paged results control is set below, page by page
+            ctx = ((ADConnection) conn).leaseContext(null);
+
+            for (String baseContext : conn.getConfiguration().getBaseContexts()) {
+                final List<String> missing = schemaNames.stream().
+                        filter(name -> name != null && !attributeSchemas.containsKey(name)).
+                        collect(Collectors.toList());
+
+                for (int i = 0; i < missing.size(); i += ATTRIBUTE_SCHEMA_BATCH_SIZE) {
+                    final StringBuilder filter = new StringBuilder("(&(objectClass=attributeSchema)(|");
+                    missing.subList(i, Math.min(i + ATTRIBUTE_SCHEMA_BATCH_SIZE, missing.size())).forEach(name -> {
+                        filter.append('(').append(LDAP_DISPLAY_NAME).append('=');
+                        LdapUtil.escapeAttrValue(name, filter);
+                        filter.append(')');
+                    });
+                    filter.append("))");
+
+                    final String dn = "cn=schema, cn=configuration," + baseContext;
+                    try {
+                        byte[] cookie = null;
+                        do {
+                            ctx.setRequestControls(new Control[] {
+                                new PagedResultsControl(ATTRIBUTE_SCHEMA_PAGE_SIZE, cookie, Control.CRITICAL) });
+
+                            final NamingEnumeration<SearchResult> result =
+                                    ctx.search(dn, filter.toString(), searchCtls);
+                            while (result.hasMoreElements()) {
+                                final Attributes attributes = result.next().getAttributes();
+                                final Attribute name = attributes.get(LDAP_DISPLAY_NAME);
+                                if (name != null && name.get() != null) {
+                                    attributeSchemas.put(name.get().toString(), attributes);
+                                }
+                            }
+
+                            cookie = null;
+                            final Control[] rspCtls = ctx.getResponseControls();
+                            if (rspCtls != null) {
+                                for (Control rspCtl : rspCtls) {
+                                    if (rspCtl instanceof PagedResultsResponseControl) {
+                                        cookie = ((PagedResultsResponseControl) rspCtl).getCookie();
+                                    }
+                                }
+                            }
+                        } while (cookie != null && cookie.length > 0);
+                    } catch (NamingException | IOException e) {
+                        LOG.error(e, "Error retrieving attributes for {0}", dn);
+                    }
+                }
+            }
+        } catch (ConnectorException e) {
+            LOG.error(e, "Error retrieving attribute schemas");
+        } finally {
+            ((ADConnection) conn).releaseContext(ctx);
+        }
 
-                final NamingEnumeration<SearchResult> result = ctx.search(
-                        dn.toString(),
-                        LDAP_DISPLAY_NAME + "=" + displayName,
-                        searchCtls);
+        return attributeSchemas;
+    }
 
-                if (result != null && result.hasMoreElements()) {
-                    attributes = result.next().getAttributes();
-                }
+    private AttributeInfo handleAttribute(final String displayName, final Attributes attributes) {
+        final Set<Flags> flags = EnumSet.noneOf(Flags.class);
 
-            } catch (NamingException e) {
-                LOG.error(e, "Error retrieving attributes for {0}", dn);
-            }
+        boolean binary = conn.isBinarySyntax(displayName);
 
-            i++;
-        }
+        boolean objectClass = displayName == null || "objectClass".equalsIgnoreCase(displayName);
 
         if (attributes != null) {
             final Attribute isSingle = attributes.get(IS_SINGLE_VALUE);
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.schema;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.adsddl.ntsd.utils.Hex;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import org.identityconnectors.common.Pair;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.serializer.SerializerUtil;
+
+/**
+ * Caches the schema built by {@link ADSchemaBuilder}, in memory and, if a snapshot directory is configured, on disk.
+ * Cached schemas are identified by forest and by the configuration properties the schema depends on, and are used as
+ * long as the AD schema version, as given by the {@code schemaInfo} attribute of the schema container, is unchanged.
+ */
+class ADSchemaCache {
+
+    private static final Log LOG = Log.getLog(ADSchemaCache.class);
+
+    private static final String SNAPSHOT_PREFIX = "adschema-";
+
+    private static final String SNAPSHOT_SUFFIX = ".xml";
+
+    /**
+     * Schema versions and schemas by forest and configuration.
+     */
+    private static final Map<String, Pair<String, Schema>> SCHEMAS = new ConcurrentHashMap<>();
+
+    static Schema get(final ADConnection conn, final Supplier<Schema> builder) {
+        final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
+
+        final Pair<String, String> idAndVersion = getIdAndVersion(conn);
+        if (idAndVersion == null) {
+            return builder.get();
+        }
+        final String id = idAndVersion.first;
+        final String version = idAndVersion.second;
+
+        final Pair<String, Schema> cached = SCHEMAS.get(id);
+        if (cached != null && version.equals(cached.first)) {
+            return cached.second;
+        }
+
+        final Path snapshot = StringUtil.isBlank(conf.getSchemaSnapshotDirectory())
+                ? null
+                : Paths.get(conf.getSchemaSnapshotDirectory(), SNAPSHOT_PREFIX + id + SNAPSHOT_SUFFIX);
+
+        Schema schema = snapshot == null ? null : load(snapshot, version);
+        if (schema == null) {
+            schema = builder.get();
+            if (snapshot != null) {
+                store(snapshot, version, schema);
+            }
+        }
+
+        SCHEMAS.put(id, Pair.of(version, schema));
+        return schema;
+    }
+
+    /**
+     * Identify the schema to be built for the given connection.
+     *
+     * @param conn connection
+     * @return hash of forest and schema-related configuration, and schema version; null if they could not be read
+     */
+    private static Pair<String, String> getIdAndVersion(final ADConnection conn) {
+        final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
+
+        final LdapContext ctx = conn.leaseContext();
+        try {
+            final Attributes rootDSE = ctx.getAttributes(
+                    "", new String[] { "rootDomainNamingContext", "schemaNamingContext", "dnsHostName" });
+            final String forest = getString(rootDSE.get("rootDomainNamingContext"));
+            final String schemaNC = getString(rootDSE.get("schemaNamingContext"));
+            if (forest == null || schemaNC == null) {
+                return null;
+            }
+
+            final Attributes schemaInfo = ctx.getAttributes(
+                    schemaNC, new String[] { "schemaInfo;binary", "objectVersion", "uSNChanged" });
+            final Attribute info = schemaInfo.get("schemaInfo;binary");
+
+            final String version;
+            if (info == null || info.get() == null) {
+                // USNs are local to each domain controller
+                version = getString(rootDSE.get("dnsHostName")) + "|"
+                        + getString(schemaInfo.get("objectVersion")) + "|"
+                        + getString(schemaInfo.get("uSNChanged"));
+            } else {
+                version = getString(schemaInfo.get("objectVersion")) + "|" + Hex.get((byte[]) info.get());
+            }
+
+            final String id = hash(String.join("|",
+                    forest,
+                    Arrays.toString(conf.getBaseContexts()),
+                    Arrays.toString(conf.getAccountObjectClasses()),
+                    Arrays.toString(conf.getGroupObjectClasses()),
+                    Arrays.toString(conf.getAnyObjectClasses()),
+                    conf.getUidAttribute(),
+                    conf.getGidAttribute(),
+                    conf.getAoidAttribute()));
+
+            return Pair.of(id, version);
+        } catch (NamingException | NoSuchAlgorithmException e) {
+            LOG.error(e, "Could not read schema version, schema will not be cached");
+            return null;
+        } finally {
+            conn.releaseContext(ctx);
+        }
+    }
+
+    static Schema load(final Path snapshot, final String version) {
+        if (!Files.isReadable(snapshot)) {
+            return null;
+        }
+
+        try {
+            final String content = new String(Files.readAllBytes(snapshot), StandardCharsets.UTF_8);
+            final int newLine = content.indexOf('\n');
+            if (newLine == -1 || !version.equals(content.substring(0, newLine))) {
+                LOG.info("Schema snapshot {0} is outdated", snapshot);
+                return null;
+            }
+
+            final Schema schema = (Schema) SerializerUtil.deserializeXmlObject(content.substring(newLine + 1), false);
+            LOG.ok("Schema loaded from snapshot {0}", snapshot);
+            return schema;
+        } catch (Exception e) {
+            LOG.error(e, "Could not load schema snapshot {0}", snapshot);
+            return null;
+        }
+    }
+
+    static void store(final Path snapshot, final String version, final Schema schema) {
+        try {
+            Files.createDirectories(snapshot.getParent());
+
+            // write aside and then move, not to have concurrent instances read a partial snapshot
+            final Path tmp = Files.createTempFile(snapshot.getParent(), SNAPSHOT_PREFIX, ".tmp");
+            Files.write(tmp, (version + "\n" + SerializerUtil.serializeXmlObject(schema, false)).
+                    getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            LOG.ok("Schema stored to snapshot {0}", snapshot);
+        } catch (IOException e) {
+            LOG.error(e, "Could not store schema snapshot {0}", snapshot);
+        }
+    }
+
+    private static String getString(final Attribute attr) throws NamingException {
+        return attr == null || attr.get() == null ? null : attr.get().toString();
+    }
+
+    private static String hash(final String value) throws NoSuchAlgorithmException {
+        return Hex.get(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -18,6 +18,16 @@ package net.tirasa.connid.bundles.ad.search;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.naming.InvalidNameException;
 import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
@@ -28,6 +38,9 @@ import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.PagedResultsControl;
 import javax.naming.ldap.PagedResultsResponseControl;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.util.ADExtendedDN;
 import net.tirasa.connid.bundles.ldap.search.DefaultSearchStrategy;
 import net.tirasa.connid.bundles.ldap.search.LdapSearchResultsHandler;
 import org.identityconnectors.common.logging.Log;
@@ -37,8 +50,51 @@ public class ADDefaultSearchStrategy extends DefaultSearchStrategy {
 
     private static final Log LOG = Log.getLog(ADDefaultSearchStrategy.class);
 
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private static final long TERMINATION_TIMEOUT = 30L;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final int concurrency;
+
+    private final int pageSize;
+
+    private final boolean prefetch;
+
+    /**
+     * Connection to lease background search contexts from, if available.
+     */
+    private final ADConnection connection;
+
     public ADDefaultSearchStrategy(boolean ignoreNonExistingBaseDNs) {
+        this(ignoreNonExistingBaseDNs, 1, DEFAULT_PAGE_SIZE, false);
+    }
+
+    public ADDefaultSearchStrategy(boolean ignoreNonExistingBaseDNs, int concurrency, int pageSize, boolean prefetch) {
+        this(null, ignoreNonExistingBaseDNs, concurrency, pageSize, prefetch);
+    }
+
+    public ADDefaultSearchStrategy(final ADConnection connection, final boolean ignoreNonExistingBaseDNs) {
+        this(connection,
+                ignoreNonExistingBaseDNs,
+                ((ADConfiguration) connection.getConfiguration()).getSearchConcurrency(),
+                ((ADConfiguration) connection.getConfiguration()).getSearchPageSize(),
+                ((ADConfiguration) connection.getConfiguration()).isSearchPrefetch());
+    }
+
+    private ADDefaultSearchStrategy(
+            final ADConnection connection,
+            final boolean ignoreNonExistingBaseDNs,
+            final int concurrency,
+            final int pageSize,
+            final boolean prefetch) {
+
         super(ignoreNonExistingBaseDNs);
+        this.connection = connection;
+        this.concurrency = concurrency;
+        this.pageSize = pageSize;
+        this.prefetch = prefetch;
     }
 
     @Override
@@ -54,6 +110,20 @@ public class ADDefaultSearchStrategy extends DefaultSearchStrategy {
             LOG.ok("Searching in {0} with filter {1} and {2}", baseDNs, query, searchControlsToString(searchControls));
         }
 
+        // entries read by DN, as by extended DN or uid, are not worth a background search
+        if (searchControls.getSearchScope() != SearchControls.OBJECT_SCOPE
+                && (prefetch || concurrency > 1 && baseDNs.size() > 1)) {
+
+            final int threads = getQueuedSearchThreads(baseDNs);
+            if (threads > 0) {
+                doQueuedSearch(initCtx, baseDNs, query, searchControls, handler, threads);
+                return;
+            }
+
+            // a background search would hold the only pooled context until done
+            LOG.ok("Context pool too small for background searches, searching in foreground");
+        }
+
         LdapContext ctx = initCtx.newInstance(null);
 
         try {
@@ -61,12 +131,12 @@ public class ADDefaultSearchStrategy extends DefaultSearchStrategy {
             boolean proceed = true;
 
             while (baseDNIter.hasNext() && proceed) {
+                String baseDN = baseDNIter.next();
                 try {
-                    String baseDN = baseDNIter.next();
                     byte[] cookie = null;
                     do {
                         ctx.setRequestControls(
-                                new Control[] { new PagedResultsControl(1000, cookie, Control.CRITICAL) });
+                                new Control[] { new PagedResultsControl(pageSize, cookie, Control.CRITICAL) });
                         final NamingEnumeration<SearchResult> results = ctx.search(baseDN, query, searchControls);
                         try {
                             // hasMore call for referral resolution ... it fails with AD
@@ -82,12 +152,12 @@ public class ADDefaultSearchStrategy extends DefaultSearchStrategy {
                     if (!ignoreNonExistingBaseDNs) {
                         throw e;
                     }
-                    LOG.warn(e, null);
+                    logNonExisting(baseDN, e);
                 } catch (InvalidNameException e) {
                     if (!ignoreNonExistingBaseDNs) {
                         throw e;
                     }
-                    LOG.warn(e, null);
+                    logNonExisting(baseDN, e);
                 }
             }
         } catch (IOException ex) {
@@ -97,6 +167,175 @@ public class ADDefaultSearchStrategy extends DefaultSearchStrategy {
         }
     }
 
+    /**
+     * Get the number of background searches to run at once: at most one per base DN, leaving a pooled context for
+     * lookups performed while handling results.
+     *
+     * @param baseDNs base DNs to be searched
+     * @return number of background searches, 0 if the context pool is too small for any
+     */
+    private int getQueuedSearchThreads(final List<String> baseDNs) {
+        int threads = Math.min(concurrency, baseDNs.size());
+        if (connection != null) {
+            final int poolSize = ((ADConfiguration) connection.getConfiguration()).getContextPoolMaxSize();
+            if (poolSize > 0) {
+                threads = Math.min(threads, poolSize - 1);
+            }
+        }
+        return threads;
+    }
+
+    /**
+     * Search base DNs in background, concurrently if configured, each on its own leased context: further pages are
+     * requested while results already returned are handled. Results are handed to the given handler by the calling
+     * thread, so that handlers do not need to be thread-safe.
+     */
+    private void doQueuedSearch(
+            final LdapContext initCtx,
+            final List<String> baseDNs,
+            final String query,
+            final SearchControls searchControls,
+            final LdapSearchResultsHandler handler,
+            final int threads)
+            throws NamingException {
+
+        // room for one page per thread, to be filled while the previous one is being handled
+        final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(pageSize * threads);
+        final AtomicBoolean stop = new AtomicBoolean(false);
+
+        final Queue<String> pending = new ConcurrentLinkedQueue<>(baseDNs);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        final ExecutorService executor = connection == null ? newExecutor() : connection.getSearchExecutor();
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    try {
+                        String baseDN;
+                        while (!stop.get() && (baseDN = pending.poll()) != null) {
+                            try {
+                                search(initCtx, baseDN, query, searchControls, queue, stop);
+                            } catch (Exception e) {
+                                put(queue, stop, new Item(baseDN, null, e));
+                            }
+                            put(queue, stop, new Item(baseDN, null, null));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+
+            int running = baseDNs.size();
+            while (running > 0) {
+                Item item = queue.take();
+                if (item.error != null) {
+                    stop.set(true);
+                    if (item.error instanceof NamingException) {
+                        throw (NamingException) item.error;
+                    }
+                    throw new ConnectorException(item.error);
+                } else if (item.result == null) {
+                    running--;
+                } else if (!handler.handle(item.baseDN, item.result)) {
+                    stop.set(true);
+                    running = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException(e);
+        } finally {
+            stop.set(true);
+            if (connection == null) {
+                executor.shutdown();
+            }
+            // background searches give back their contexts once stopped
+            try {
+                if (!done.await(TERMINATION_TIMEOUT, TimeUnit.SECONDS)) {
+                    LOG.warn("Background searches still running after {0} seconds", TERMINATION_TIMEOUT);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void search(
+            final LdapContext initCtx,
+            final String baseDN,
+            final String query,
+            final SearchControls searchControls,
+            final BlockingQueue<Item> queue,
+            final AtomicBoolean stop)
+            throws NamingException, IOException, InterruptedException {
+
+        final LdapContext ctx = connection == null ? initCtx.newInstance(null) : connection.leaseContext(null);
+        try {
+            byte[] cookie = null;
+            do {
+                ctx.setRequestControls(
+                        new Control[] { new PagedResultsControl(pageSize, cookie, Control.CRITICAL) });
+                final NamingEnumeration<SearchResult> results = ctx.search(baseDN, query, searchControls);
+                try {
+                    // hasMore call for referral resolution ... it fails with AD
+                    while (!stop.get() && results.hasMoreElements()) {
+                        put(queue, stop, new Item(baseDN, results.next(), null));
+                    }
+                } finally {
+                    results.close();
+                }
+                cookie = stop.get() ? null : getResponseCookie(ctx.getResponseControls());
+            } while (cookie != null);
+        } catch (NameNotFoundException | InvalidNameException e) {
+            if (!ignoreNonExistingBaseDNs) {
+                throw e;
+            }
+            logNonExisting(baseDN, e);
+        } finally {
+            if (connection == null) {
+                ctx.close();
+            } else {
+                connection.releaseContext(ctx);
+            }
+        }
+    }
+
+    /**
+     * Create an executor for background searches.
+     *
+     * @return background search executor
+     */
+    public static ExecutorService newExecutor() {
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ADSearch-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static void put(final BlockingQueue<Item> queue, final AtomicBoolean stop, final Item item)
+            throws InterruptedException {
+
+        while (!stop.get() && !queue.offer(item, 1, TimeUnit.SECONDS)) {
+            // wait for the calling thread to handle queued results, unless stopped
+        }
+    }
+
+    /**
+     * Log the given ignored base DN: an extended DN not resolving just means that no entry has such objectGUID or
+     * objectSID, as a search would have found nothing.
+     */
+    private static void logNonExisting(final String baseDN, final NamingException e) {
+        if (ADExtendedDN.isExtended(baseDN)) {
+            LOG.ok("No entry found for {0}", baseDN);
+        } else {
+            LOG.warn(e, null);
+        }
+    }
+
     private byte[] getResponseCookie(final Control[] controls) {
         if (controls != null) {
             for (Control control : controls) {
@@ -108,4 +347,19 @@ public class ADDefaultSearchStrategy extends DefaultSearchStrategy {
         }
         return null;
     }
+
+    private static class Item {
+
+        private final String baseDN;
+
+        private final SearchResult result;
+
+        private final Exception error;
+
+        Item(final String baseDN, final SearchResult result, final Exception error) {
+            this.baseDN = baseDN;
+            this.result = result;
+            this.error = error;
+        }
+    }
 }
@@ -32,6 +32,9 @@ import net.tirasa.adsddl.ntsd.utils.Hex;
 import net.tirasa.connid.bundles.ad.ADConfiguration;
 import net.tirasa.connid.bundles.ad.ADConnection;
 import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.util.ADExtendedDN;
+import net.tirasa.connid.bundles.ad.util.ADProjection;
+import net.tirasa.connid.bundles.ad.util.ADTrace;
 import net.tirasa.connid.bundles.ad.util.ADUtilities;
 import net.tirasa.connid.bundles.ldap.LdapConnection;
 import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
@@ -52,8 +55,15 @@ public class ADSearch extends LdapSearch {
 
     private final ADUtilities utils;
 
+    private final ADTrace trace;
+
     private static final Log LOG = Log.getLog(ADSearch.class);
 
+    /**
+     * Scope to be checked against the base DNs for entries read via extended DN, -1 if not reading via extended DN.
+     */
+    private int extendedDNScope = -1;
+
     public ADSearch(
             final LdapConnection conn,
             final ObjectClass oclass,
@@ -64,6 +74,7 @@ public class ADSearch extends LdapSearch {
         super(conn, oclass, filter, handler, options, baseDNs);
 
         this.utils = new ADUtilities((ADConnection) this.conn);
+        this.trace = ((ADConnection) this.conn).getTrace();
     }
 
     public ADSearch(
@@ -91,7 +102,7 @@ public class ADSearch extends LdapSearch {
 
             @Override
             public boolean handle(final String baseDN, final SearchResult result) {
-                return handler.handle(connObjSupplier.apply(result, attrsToGet));
+                return !isInScope(result) || handler.handle(connObjSupplier.apply(result, attrsToGet));
             }
         });
     }
@@ -102,17 +113,34 @@ public class ADSearch extends LdapSearch {
         final Set<String> attrsToGet = utils.getAttributesToGet(attrsToGetOption, oclass);
 
         final LdapInternalSearch search = getInternalSearch(attrsToGet);
+        final ADProjection projection = utils.getProjection(oclass, attrsToGet);
+
+        if (ADConfiguration.LDAP_GROUPS_RETRIEVAL_INDEX.equals(
+                ((ADConfiguration) conn.getConfiguration()).getLdapGroupsRetrieval())) {
+
+            utils.enableMembershipIndex();
+        }
 
         search.execute(new LdapSearchResultsHandler() {
 
             @Override
             public boolean handle(final String baseDN, final SearchResult result)
                     throws NamingException {
+                if (!isInScope(result)) {
+                    return true;
+                }
+
+                if (trace.sample()) {
+                    trace.event("search.entry",
+                            "class", oclass.getObjectClassValue(), "dn", result.getNameInNamespace(),
+                            "uac", result.getAttributes().get(ADConnector.UACCONTROL_ATTR),
+                            "attrs", result.getAttributes());
+                }
+
                 return handler.handle(utils.createConnectorObject(
                         result.getNameInNamespace(),
-                        result,
-                        attrsToGet,
-                        oclass));
+                        result.getAttributes(),
+                        projection));
             }
         });
     }
@@ -136,8 +164,21 @@ public class ADSearch extends LdapSearch {
         boolean ignoreUserAnyObjectConfig = false;
 
         final String filterEntryDN = filter == null ? null : filter.getEntryDN();
+        final String extendedDN = filter == null ? null : ADExtendedDN.get(filter.getNativeFilter());
 
-        if (filterEntryDN == null) {
+        extendedDNScope = -1;
+        if (filterEntryDN == null && extendedDN != null) {
+            // objectGUID or objectSID equality: read the entry directly rather than searching the base DNs, then
+            // discard it if not in scope
+            if (options.getOptions().containsKey(OP_IGNORE_CUSTOM_ANY_OBJECT_CONFIG)) {
+                ignoreUserAnyObjectConfig = (boolean) options.getOptions().get(OP_IGNORE_CUSTOM_ANY_OBJECT_CONFIG);
+            }
+            extendedDNScope = getLdapSearchScope(ignoreUserAnyObjectConfig);
+
+            strategy = new ADDefaultSearchStrategy((ADConnection) conn, true);
+            dns = Collections.singletonList(extendedDN);
+            searchScope = SearchControls.OBJECT_SCOPE;
+        } else if (filterEntryDN == null) {
             strategy = getSearchStrategy();
             dns = getBaseDNs();
             if (options.getOptions().containsKey(OP_IGNORE_CUSTOM_ANY_OBJECT_CONFIG)) {
@@ -149,7 +190,7 @@ public class ADSearch extends LdapSearch {
             // base contexts. However, the adapter is likely to pass entries
             // outside the base contexts, so not checking in order to be on the
             // safe side.
-            strategy = conn.getConfiguration().newDefaultSearchStrategy(true);
+            strategy = new ADDefaultSearchStrategy((ADConnection) conn, true);
 
             try {
                 dns = buildBaseContextFilter(filterEntryDN);
@@ -207,6 +248,11 @@ public class ADSearch extends LdapSearch {
                 controls);
     }
 
+    private boolean isInScope(final SearchResult result) {
+        return extendedDNScope == -1
+                || ADExtendedDN.isInScope(result.getNameInNamespace(), getBaseDNs(), extendedDNScope);
+    }
+
     /**
      * Accept DNs filter provided by CN only or prefix only or full DN.
      *
@@ -254,7 +300,7 @@ public class ADSearch extends LdapSearch {
             if (from >= 0) {
                 from += 11;
                 bld.append(res.substring(to, from));
-                to += from + 36;
+                to = from + 36;
                 bld.append(Hex.getEscaped(GUID.getGuidAsByteArray(res.substring(from, to))));
             } else {
                 bld.append(res.substring(to, res.length()));
@@ -281,10 +327,10 @@ public class ADSearch extends LdapSearch {
                         options.getSortKeys()
                 );
             } else {
-                result = conn.getConfiguration().newDefaultSearchStrategy(true);
+                result = new ADDefaultSearchStrategy((ADConnection) conn, true);
             }
         } else {
-            result = conn.getConfiguration().newDefaultSearchStrategy(true);
+            result = new ADDefaultSearchStrategy((ADConnection) conn, true);
         }
         return result;
     }
@@ -15,12 +15,21 @@
  */
 package net.tirasa.connid.bundles.ad.sync;
 
+import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.escapeAttrValue;
+
 import com.sun.jndi.ldap.ctl.DirSyncResponseControl;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Set;
+import javax.naming.InvalidNameException;
 import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
@@ -30,12 +39,17 @@ import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
 import net.tirasa.adsddl.ntsd.controls.SDFlagsControl;
 import net.tirasa.adsddl.ntsd.controls.DirSyncControl;
 import net.tirasa.adsddl.ntsd.utils.GUID;
+import net.tirasa.adsddl.ntsd.utils.Hex;
 import net.tirasa.connid.bundles.ad.ADConfiguration;
 import net.tirasa.connid.bundles.ad.ADConnection;
 import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.util.ADDirSyncControl;
+import net.tirasa.connid.bundles.ad.util.ADFilter;
+import net.tirasa.connid.bundles.ad.util.ADTrace;
 import net.tirasa.connid.bundles.ad.util.ADUtilities;
 import net.tirasa.connid.bundles.ad.util.DeletedControl;
 import net.tirasa.connid.bundles.ad.util.DirSyncUtils;
@@ -68,15 +82,33 @@ public class ADSyncStrategy implements LdapSyncStrategy {
      */
     private static final byte[] EMPTY_COOKIE = new byte[0];
 
+    /**
+     * Max number of changed objects whose profiles are read with a single search.
+     */
+    protected static final int PROFILE_BATCH_SIZE = 100;
+
+    /**
+     * Max number of group members verified and read with a single search.
+     */
+    protected static final int MEMBER_BATCH_SIZE = 500;
+
     protected final transient ADConnection conn;
 
     protected transient SyncToken latestSyncToken;
 
     protected final ADUtilities utils;
 
+    protected final ADTrace trace;
+
+    /**
+     * Profiles of changed objects, read in advance, by GUID.
+     */
+    protected final Map<String, Attributes> profiles = new HashMap<>();
+
     public ADSyncStrategy(final ADConnection conn) {
         this.conn = conn;
         this.utils = new ADUtilities(conn);
+        this.trace = conn.getTrace();
     }
 
     protected List<SearchResult> search(
@@ -87,46 +119,119 @@ public class ADSyncStrategy implements LdapSyncStrategy {
 
         final List<SearchResult> result = new ArrayList<>();
 
-        for (String baseContextDn : conn.getConfiguration().getBaseContextsToSynchronize()) {
+        search(ctx, filter, searchCtls, updateLastSyncToken, (baseDN, sr) -> result.add(sr));
+
+        return result;
+    }
+
+    /**
+     * Search for changes under each base context to synchronize, passing every result to the given handler as soon as
+     * it is received: nothing is accumulated in memory.
+     * DirSync pages are requested until the server reports no more data. Each base context is searched starting from
+     * the original cookie, so the cookie of a page is safe to resume from only when no other base context is left to
+     * search: with a single base context the handler is told about every completed page, otherwise only about the
+     * last page of the last base context.
+     *
+     * @param ctx synchronization context, with DirSync request control.
+     * @param filter search filter.
+     * @param searchCtls search controls.
+     * @param updateLastSyncToken whether the latest sync token has to be read from DirSync response control.
+     * @param handler search results handler; returning FALSE stops the search.
+     */
+    protected void search(
+            final LdapContext ctx,
+            final String filter,
+            final SearchControls searchCtls,
+            final boolean updateLastSyncToken,
+            final DirSyncResultsHandler handler) {
 
+        // results handling can change request controls on the same context: keep the original ones
+        final Control[] requestCtls;
+        try {
+            requestCtls = ctx.getRequestControls();
+        } catch (NamingException e) {
+            throw new ConnectorException("Could not read DirSync request controls", e);
+        }
+
+        final String[] baseContextDns = conn.getConfiguration().getBaseContextsToSynchronize();
+
+        boolean proceed = true;
+
+        for (int i = 0; i < baseContextDns.length; i++) {
+            final String baseContextDn = baseContextDns[i];
             if (LOG.isOk()) {
-                LOG.ok("Searching from " + baseContextDn);
+                LOG.ok("Searching from {0}", baseContextDn);
             }
 
-            try {
-                final NamingEnumeration<SearchResult> answer = ctx.search(baseContextDn, filter, searchCtls);
+            Control[] pageCtls = requestCtls;
+            boolean moreData = true;
+            int page = 0;
 
-                while (answer.hasMoreElements()) {
-                    result.add(answer.nextElement());
-                }
+            while (proceed && moreData) {
+                moreData = false;
+                page++;
+
+                try {
+                    ctx.setRequestControls(pageCtls);
 
-                if (updateLastSyncToken) {
-                    final Control[] rspCtls = ctx.getResponseControls();
+                    final NamingEnumeration<SearchResult> answer = ctx.search(baseContextDn, filter, searchCtls);
 
-                    if (rspCtls != null) {
-                        if (LOG.isOk()) {
-                            LOG.ok("Response Controls: {0}", rspCtls.length);
+                    while (proceed && answer.hasMoreElements()) {
+                        proceed = handler.handle(baseContextDn, answer.nextElement());
+                    }
+
+                    final DirSyncResponseControl dirSyncRspCtl = getDirSyncResponseControl(ctx.getResponseControls());
+                    if (dirSyncRspCtl != null) {
+                        moreData = dirSyncRspCtl.hasMoreData();
+                        if (moreData) {
+                            pageCtls = nextDirSyncPage(requestCtls, dirSyncRspCtl.getCookie());
                         }
 
-                        for (Control rspCtl : rspCtls) {
-                            if (rspCtl instanceof DirSyncResponseControl) {
-                                DirSyncResponseControl dirSyncRspCtl = (DirSyncResponseControl) rspCtl;
-                                latestSyncToken = new SyncToken(dirSyncRspCtl.getCookie());
+                        if (updateLastSyncToken) {
+                            latestSyncToken = new SyncToken(dirSyncRspCtl.getCookie());
+
+                            if (LOG.isOk()) {
+                                LOG.ok("Latest sync token set to {0} after page {1}", latestSyncToken, page);
                             }
-                        }
 
-                        if (LOG.isOk()) {
-                            LOG.ok("Latest sync token set to {0}", latestSyncToken);
+                            if (baseContextDns.length == 1 || (i == baseContextDns.length - 1 && !moreData)) {
+                                handler.pageCompleted(latestSyncToken);
+                            }
                         }
                     }
+                } catch (NamingException e) {
+                    LOG.error(e, "While searching base context {0} with filter {1} and search controls {2}",
+                            baseContextDn, filter, searchCtls);
                 }
-            } catch (NamingException e) {
-                LOG.error(e, "While searching base context {0} with filter {1} and search controls {2}",
-                        baseContextDn, filter, searchCtls);
             }
         }
+    }
 
-        return result;
+    private DirSyncResponseControl getDirSyncResponseControl(final Control[] rspCtls) {
+        if (rspCtls != null) {
+            for (Control rspCtl : rspCtls) {
+                if (rspCtl instanceof DirSyncResponseControl) {
+                    return (DirSyncResponseControl) rspCtl;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private Control[] nextDirSyncPage(final Control[] requestCtls, final byte[] cookie) {
+        final Control[] pageCtls = requestCtls.clone();
+        for (int i = 0; i < pageCtls.length; i++) {
+            if (ADDirSyncControl.OID.equals(pageCtls[i].getID())) {
+                pageCtls[i] = createDirSyncControl(cookie);
+            }
+        }
+        return pageCtls;
+    }
+
+    protected Control createDirSyncControl(final byte[] cookie) {
+        final int maxBytes = ((ADConfiguration) conn.getConfiguration()).getDirSyncMaxBytes();
+        return new ADDirSyncControl(maxBytes > 0 ? maxBytes : Integer.MAX_VALUE, cookie);
     }
 
     public void sync(
@@ -160,13 +265,13 @@ public class ADSyncStrategy implements LdapSyncStrategy {
                     LOG.ok("Synchronization with empty token.");
                 }
 
-                ctx = conn.getSyncContext(new Control[] { new DirSyncControl() });
+                ctx = conn.getSyncContext(new Control[] { createDirSyncControl(null) });
             } else {
                 if (LOG.isOk()) {
                     LOG.ok("Synchronization with token.");
                 }
 
-                ctx = conn.getSyncContext(new Control[] { new DirSyncControl((byte[]) token.getValue()) });
+                ctx = conn.getSyncContext(new Control[] { createDirSyncControl((byte[]) token.getValue()) });
             }
         } catch (Exception e) {
             throw new ConnectorException("Could not set DirSync request controls", e);
@@ -184,51 +289,66 @@ public class ADSyncStrategy implements LdapSyncStrategy {
                 : DirSyncUtils.createDirSyncAOFilter((ADConfiguration) conn.getConfiguration());
 
         if (LOG.isOk()) {
-            LOG.ok("Search filter: " + filter);
+            LOG.ok("Search filter: {0}", filter);
         }
         // -----------------------------------
 
         final String[] attrsToGetOption = options.getAttributesToGet();
         final Set<String> attrsToGet = utils.getAttributesToGet(attrsToGetOption, oclass);
 
-        final List<SearchResult> changes = search(ctx, filter, searchCtls, true);
-
-        int count = changes.size();
-        if (LOG.isOk()) {
-            LOG.ok("Found {0} changes", count);
+        // changes are handled while DirSync results are still being received: use a distinct context, sharing the
+        // same connection, in order to preserve DirSync request and response controls
+        final LdapContext deltaCtx;
+        try {
+            deltaCtx = ctx.newInstance(null);
+        } catch (NamingException e) {
+            conn.releaseContext(ctx);
+            throw new ConnectorException("Could not create context for SyncDelta handling", e);
         }
 
-        if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
-            for (SearchResult sr : changes) {
-                try {
-                    handleSyncUDelta(ctx, sr, attrsToGet, count == 1 ? latestSyncToken : token, handler);
-                    count--;
-                } catch (NamingException e) {
-                    LOG.error(e, "SyncDelta handling for {0} failed", sr.getName());
-                }
-            }
-        } else if (oclass.is(ObjectClass.GROUP_NAME)) {
-            for (SearchResult sr : changes) {
-                try {
-                    handleSyncGDelta(ctx, sr, attrsToGet, count == 1 ? latestSyncToken : token, handler);
-                    count--;
-                } catch (NamingException e) {
-                    LOG.error(e, "SyncDelta handling for {0} failed", sr.getName());
-                }
-            }
-        } else {
-            for (SearchResult sr : changes) {
-                try {
-                    handleSyncAODelta(ctx, sr, attrsToGet, count == 1 ? latestSyncToken : token, handler);
-                    count--;
-                } catch (NamingException e) {
-                    LOG.error(e, "SyncDelta handling for {0} failed", sr.getName());
-                }
+        final SyncDeltaStream changes = new SyncDeltaStream(deltaCtx, oclass, attrsToGet, token, handler);
+
+        try {
+            search(ctx, filter, searchCtls, true, changes);
+
+            // results not covered by a completed page, if any, keep the latest committed token
+            changes.flush();
+        } finally {
+            try {
+                deltaCtx.close();
+            } catch (NamingException e) {
+                LOG.ok(e, "Could not close context for SyncDelta handling");
             }
+            conn.releaseContext(ctx);
+        }
+
+        if (LOG.isOk()) {
+            LOG.ok("Found {0} changes", changes.getCount());
         }
 
         if (handler instanceof SyncTokenResultsHandler) {
-            SyncTokenResultsHandler.class.cast(handler).handleResult(latestSyncToken);
+            SyncTokenResultsHandler.class.cast(handler).handleResult(changes.getToken());
+        }
+    }
+
+    protected void handleSyncDelta(
+            final LdapContext ctx,
+            final ObjectClass oclass,
+            final SearchResult sr,
+            final Collection<String> attrsToGet,
+            final SyncToken token,
+            final SyncResultsHandler handler) {
+
+        try {
+            if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
+                handleSyncUDelta(ctx, sr, attrsToGet, token, handler);
+            } else if (oclass.is(ObjectClass.GROUP_NAME)) {
+                handleSyncGDelta(ctx, sr, attrsToGet, token, handler);
+            } else {
+                handleSyncAODelta(ctx, sr, attrsToGet, token, handler);
+            }
+        } catch (NamingException e) {
+            LOG.error(e, "SyncDelta handling for {0} failed", sr.getName());
         }
     }
 
@@ -244,8 +364,9 @@ public class ADSyncStrategy implements LdapSyncStrategy {
         final String baseContextDn = conn.getConfiguration().getBaseContextsToSynchronize()[0];
         final String filter = "(CN=__CONNID-NORES__)";
 
+        LdapContext ctx = null;
         try {
-            final LdapContext ctx = conn.getSyncContext(new Control[] { new DirSyncControl() });
+            ctx = conn.getSyncContext(new Control[] { new DirSyncControl() });
             ctx.search(baseContextDn, filter, searchCtls);
 
             final Control[] rspCtls = ctx.getResponseControls();
@@ -265,6 +386,8 @@ public class ADSyncStrategy implements LdapSyncStrategy {
             }
         } catch (Exception e) {
             LOG.error(e, "While searching for {0} with filter {1} and controls {2}", baseContextDn, filter, searchCtls);
+        } finally {
+            conn.releaseContext(ctx);
         }
 
         return latestSyncToken;
@@ -288,10 +411,6 @@ public class ADSyncStrategy implements LdapSyncStrategy {
         // Just used to retrieve object classes and to pass to getSyncDelta
         Attributes profile = result.getAttributes();
 
-        if (LOG.isOk()) {
-            LOG.ok("Object profile: {0}", profile);
-        }
-
         final String guid = GUID.getGuidAsString((byte[]) profile.get("objectGUID").get());
 
         boolean isDeleted = false;
@@ -313,7 +432,7 @@ public class ADSyncStrategy implements LdapSyncStrategy {
         }
 
         // We need for this beacause DirSync can return an uncomplete profile.
-        profile = ctx.getAttributes("<GUID=" + guid + ">");
+        profile = getProfile(ctx, guid, ObjectClass.ACCOUNT, attrsToGet);
 
         final Attribute objectClasses = profile.get("objectClass");
 
@@ -325,20 +444,12 @@ public class ADSyncStrategy implements LdapSyncStrategy {
         if (objectClasses.contains("group")) {
             // basicLdapSearch for users in adn users out
 
-            if (LOG.isOk()) {
-                LOG.ok("Modified group {0}", result.getNameInNamespace());
-            }
-
             member11 = result.getAttributes().get("member;range=1-1");
             member00 = result.getAttributes().get("member;range=0-0");
 
             ctx.setRequestControls(null);
 
             if (member11 != null) {
-                if (LOG.isOk()) {
-                    LOG.ok("Found users 'IN' ...");
-                }
-
                 handleInOutEntries(
                         ctx,
                         ObjectClass.ACCOUNT,
@@ -352,10 +463,6 @@ public class ADSyncStrategy implements LdapSyncStrategy {
 
             if (member00 != null && conf.isRetrieveDeletedUser()) {
                 // users to be removed
-                if (LOG.isOk()) {
-                    LOG.ok("Found users 'OUT' ...");
-                }
-
                 handleInOutEntries(
                         ctx,
                         ObjectClass.ACCOUNT,
@@ -367,17 +474,8 @@ public class ADSyncStrategy implements LdapSyncStrategy {
                         attrsToGet);
             }
         } else if (objectClasses.contains("user")) {
-            if (LOG.isOk()) {
-                LOG.ok("Created/Updated/Deleted user {0}",
-                        result.getNameInNamespace());
-            }
-
             if (isDeleted) {
 
-                if (LOG.isOk()) {
-                    LOG.ok("Deleted user {0}", result.getNameInNamespace());
-                }
-
                 if (conf.isRetrieveDeletedUser()) {
                     handler.handle(getSyncDelta(
                             ObjectClass.ACCOUNT,
@@ -391,14 +489,11 @@ public class ADSyncStrategy implements LdapSyncStrategy {
 
             } else {
                 // user to be created/updated
-                if (LOG.isOk()) {
-                    LOG.ok("Created/Updated user {0}", result.getNameInNamespace());
-                }
-
                 handleEntry(
                         ctx,
                         ObjectClass.ACCOUNT,
                         result.getNameInNamespace(),
+                        profile,
                         DirSyncUtils.getUserFilter(conf),
                         handler,
                         token,
@@ -428,10 +523,6 @@ public class ADSyncStrategy implements LdapSyncStrategy {
         // Just used to retrieve object classes and to pass to getSyncDelta
         Attributes profile = sr.getAttributes();
 
-        if (LOG.isOk()) {
-            LOG.ok("Object profile: {0}", profile);
-        }
-
         String guid = GUID.getGuidAsString((byte[]) profile.get(ADConnector.OBJECTGUID).get());
 
         boolean isDeleted = false;
@@ -454,23 +545,15 @@ public class ADSyncStrategy implements LdapSyncStrategy {
         }
 
         // We need for this beacause DirSync can return an uncomplete profile.
-        profile = ctx.getAttributes("<GUID=" + guid + ">");
+        profile = getProfile(ctx, guid, ObjectClass.GROUP, attrsToGet);
 
         final Attribute objectClasses = profile.get("objectClass");
 
         if (objectClasses.contains("group")) {
             final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
 
-            if (LOG.isOk()) {
-                LOG.ok("Created/Updated/Deleted group {0}", sr.getNameInNamespace());
-            }
-
             if (isDeleted) {
 
-                if (LOG.isOk()) {
-                    LOG.ok("Deleted group {0}", sr.getNameInNamespace());
-                }
-
                 if (conf.isRetrieveDeletedGroup()) {
                     handler.handle(getSyncDelta(
                             ObjectClass.GROUP,
@@ -484,14 +567,18 @@ public class ADSyncStrategy implements LdapSyncStrategy {
 
             } else {
                 // user to be created/updated
-                if (LOG.isOk()) {
-                    LOG.ok("Created/Updated group {0}", sr.getNameInNamespace());
-                }
-
                 String userDN = sr.getNameInNamespace();
 
                 handleEntry(
-                        ctx, ObjectClass.GROUP, userDN, conf.getGroupSearchFilter(), handler, token, conf, attrsToGet);
+                        ctx,
+                        ObjectClass.GROUP,
+                        userDN,
+                        profile,
+                        conf.getGroupSearchFilter(),
+                        handler,
+                        token,
+                        conf,
+                        attrsToGet);
 
                 final javax.naming.directory.Attribute member11 = sr.getAttributes().get("member;range=1-1");
                 final javax.naming.directory.Attribute member00 = sr.getAttributes().get("member;range=0-0");
@@ -499,10 +586,6 @@ public class ADSyncStrategy implements LdapSyncStrategy {
                 ctx.setRequestControls(null);
 
                 if (member11 != null) {
-                    if (LOG.isOk()) {
-                        LOG.ok("Found entry 'IN' ...");
-                    }
-
                     handleInOutEntries(
                             ctx,
                             ObjectClass.GROUP,
@@ -516,10 +599,6 @@ public class ADSyncStrategy implements LdapSyncStrategy {
 
                 if (member00 != null) {
                     // users to be removed
-                    if (LOG.isOk()) {
-                        LOG.ok("Found entry 'OUT' ...");
-                    }
-
                     handleInOutEntries(
                             ctx,
                             ObjectClass.GROUP,
@@ -554,10 +633,6 @@ public class ADSyncStrategy implements LdapSyncStrategy {
         // Just used to retrieve object classes and to pass to getSyncDelta
         Attributes profile = sr.getAttributes();
 
-        if (LOG.isOk()) {
-            LOG.ok("Object profile: {0}", profile);
-        }
-
         String guid = GUID.getGuidAsString((byte[]) profile.get(ADConnector.OBJECTGUID).get());
 
         boolean isDeleted = false;
@@ -580,20 +655,12 @@ public class ADSyncStrategy implements LdapSyncStrategy {
         }
 
         // We need for this beacause DirSync can return an uncomplete profile.
-        profile = ctx.getAttributes("<GUID=" + guid + ">");
+        profile = getProfile(ctx, guid, LdapSchema.ANY_OBJECT_CLASS, attrsToGet);
 
         final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
 
-        if (LOG.isOk()) {
-            LOG.ok("Created/Updated/Deleted any-object {0}", sr.getNameInNamespace());
-        }
-
         if (isDeleted) {
 
-            if (LOG.isOk()) {
-                LOG.ok("Deleted any-object {0}", sr.getNameInNamespace());
-            }
-
             if (conf.isRetrieveDeletedAnyObject()) {
                 handler.handle(getSyncDelta(
                         LdapSchema.ANY_OBJECT_CLASS,
@@ -607,19 +674,110 @@ public class ADSyncStrategy implements LdapSyncStrategy {
 
         } else {
             // user to be created/updated
-            if (LOG.isOk()) {
-                LOG.ok("Created/Updated any-object {0}", sr.getNameInNamespace());
-            }
-
             String userDN = sr.getNameInNamespace();
 
             handleEntry(
-                    ctx, LdapSchema.ANY_OBJECT_CLASS, userDN, conf.getAnyObjectSearchFilter(), handler, token, conf, attrsToGet);
+                    ctx,
+                    LdapSchema.ANY_OBJECT_CLASS,
+                    userDN,
+                    profile,
+                    conf.getAnyObjectSearchFilter(),
+                    handler,
+                    token,
+                    conf,
+                    attrsToGet);
 
             ctx.setRequestControls(null);
         }
     }
 
+    /**
+     * Read full profiles of the given changed objects with one search per base context to synchronize, filtering by
+     * objectGUID: tombstones are not found this way and are left to
+     * {@link #getProfile(LdapContext, String, ObjectClass, Collection)}.
+     *
+     * @param ctx context.
+     * @param oclass object class being synchronized.
+     * @param attrsToGet attributes to get.
+     * @param changes changed objects, as returned by DirSync.
+     */
+    protected void prefetchProfiles(
+            final LdapContext ctx,
+            final ObjectClass oclass,
+            final Set<String> attrsToGet,
+            final List<SearchResult> changes) {
+
+        final StringBuilder filter = new StringBuilder();
+        int guids = 0;
+        for (SearchResult change : changes) {
+            try {
+                final javax.naming.directory.Attribute guid = change.getAttributes().get(ADConnector.OBJECTGUID);
+                final javax.naming.directory.Attribute isDeleted = change.getAttributes().get("isDeleted");
+                if (guid != null && (isDeleted == null || !Boolean.parseBoolean(isDeleted.get().toString()))) {
+                    filter.append('(').append(ADConnector.OBJECTGUID).append('=').
+                            append(Hex.getEscaped((byte[]) guid.get())).append(')');
+                    guids++;
+                }
+            } catch (NamingException e) {
+                LOG.error(e, "While reading objectGUID of {0}", change.getNameInNamespace());
+            }
+        }
+
+        if (guids <= 1) {
+            // nothing to gain from a search
+            return;
+        }
+        filter.insert(0, "(|").append(')');
+
+        final SearchControls searchCtls = LdapInternalSearch.createDefaultSearchControls();
+        searchCtls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchCtls.setReturningAttributes(getProfileAttributesToGet(oclass, attrsToGet));
+
+        for (String baseContextDn : conn.getConfiguration().getBaseContextsToSynchronize()) {
+            try {
+                ctx.setRequestControls(new Control[] { new SDFlagsControl(0x00000004) });
+
+                final NamingEnumeration<SearchResult> answer =
+                        ctx.search(baseContextDn, filter.toString(), searchCtls);
+                while (answer.hasMoreElements()) {
+                    final Attributes profile = answer.nextElement().getAttributes();
+                    profiles.put(
+                            GUID.getGuidAsString((byte[]) profile.get(ADConnector.OBJECTGUID).get()),
+                            profile);
+                }
+            } catch (NamingException e) {
+                LOG.error(e, "While reading profiles of changed objects from {0}", baseContextDn);
+            }
+        }
+
+        if (LOG.isOk()) {
+            LOG.ok("Read {0} profiles out of {1} changed objects", profiles.size(), changes.size());
+        }
+    }
+
+    /**
+     * Get the full profile of the given changed object: DirSync can return an incomplete profile.
+     *
+     * @param ctx context.
+     * @param guid objectGUID of the changed object.
+     * @param oclass object class being synchronized.
+     * @param attrsToGet attributes to get.
+     * @return full profile, read in advance if available
+     * @throws NamingException if the object could not be read
+     */
+    protected Attributes getProfile(
+            final LdapContext ctx,
+            final String guid,
+            final ObjectClass oclass,
+            final Collection<String> attrsToGet)
+            throws NamingException {
+
+        final Attributes profile = profiles.remove(guid);
+        return profile == null
+                ? ctx.getAttributes("<GUID=" + guid + ">", getProfileAttributesToGet(oclass, attrsToGet))
+                : profile;
+    }
+
     protected SyncDelta getSyncDelta(
             final ObjectClass oclass,
             final String entryDN,
@@ -660,6 +818,12 @@ public class ADSyncStrategy implements LdapSyncStrategy {
         // Set Connector Object
         sdb.setObject(utils.createConnectorObject(entryDN, profile, attrsToGet, oclass));
 
+        if (trace.sample()) {
+            trace.event("sync.delta",
+                    "type", syncDeltaType, "class", oclass.getObjectClassValue(), "dn", entryDN,
+                    "token", token == null ? null : token.getValue(), "attrs", profile);
+        }
+
         return sdb.build();
     }
 
@@ -674,12 +838,200 @@ public class ADSyncStrategy implements LdapSyncStrategy {
             final Collection<String> attrsToGet)
             throws NamingException {
 
+        // for each new user "in" we must verify custom ldap filter: do it for batches of entries at once
+        final List<String> batch = new ArrayList<>(MEMBER_BATCH_SIZE);
         while (dns.hasMoreElements()) {
-            // for each new user "in" we must verify custom ldap filter
-            handleEntry(ctx, oclass, dns.next(), filter, handler, token, conf, attrsToGet);
+            batch.add(dns.next());
+
+            if (batch.size() == MEMBER_BATCH_SIZE) {
+                handleEntries(ctx, oclass, batch, filter, handler, token, conf, attrsToGet);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            handleEntries(ctx, oclass, batch, filter, handler, token, conf, attrsToGet);
+        }
+    }
+
+    /**
+     * Same as {@link #handleEntry(LdapContext, ObjectClass, String, String, SyncResultsHandler, SyncToken,
+     * ADConfiguration, Collection)} for several entries at once: entries under the base contexts to synchronize are
+     * verified against the given filter and read with the same search; entries matching the filter are then
+     * created or updated, the others are deleted, if required.
+     * Entries outside the base contexts to synchronize are handled one by one.
+     *
+     * @param ctx context.
+     * @param oclass object class.
+     * @param dns entry DNs.
+     * @param filter filter to verify.
+     * @param handler sync results handler.
+     * @param token sync token.
+     * @param conf configuration.
+     * @param attrsToGet attributes to get.
+     * @throws NamingException if anything goes wrong
+     */
+    protected void handleEntries(
+            final LdapContext ctx,
+            final ObjectClass oclass,
+            final List<String> dns,
+            final String filter,
+            final SyncResultsHandler handler,
+            final SyncToken token,
+            final ADConfiguration conf,
+            final Collection<String> attrsToGet)
+            throws NamingException {
+
+        final List<LdapName> baseContexts = new ArrayList<>();
+        for (String baseContextDn : conf.getBaseContextsToSynchronize()) {
+            baseContexts.add(new LdapName(baseContextDn));
+        }
+
+        // entries under the base contexts to synchronize
+        final Map<LdapName, String> entries = new LinkedHashMap<>();
+        // any other entry
+        final List<String> others = new ArrayList<>();
+
+        for (String dn : dns) {
+            LdapName name = null;
+            try {
+                name = new LdapName(dn);
+            } catch (InvalidNameException e) {
+                LOG.warn(e, "Invalid DN {0}", dn);
+            }
+
+            if (name != null && baseContexts.stream().anyMatch(name::startsWith)) {
+                entries.put(name, dn);
+            } else {
+                others.add(dn);
+            }
+        }
+
+        if (!entries.isEmpty()) {
+            final String[] ldapAttrsToGet = getProfileAttributesToGet(oclass, attrsToGet);
+
+            // entries matching the filter
+            for (Map.Entry<LdapName, Attributes> found
+                    : searchEntries(ctx, entries.keySet(), filter, ldapAttrsToGet).entrySet()) {
+
+                final String dn = entries.remove(found.getKey());
+                if (dn != null && isOfType(oclass, dn, found.getValue())) {
+                    handler.handle(getSyncDelta(
+                            oclass,
+                            dn,
+                            SyncDeltaType.CREATE_OR_UPDATE,
+                            token,
+                            found.getValue(),
+                            attrsToGet,
+                            false));
+                }
+            }
+
+            // existing entries not matching the filter, if to be deleted; not existing entries are just ignored
+            if (!entries.isEmpty() && isRetrieveDeleted(oclass, conf)) {
+                for (Map.Entry<LdapName, Attributes> found
+                        : searchEntries(ctx, entries.keySet(), null, ldapAttrsToGet).entrySet()) {
+
+                    final String dn = entries.remove(found.getKey());
+                    if (dn != null && isOfType(oclass, dn, found.getValue())) {
+                        // new memberOf could invalidate the custom filter
+                        handler.handle(getSyncDelta(
+                                oclass,
+                                dn,
+                                SyncDeltaType.DELETE,
+                                token,
+                                found.getValue(),
+                                attrsToGet,
+                                false));
+                    }
+                }
+            }
+        }
+
+        for (String dn : others) {
+            handleEntry(ctx, oclass, dn, filter, handler, token, conf, attrsToGet);
         }
     }
 
+    private Map<LdapName, Attributes> searchEntries(
+            final LdapContext ctx,
+            final Set<LdapName> names,
+            final String filter,
+            final String[] ldapAttrsToGet) {
+
+        final StringBuilder dnFilter = new StringBuilder();
+        for (LdapName name : names) {
+            dnFilter.append("(distinguishedName=");
+            escapeAttrValue(name.toString(), dnFilter);
+            dnFilter.append(')');
+        }
+        dnFilter.insert(0, "(|").append(')');
+
+        final String searchFilter = StringUtil.isBlank(filter)
+                ? dnFilter.toString()
+                : "(&" + filter + dnFilter + ")";
+
+        final SearchControls searchCtls = LdapInternalSearch.createDefaultSearchControls();
+        searchCtls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchCtls.setReturningAttributes(ldapAttrsToGet);
+
+        final Map<LdapName, Attributes> result = new HashMap<>();
+        for (String baseContextDn : conn.getConfiguration().getBaseContextsToSynchronize()) {
+            try {
+                final NamingEnumeration<SearchResult> answer = ctx.search(baseContextDn, searchFilter, searchCtls);
+                while (answer.hasMoreElements()) {
+                    final SearchResult sr = answer.nextElement();
+                    result.put(new LdapName(sr.getNameInNamespace()), sr.getAttributes());
+                }
+            } catch (NamingException e) {
+                LOG.error(e, "While searching base context {0} with filter {1}", baseContextDn, searchFilter);
+            }
+        }
+
+        return result;
+    }
+
+    protected String[] getProfileAttributesToGet(final ObjectClass oclass, final Collection<String> attrsToGet) {
+        final Set<String> ldapAttrsToGet = utils.getLdapAttributesToGet(new HashSet<>(attrsToGet), oclass);
+        ldapAttrsToGet.add("objectClass");
+        ldapAttrsToGet.add("isDeleted");
+        ldapAttrsToGet.add(ADConnector.OBJECTGUID);
+        ldapAttrsToGet.add(conn.getSchema().getLdapUidAttribute(oclass));
+
+        // required to verify the filter in-process
+        final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
+        ldapAttrsToGet.addAll(getFilterAttributes(oclass.is(ObjectClass.ACCOUNT_NAME)
+                ? DirSyncUtils.getUserFilter(conf)
+                : oclass.is(ObjectClass.GROUP_NAME)
+                ? conf.getGroupSearchFilter()
+                : conf.getAnyObjectSearchFilter()));
+
+        return ldapAttrsToGet.toArray(new String[0]);
+    }
+
+    private Set<String> getFilterAttributes(final String filter) {
+        return Optional.ofNullable(DirSyncUtils.parseFilter(filter)).
+                map(ADFilter::getAttributes).orElse(Collections.emptySet());
+    }
+
+    private boolean isOfType(final ObjectClass oclass, final String dn, final Attributes profile) {
+        final Attribute objectClasses = profile.get("objectClass");
+
+        if (oclass.is(ObjectClass.ACCOUNT_NAME) && !objectClasses.contains("user")
+                || oclass.is(ObjectClass.GROUP_NAME) && !objectClasses.contains("group")) {
+            LOG.warn("Invalid type: skip object {0}", dn);
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean isRetrieveDeleted(final ObjectClass oclass, final ADConfiguration conf) {
+        return (oclass.is(ObjectClass.GROUP_NAME) && conf.isRetrieveDeletedGroup())
+                || (oclass.is(ObjectClass.ACCOUNT_NAME) && conf.isRetrieveDeletedUser())
+                || (oclass.is(LdapSchema.ANY_OBJECT_NAME) && conf.isRetrieveDeletedAnyObject());
+    }
+
     protected void handleEntry(
             final LdapContext ctx,
             final ObjectClass oclass,
@@ -691,45 +1043,50 @@ public class ADSyncStrategy implements LdapSyncStrategy {
             final Collection<String> attrsToGet)
             throws NamingException {
 
+        // all user attributes, plus any other the filter is about, to allow in-process verification
+        final Set<String> attrIds = new HashSet<>();
+        attrIds.add("*");
+        attrIds.addAll(getFilterAttributes(filter));
+
         Attributes profile;
         try {
-            profile = ctx.getAttributes(dn);
+            profile = ctx.getAttributes(dn, attrIds.toArray(new String[0]));
         } catch (NameNotFoundException nnfe) {
             // do nothing: maybe it is referring to a deleted object coming out from a group
             LOG.info("Entry {0} not found. Maybe removed before ... skip handle", dn);
             return;
         }
 
-        final Attribute objectClasses = profile.get("objectClass");
+        handleEntry(ctx, oclass, dn, profile, filter, handler, token, conf, attrsToGet);
+    }
 
-        if (oclass.is(ObjectClass.ACCOUNT_NAME) && !objectClasses.contains("user")
-                || oclass.is(ObjectClass.GROUP_NAME) && !objectClasses.contains("group")) {
-            LOG.warn("Invalid type: skip object {0}", dn);
+    protected void handleEntry(
+            final LdapContext ctx,
+            final ObjectClass oclass,
+            final String dn,
+            final Attributes profile,
+            final String filter,
+            final SyncResultsHandler handler,
+            final SyncToken token,
+            final ADConfiguration conf,
+            final Collection<String> attrsToGet)
+            throws NamingException {
+
+        if (!isOfType(oclass, dn, profile)) {
             return;
         }
 
         final SyncDeltaType deltaType;
 
-        if (DirSyncUtils.verifyFilter(ctx, dn, filter)) {
-            if (LOG.isOk()) {
-                LOG.ok("Entry {0} - update", dn);
-            }
-
+        if (DirSyncUtils.verifyFilter(ctx, dn, profile, filter)) {
             deltaType = SyncDeltaType.CREATE_OR_UPDATE;
 
         } else {
             // new memberOf could invalidate the custom filter
-            if (LOG.isOk()) {
-                LOG.ok("Entry {0} - delete", dn);
-            }
-
             deltaType = SyncDeltaType.DELETE;
         }
 
-        if (deltaType != SyncDeltaType.DELETE
-                || (oclass.is(ObjectClass.GROUP_NAME) && conf.isRetrieveDeletedGroup())
-                || (oclass.is(ObjectClass.ACCOUNT_NAME) && conf.isRetrieveDeletedUser())
-                || (oclass.is(LdapSchema.ANY_OBJECT_NAME) && conf.isRetrieveDeletedAnyObject())) {
+        if (deltaType != SyncDeltaType.DELETE || isRetrieveDeleted(oclass, conf)) {
 
             handler.handle(getSyncDelta(
                     oclass,
@@ -741,4 +1098,109 @@ public class ADSyncStrategy implements LdapSyncStrategy {
                     false));
         }
     }
+
+    /**
+     * Handles DirSync results while they are streamed from the server.
+     * Results are collected in batches, whose full profiles are then read with a single search; the last result
+     * received is always held back, so that the last one of each completed page can be handled with the sync token of
+     * that page; any other result is handled with the sync token of the latest completed page, or with the incoming
+     * one if none was completed yet.
+     */
+    protected class SyncDeltaStream implements DirSyncResultsHandler {
+
+        private final LdapContext ctx;
+
+        private final ObjectClass oclass;
+
+        private final Set<String> attrsToGet;
+
+        private final SyncResultsHandler handler;
+
+        private final List<SearchResult> batch = new ArrayList<>(PROFILE_BATCH_SIZE + 1);
+
+        private SyncToken token;
+
+        private int count = 0;
+
+        public SyncDeltaStream(
+                final LdapContext ctx,
+                final ObjectClass oclass,
+                final Set<String> attrsToGet,
+                final SyncToken token,
+                final SyncResultsHandler handler) {
+
+            this.ctx = ctx;
+            this.oclass = oclass;
+            this.attrsToGet = attrsToGet;
+            this.token = token;
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean handle(final String baseDN, final SearchResult result) {
+            batch.add(result);
+            count++;
+
+            if (batch.size() > PROFILE_BATCH_SIZE) {
+                final SearchResult last = batch.remove(batch.size() - 1);
+                handleBatch(null);
+                batch.add(last);
+            }
+
+            return true;
+        }
+
+        /**
+         * Handle the received results, if any, assigning the given sync token to the last one, and make it the sync
+         * token for following results.
+         *
+         * @param lastToken sync token to be assigned to the last result.
+         */
+        @Override
+        public void pageCompleted(final SyncToken lastToken) {
+            handleBatch(lastToken);
+            token = lastToken;
+        }
+
+        /**
+         * Handle the received results, if any, with the current sync token.
+         */
+        public void flush() {
+            handleBatch(null);
+        }
+
+        private void handleBatch(final SyncToken lastToken) {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            prefetchProfiles(ctx, oclass, attrsToGet, batch);
+
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    handleSyncDelta(
+                            ctx,
+                            oclass,
+                            batch.get(i),
+                            attrsToGet,
+                            lastToken != null && i == batch.size() - 1 ? lastToken : token,
+                            handler);
+                }
+            } finally {
+                batch.clear();
+                profiles.clear();
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return sync token of the latest completed page, or the incoming one if none was completed
+         */
+        public SyncToken getToken() {
+            return token;
+        }
+    }
 }
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.sync;
+
+import net.tirasa.connid.bundles.ldap.search.LdapSearchResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+
+/**
+ * Handler of DirSync search results, told when the results received so far are covered by a sync token.
+ */
+public interface DirSyncResultsHandler extends LdapSearchResultsHandler {
+
+    /**
+     * Called once a DirSync page is completed, if its cookie is safe to resume from: all the results received so far
+     * can be committed with the given sync token.
+     *
+     * @param token sync token built from the cookie of the completed page
+     */
+    default void pageCompleted(final SyncToken token) {
+        // nothing to commit
+    }
+}
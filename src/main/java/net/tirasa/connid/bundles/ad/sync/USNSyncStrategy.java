@@ -84,7 +84,7 @@ public class USNSyncStrategy extends ADSyncStrategy {
             new PagedResultsControl(1000, cookie, Control.CRITICAL) });
 
         if (LOG.isOk()) {
-            LOG.ok("Searching from " + baseContextDn);
+            LOG.ok("Searching from {0}", baseContextDn);
         }
         final List<SearchResult> result = new ArrayList<>();
         try {
@@ -124,7 +124,7 @@ public class USNSyncStrategy extends ADSyncStrategy {
         String baseContextDn = namingContexts.iterator().next();
 
         if (LOG.isOk()) {
-            LOG.ok("Searching from " + baseContextDn);
+            LOG.ok("Searching from {0}", baseContextDn);
         }
 
         try {
@@ -216,7 +216,7 @@ public class USNSyncStrategy extends ADSyncStrategy {
         }
 
         if (LOG.isOk()) {
-            LOG.ok("Search filter: " + filter);
+            LOG.ok("Search filter: {0}", filter);
         }
         // -----------------------------------
 
@@ -226,8 +226,9 @@ public class USNSyncStrategy extends ADSyncStrategy {
         // -----------------------------------
         // Get Synchronization Context and perform
         // -----------------------------------
+        LdapContext ctx = null;
         try {
-            LdapContext ctx = conn.getInitialContext().newInstance(new Control[] {});
+            ctx = conn.getSyncContext(new Control[] {});
 
             byte[] cookie = null;
             for (String baseContextDn : conn.getConfiguration().getBaseContextsToSynchronize()) {
@@ -239,25 +240,22 @@ public class USNSyncStrategy extends ADSyncStrategy {
                     if (!deleted) {
                         cookie = getResponseCookie(ctx.getResponseControls());
                     }
-                    int count = changes.size();
-                    LOG.ok("Found {0} changes", count);
+                    if (LOG.isOk()) {
+                        LOG.ok("Found {0} changes", changes.size());
+                    }
 
                     if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
                         for (SearchResult sr : changes) {
-                            LOG.ok("Remaining {0} users to be processed", count);
                             try {
                                 handleSyncUDelta(ctx, sr, attrsToGet, token, handler);
-                                count--;
                             } catch (NamingException e) {
                                 LOG.error(e, "SyncDelta handling for '{0}' failed", sr.getName());
                             }
                         }
                     } else {
                         for (SearchResult sr : changes) {
-                            LOG.ok("Remaining {0} groups to be processed", count);
                             try {
                                 handleSyncGDelta(ctx, sr, attrsToGet, token, handler);
-                                count--;
                             } catch (NamingException e) {
                                 LOG.error(e, "SyncDelta handling for '{0}' failed", sr.getName());
                             }
@@ -267,6 +265,8 @@ public class USNSyncStrategy extends ADSyncStrategy {
             }
         } catch (Exception e) {
             throw new ConnectorException("While looking for changes", e);
+        } finally {
+            conn.releaseContext(ctx);
         }
         // -----------------------------------
 
@@ -325,8 +325,10 @@ public class USNSyncStrategy extends ADSyncStrategy {
 
         final String filter = "(objectclass=*)";
 
+        LdapContext ctx = null;
         try {
-            String highestCommittedUSN = getHighestCommittedUSN(conn.getInitialContext().newInstance(null));
+            ctx = conn.getSyncContext(null);
+            String highestCommittedUSN = getHighestCommittedUSN(ctx);
             if (highestCommittedUSN != null) {
                 latestSyncToken = new SyncToken(highestCommittedUSN);
             }
@@ -334,9 +336,11 @@ public class USNSyncStrategy extends ADSyncStrategy {
             if (LOG.isOk()) {
                 LOG.ok("Latest sync token set to {0}", latestSyncToken);
             }
-        } catch (NamingException e) {
+        } catch (Exception e) {
             LOG.error(e,
                     "While searching for highestCommittedUSN with filter {1} and controls {2}", filter, searchCtls);
+        } finally {
+            conn.releaseContext(ctx);
         }
 
         return latestSyncToken;
@@ -415,7 +419,6 @@ public class USNSyncStrategy extends ADSyncStrategy {
             latestSyncToken = new SyncToken(tokenBuilder.toString());
         }
 
-        LOG.ok("Latest processing token {0}", latestSyncToken.getValue());
         return super.getSyncDelta(
                 oclass, entryDN, syncDeltaType, latestSyncToken, profile, attrsToGet, effectiveDelete);
     }
@@ -438,10 +441,6 @@ public class USNSyncStrategy extends ADSyncStrategy {
         // Just used to retrieve object classes and to pass to getSyncDelta
         Attributes profile = sr.getAttributes();
 
-        if (LOG.isOk()) {
-            LOG.ok("Object profile: {0}", profile);
-        }
-
         String guid = GUID.getGuidAsString((byte[]) profile.get(ADConnector.OBJECTGUID).get());
 
         boolean isDeleted = false;
@@ -464,23 +463,15 @@ public class USNSyncStrategy extends ADSyncStrategy {
         }
 
         // We need for this beacause DirSync can return an uncomplete profile.
-        profile = ctx.getAttributes("<GUID=" + guid + ">");
+        profile = getProfile(ctx, guid);
 
         final Attribute objectClasses = profile.get("objectClass");
 
         if (objectClasses.contains("group")) {
             final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
 
-            if (LOG.isOk()) {
-                LOG.ok("Created/Updated/Deleted group {0}", sr.getNameInNamespace());
-            }
-
             if (isDeleted) {
 
-                if (LOG.isOk()) {
-                    LOG.ok("Deleted group {0}", sr.getNameInNamespace());
-                }
-
                 if (conf.isRetrieveDeletedGroup()) {
                     handler.handle(getSyncDelta(
                             ObjectClass.GROUP,
@@ -494,10 +485,6 @@ public class USNSyncStrategy extends ADSyncStrategy {
 
             } else {
                 // user to be created/updated
-                if (LOG.isOk()) {
-                    LOG.ok("Created/Updated group {0}", sr.getNameInNamespace());
-                }
-
                 String userDN = sr.getNameInNamespace();
 
                 handleEntry(
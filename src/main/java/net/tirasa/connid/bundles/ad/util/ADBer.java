@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Minimal BER encoding and decoding of request and response control values.
+ */
+class ADBer {
+
+    static void writeInteger(final ByteArrayOutputStream out, final int value) {
+        // minimal two's complement representation
+        int length = 4;
+        while (length > 1) {
+            final int head = value >> ((length - 1) * 8 - 1);
+            if (head != 0 && head != -1) {
+                break;
+            }
+            length--;
+        }
+
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (value >> ((length - 1 - i) * 8));
+        }
+        writeTLV(out, 0x02, bytes);
+    }
+
+    static void writeTLV(final ByteArrayOutputStream out, final int tag, final byte[] value) {
+        out.write(tag);
+
+        if (value.length < 0x80) {
+            out.write(value.length);
+        } else {
+            int lengthBytes = value.length > 0xFFFFFF ? 4 : value.length > 0xFFFF ? 3 : value.length > 0xFF ? 2 : 1;
+            out.write(0x80 | lengthBytes);
+            for (int i = lengthBytes - 1; i >= 0; i--) {
+                out.write(value.length >> (i * 8));
+            }
+        }
+
+        out.write(value, 0, value.length);
+    }
+
+    /**
+     * Read tag and length at the given position.
+     *
+     * @return position of the value and its length
+     */
+    static int[] readTL(final byte[] value, final int pos) {
+        int index = pos + 1;
+        int length = value[index++] & 0xFF;
+        if ((length & 0x80) != 0) {
+            final int lengthBytes = length & 0x7F;
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (value[index++] & 0xFF);
+            }
+        }
+        return new int[] { index, length };
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.StartTlsResponse;
+import org.identityconnectors.common.Pair;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Bounded pool of authenticated contexts, each one holding its own connection.
+ * Contexts idle for longer than a validation interval are validated on lease; contexts idle for longer than the
+ * max idle time or older than the max lifetime are closed.
+ */
+public class ADContextPool {
+
+    private static final Log LOG = Log.getLog(ADContextPool.class);
+
+    /**
+     * Contexts idle for less than this are not validated on lease.
+     */
+    private static final long VALIDATION_INTERVAL = 5000L;
+
+    private static class Entry {
+
+        private final Pair<LdapContext, StartTlsResponse> ctx;
+
+        private final long createdAt;
+
+        private long releasedAt;
+
+        Entry(final Pair<LdapContext, StartTlsResponse> ctx) {
+            this.ctx = ctx;
+            this.createdAt = System.currentTimeMillis();
+            this.releasedAt = createdAt;
+        }
+    }
+
+    private final Supplier<Pair<LdapContext, StartTlsResponse>> factory;
+
+    private final Consumer<Pair<LdapContext, StartTlsResponse>> destroyer;
+
+    private final long maxIdleTime;
+
+    private final long maxLifetime;
+
+    private final long leaseTimeout;
+
+    private final long validationInterval;
+
+    private final Semaphore available;
+
+    private final Deque<Entry> idle = new ArrayDeque<>();
+
+    private final Map<LdapContext, Entry> leased = new IdentityHashMap<>();
+
+    private boolean closed = false;
+
+    /**
+     * Create a new pool.
+     *
+     * @param factory creates new authenticated contexts
+     * @param destroyer closes contexts
+     * @param maxSize maximum number of contexts, either idle or leased
+     * @param maxIdleTime milliseconds after which idle contexts are closed, 0 for no limit
+     * @param maxLifetime milliseconds after which contexts are closed, 0 for no limit
+     * @param leaseTimeout milliseconds to wait for a context when all of them are leased
+     */
+    public ADContextPool(
+            final Supplier<Pair<LdapContext, StartTlsResponse>> factory,
+            final Consumer<Pair<LdapContext, StartTlsResponse>> destroyer,
+            final int maxSize,
+            final long maxIdleTime,
+            final long maxLifetime,
+            final long leaseTimeout) {
+
+        this(factory, destroyer, maxSize, maxIdleTime, maxLifetime, leaseTimeout, VALIDATION_INTERVAL);
+    }
+
+    ADContextPool(
+            final Supplier<Pair<LdapContext, StartTlsResponse>> factory,
+            final Consumer<Pair<LdapContext, StartTlsResponse>> destroyer,
+            final int maxSize,
+            final long maxIdleTime,
+            final long maxLifetime,
+            final long leaseTimeout,
+            final long validationInterval) {
+
+        this.factory = factory;
+        this.destroyer = destroyer;
+        this.maxIdleTime = maxIdleTime;
+        this.maxLifetime = maxLifetime;
+        this.leaseTimeout = leaseTimeout;
+        this.validationInterval = validationInterval;
+        this.available = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Lease a context: it must be given back via {@link #release(javax.naming.ldap.LdapContext)}.
+     *
+     * @return leased context
+     */
+    public LdapContext lease() {
+        try {
+            if (!available.tryAcquire(leaseTimeout, TimeUnit.MILLISECONDS)) {
+                throw new ConnectorException("No LDAP context available after " + leaseTimeout + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException(e);
+        }
+
+        try {
+            Entry entry;
+            do {
+                synchronized (this) {
+                    if (closed) {
+                        throw new ConnectorException("Context pool is closed");
+                    }
+                    evict();
+                    entry = idle.pollFirst();
+                }
+
+                if (entry == null) {
+                    entry = new Entry(factory.get());
+                } else if (System.currentTimeMillis() - entry.releasedAt > validationInterval
+                        && !isValid(entry.ctx.first)) {
+
+                    destroy(entry);
+                    entry = null;
+                }
+            } while (entry == null);
+
+            synchronized (this) {
+                leased.put(entry.ctx.first, entry);
+            }
+            return entry.ctx.first;
+        } catch (RuntimeException e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a leased context.
+     *
+     * @param ctx leased context
+     */
+    public void release(final LdapContext ctx) {
+        release(ctx, false);
+    }
+
+    /**
+     * Give back a leased context which could not be used anymore, for example because its connection was lost.
+     *
+     * @param ctx leased context
+     */
+    public void invalidate(final LdapContext ctx) {
+        release(ctx, true);
+    }
+
+    private void release(final LdapContext ctx, final boolean invalid) {
+        final Entry entry;
+        boolean destroy;
+        synchronized (this) {
+            entry = leased.remove(ctx);
+            if (entry == null) {
+                LOG.warn("Context {0} not leased by this pool", ctx);
+                return;
+            }
+
+            entry.releasedAt = System.currentTimeMillis();
+            destroy = invalid || closed || isExpired(entry, entry.releasedAt);
+            if (!destroy) {
+                idle.offerFirst(entry);
+            }
+        }
+
+        if (destroy) {
+            destroy(entry);
+        }
+        available.release();
+    }
+
+    /**
+     * Whether the given context was leased by this pool.
+     *
+     * @param ctx context
+     * @return whether the given context was leased by this pool
+     */
+    public synchronized boolean isLeased(final LdapContext ctx) {
+        return leased.containsKey(ctx);
+    }
+
+    /**
+     * Close all idle contexts; leased contexts are closed as soon as they are given back.
+     */
+    public void close() {
+        final Deque<Entry> toDestroy;
+        synchronized (this) {
+            closed = true;
+            toDestroy = new ArrayDeque<>(idle);
+            idle.clear();
+        }
+        toDestroy.forEach(this::destroy);
+    }
+
+    /**
+     * Remove expired idle contexts: least recently used are at the end.
+     */
+    private void evict() {
+        final long now = System.currentTimeMillis();
+        for (Iterator<Entry> itor = idle.descendingIterator(); itor.hasNext();) {
+            final Entry entry = itor.next();
+            if (isExpired(entry, now) || maxIdleTime > 0 && now - entry.releasedAt > maxIdleTime) {
+                itor.remove();
+                destroy(entry);
+            }
+        }
+    }
+
+    private boolean isExpired(final Entry entry, final long now) {
+        return maxLifetime > 0 && now - entry.createdAt > maxLifetime;
+    }
+
+    private static boolean isValid(final LdapContext ctx) {
+        try {
+            ctx.getAttributes("", new String[] { "1.1" });
+            return true;
+        } catch (NamingException e) {
+            LOG.ok(e, "Invalid pooled context");
+            return false;
+        }
+    }
+
+    private void destroy(final Entry entry) {
+        try {
+            destroyer.accept(entry.ctx);
+        } catch (RuntimeException e) {
+            LOG.ok(e, "Could not close pooled context");
+        }
+    }
+}
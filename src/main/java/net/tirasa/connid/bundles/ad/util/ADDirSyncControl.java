@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.io.ByteArrayOutputStream;
+import javax.naming.ldap.BasicControl;
+
+/**
+ * DirSync request control allowing to bound the size of each response via MaxBytes.
+ * <pre>
+ * realReplControlValue ::= SEQUENCE {
+ *     parentsFirst        integer
+ *     maxAttributeCount   integer
+ *     cookie              OCTET STRING
+ * }
+ * </pre>
+ */
+public class ADDirSyncControl extends BasicControl {
+
+    private static final long serialVersionUID = -2498113434717186305L;
+
+    public static final String OID = "1.2.840.113556.1.4.841";
+
+    /**
+     * LDAP_DIRSYNC_INCREMENTAL_VALUES | LDAP_DIRSYNC_ANCESTORS_FIRST_ORDER | LDAP_DIRSYNC_OBJECT_SECURITY
+     */
+    public static final int DEFAULT_FLAGS = 0x80000801;
+
+    private static final byte[] EMPTY_COOKIE = new byte[0];
+
+    public ADDirSyncControl(final int maxBytes, final byte[] cookie) {
+        this(DEFAULT_FLAGS, maxBytes, cookie);
+    }
+
+    public ADDirSyncControl(final int flags, final int maxBytes, final byte[] cookie) {
+        super(OID, true, null);
+        this.value = encode(flags, maxBytes, cookie == null ? EMPTY_COOKIE : cookie);
+    }
+
+    private static byte[] encode(final int flags, final int maxBytes, final byte[] cookie) {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ADBer.writeInteger(content, flags);
+        ADBer.writeInteger(content, maxBytes);
+        ADBer.writeTLV(content, 0x04, cookie);
+
+        final ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+        ADBer.writeTLV(sequence, 0x30, content.toByteArray());
+        return sequence.toByteArray();
+    }
+}
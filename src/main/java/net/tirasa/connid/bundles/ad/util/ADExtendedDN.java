@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.naming.InvalidNameException;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.LdapName;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Extended DN forms, such as {@code <GUID=...>} and {@code <SID=...>}, that AD resolves directly as the base of a
+ * base-object lookup, with no need to search a subtree for the matching entry.
+ */
+public class ADExtendedDN {
+
+    private static final Log LOG = Log.getLog(ADExtendedDN.class);
+
+    private static final Pattern GUID = Pattern.compile(
+            "^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern SID = Pattern.compile("^S-1(-[0-9]+)+$", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern EQUALITY = Pattern.compile("^\\(?([^()=]+)=([^()*\\\\]+)\\)?$");
+
+    /**
+     * Get the extended DN of the entry whose given attribute has the given value.
+     *
+     * @param attrName attribute name
+     * @param value attribute value
+     * @return {@code <GUID=...>} or {@code <SID=...>} when attribute is objectGUID or objectSID and value is well
+     * formed; null otherwise
+     */
+    public static String get(final String attrName, final String value) {
+        if (attrName == null || value == null) {
+            return null;
+        }
+
+        if (ADConnector.OBJECTGUID.equalsIgnoreCase(attrName.trim()) && GUID.matcher(value.trim()).matches()) {
+            return "<GUID=" + value.trim() + ">";
+        }
+        if (ADConnector.OBJECTSID.equalsIgnoreCase(attrName.trim()) && SID.matcher(value.trim()).matches()) {
+            return "<SID=" + value.trim() + ">";
+        }
+        return null;
+    }
+
+    /**
+     * Get the extended DN of the entry matched by the given filter.
+     *
+     * @param filter LDAP filter
+     * @return {@code <GUID=...>} or {@code <SID=...>} when filter is a single equality on objectGUID or objectSID;
+     * null otherwise
+     */
+    public static String get(final String filter) {
+        if (filter == null) {
+            return null;
+        }
+
+        final Matcher matcher = EQUALITY.matcher(filter.trim());
+        return matcher.matches() ? get(matcher.group(1), matcher.group(2)) : null;
+    }
+
+    /**
+     * Check whether the given DN is in extended form.
+     *
+     * @param dn DN
+     * @return whether the given DN is {@code <GUID=...>} or {@code <SID=...>}
+     */
+    public static boolean isExtended(final String dn) {
+        return dn != null && (dn.startsWith("<GUID=") || dn.startsWith("<SID=")) && dn.endsWith(">");
+    }
+
+    /**
+     * Check whether the given entry, found via its extended DN, would have been found by searching the given base DNs
+     * with the given scope.
+     *
+     * @param entryDN entry DN
+     * @param baseDNs base DNs
+     * @param scope search scope, as defined by {@link SearchControls}
+     * @return whether the given entry is in scope
+     */
+    public static boolean isInScope(final String entryDN, final Collection<String> baseDNs, final int scope) {
+        try {
+            final LdapName entry = new LdapName(entryDN);
+            for (String baseDN : baseDNs) {
+                final LdapName base = new LdapName(baseDN);
+                if (scope == SearchControls.OBJECT_SCOPE
+                        ? entry.equals(base)
+                        : scope == SearchControls.ONELEVEL_SCOPE
+                        ? entry.size() == base.size() + 1 && entry.startsWith(base)
+                        : entry.startsWith(base)) {
+
+                    return true;
+                }
+            }
+        } catch (InvalidNameException e) {
+            LOG.error(e, "Invalid DN");
+        }
+        return false;
+    }
+}
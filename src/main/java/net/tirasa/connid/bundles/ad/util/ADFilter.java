@@ -0,0 +1,503 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.ldap.LdapName;
+
+/**
+ * RFC 4515 search filter, evaluated in-process against an entry profile with Active Directory matching semantics:
+ * case-insensitive strings, DN comparison for DN-valued attributes, presence and substring checks, bitwise matching
+ * rules as used on userAccountControl and groupType.
+ * Constructs which cannot be evaluated locally (approximate match, transitive matching rule, ANR, objectCategory
+ * shorthands, ranged attributes) make the filter unsupported or its evaluation undetermined: the server must be
+ * asked in such cases.
+ */
+public final class ADFilter {
+
+    public static final String MATCHING_RULE_BIT_AND = "1.2.840.113556.1.4.803";
+
+    public static final String MATCHING_RULE_BIT_OR = "1.2.840.113556.1.4.804";
+
+    private static final Set<String> DN_ATTRIBUTES = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        DN_ATTRIBUTES.addAll(Arrays.asList(
+                "distinguishedName", "member", "memberOf", "manager", "managedBy", "directReports",
+                "owner", "secretary", "seeAlso", "objectCategory"));
+    }
+
+    /**
+     * Parse the given filter.
+     *
+     * @param filter LDAP search filter
+     * @return parsed filter, or null if the filter cannot be evaluated in-process
+     */
+    public static ADFilter parse(final String filter) {
+        if (filter == null) {
+            return null;
+        }
+
+        try {
+            final Parser parser = new Parser(filter);
+            final Node root = parser.filter();
+            parser.skipSpaces();
+            if (!parser.end()) {
+                return null;
+            }
+            return new ADFilter(root, parser.attributes);
+        } catch (UnsupportedFilterException e) {
+            return null;
+        }
+    }
+
+    private final Node root;
+
+    private final Set<String> attributes;
+
+    private ADFilter(final Node root, final Set<String> attributes) {
+        this.root = root;
+        this.attributes = Collections.unmodifiableSet(attributes);
+    }
+
+    /**
+     * @return names of the attributes the filter is about
+     */
+    public Set<String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Evaluate the filter against the given profile, which is expected to provide every attribute of the entry among
+     * the ones returned by {@link #getAttributes()}: as attributes without values are not reported, any filter item
+     * about an attribute missing from the profile is undetermined.
+     *
+     * @param profile entry profile
+     * @return TRUE if the entry matches, FALSE if it doesn't, null if the match could not be determined
+     */
+    public Boolean matches(final Attributes profile) {
+        try {
+            return root.evaluate(profile);
+        } catch (UnsupportedFilterException | NamingException e) {
+            return null;
+        }
+    }
+
+    private static class UnsupportedFilterException extends Exception {
+
+        private static final long serialVersionUID = 1744823622049414932L;
+
+    }
+
+    /**
+     * Filter node, evaluated with three-valued logic: TRUE, FALSE or null (undefined).
+     */
+    private interface Node {
+
+        Boolean evaluate(Attributes profile) throws UnsupportedFilterException, NamingException;
+    }
+
+    private static class And implements Node {
+
+        private final List<Node> nodes;
+
+        And(final List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public Boolean evaluate(final Attributes profile) throws UnsupportedFilterException, NamingException {
+            Boolean result = Boolean.TRUE;
+            for (Node node : nodes) {
+                final Boolean value = node.evaluate(profile);
+                if (value == Boolean.FALSE) {
+                    return Boolean.FALSE;
+                }
+                if (value == null) {
+                    result = null;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class Or implements Node {
+
+        private final List<Node> nodes;
+
+        Or(final List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public Boolean evaluate(final Attributes profile) throws UnsupportedFilterException, NamingException {
+            Boolean result = Boolean.FALSE;
+            for (Node node : nodes) {
+                final Boolean value = node.evaluate(profile);
+                if (value == Boolean.TRUE) {
+                    return Boolean.TRUE;
+                }
+                if (value == null) {
+                    result = null;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class Not implements Node {
+
+        private final Node node;
+
+        Not(final Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public Boolean evaluate(final Attributes profile) throws UnsupportedFilterException, NamingException {
+            final Boolean value = node.evaluate(profile);
+            return value == null ? null : !value;
+        }
+    }
+
+    private enum Operator {
+        EQUAL,
+        GREATER_OR_EQUAL,
+        LESS_OR_EQUAL,
+        PRESENT,
+        SUBSTRINGS,
+        BIT_AND,
+        BIT_OR
+
+    }
+
+    private static class Item implements Node {
+
+        private final String attribute;
+
+        private final Operator operator;
+
+        private final byte[] value;
+
+        private final List<String> substrings;
+
+        Item(final String attribute, final Operator operator, final byte[] value, final List<String> substrings) {
+            this.attribute = attribute;
+            this.operator = operator;
+            this.value = value;
+            this.substrings = substrings;
+        }
+
+        @Override
+        public Boolean evaluate(final Attributes profile) throws UnsupportedFilterException, NamingException {
+            final Attribute attr = profile.get(attribute);
+            if (attr == null || attr.size() == 0) {
+                // either no value or not reported (not requested, returned by range): only the server can tell
+                return null;
+            }
+
+            if (operator == Operator.PRESENT) {
+                return Boolean.TRUE;
+            }
+
+            Boolean result = Boolean.FALSE;
+            final NamingEnumeration<?> values = attr.getAll();
+            while (values.hasMore()) {
+                final Boolean match = match(values.next());
+                if (match == Boolean.TRUE) {
+                    return Boolean.TRUE;
+                }
+                if (match == null) {
+                    result = null;
+                }
+            }
+            return result;
+        }
+
+        private Boolean match(final Object attrValue) throws UnsupportedFilterException {
+            if (attrValue instanceof byte[]) {
+                if (operator != Operator.EQUAL || value == null
+                        || new String(value, StandardCharsets.UTF_8).toUpperCase(Locale.ROOT).startsWith("S-1-")) {
+
+                    // SIDs can be given in string form, converted by the server
+                    throw new UnsupportedFilterException();
+                }
+                return Arrays.equals((byte[]) attrValue, value);
+            }
+
+            final String actual = attrValue.toString();
+            final String expected = value == null ? null : new String(value, StandardCharsets.UTF_8);
+
+            switch (operator) {
+                case EQUAL:
+                    if (DN_ATTRIBUTES.contains(attribute)) {
+                        try {
+                            return new LdapName(actual).equals(new LdapName(expected));
+                        } catch (InvalidNameException e) {
+                            throw new UnsupportedFilterException();
+                        }
+                    }
+                    return actual.equalsIgnoreCase(expected);
+
+                case GREATER_OR_EQUAL:
+                case LESS_OR_EQUAL:
+                    int comparison;
+                    try {
+                        comparison = Long.compare(Long.parseLong(actual), Long.parseLong(expected));
+                    } catch (NumberFormatException e) {
+                        comparison = actual.compareToIgnoreCase(expected);
+                    }
+                    return operator == Operator.GREATER_OR_EQUAL ? comparison >= 0 : comparison <= 0;
+
+                case SUBSTRINGS:
+                    return matchSubstrings(actual.toLowerCase(Locale.ROOT));
+
+                case BIT_AND:
+                case BIT_OR:
+                    final long actualBits;
+                    final long expectedBits;
+                    try {
+                        actualBits = Long.parseLong(actual);
+                        expectedBits = Long.parseLong(expected);
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    return operator == Operator.BIT_AND
+                            ? (actualBits & expectedBits) == expectedBits
+                            : (actualBits & expectedBits) != 0;
+
+                default:
+                    throw new UnsupportedFilterException();
+            }
+        }
+
+        /**
+         * Substrings are given as initial, any..., final: initial and final are empty strings when missing.
+         */
+        private boolean matchSubstrings(final String actual) {
+            final String initial = substrings.get(0);
+            final String last = substrings.get(substrings.size() - 1);
+
+            if (!actual.startsWith(initial)) {
+                return false;
+            }
+
+            int from = initial.length();
+            for (String any : substrings.subList(1, substrings.size() - 1)) {
+                final int index = actual.indexOf(any, from);
+                if (index < 0) {
+                    return false;
+                }
+                from = index + any.length();
+            }
+
+            return actual.length() - from >= last.length() && actual.endsWith(last);
+        }
+    }
+
+    private static class Parser {
+
+        private final String filter;
+
+        private final Set<String> attributes = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+        private int pos = 0;
+
+        Parser(final String filter) {
+            this.filter = filter;
+        }
+
+        boolean end() {
+            return pos >= filter.length();
+        }
+
+        void skipSpaces() {
+            while (!end() && filter.charAt(pos) == ' ') {
+                pos++;
+            }
+        }
+
+        void expect(final char c) throws UnsupportedFilterException {
+            skipSpaces();
+            if (end() || filter.charAt(pos) != c) {
+                throw new UnsupportedFilterException();
+            }
+            pos++;
+        }
+
+        Node filter() throws UnsupportedFilterException {
+            expect('(');
+            skipSpaces();
+            if (end()) {
+                throw new UnsupportedFilterException();
+            }
+
+            final Node node;
+            switch (filter.charAt(pos)) {
+                case '&':
+                    pos++;
+                    node = new And(filterList());
+                    break;
+
+                case '|':
+                    pos++;
+                    node = new Or(filterList());
+                    break;
+
+                case '!':
+                    pos++;
+                    node = new Not(filter());
+                    break;
+
+                case '(':
+                    // redundant parentheses, accepted by Active Directory
+                    node = filter();
+                    break;
+
+                default:
+                    node = item();
+            }
+
+            expect(')');
+            return node;
+        }
+
+        List<Node> filterList() throws UnsupportedFilterException {
+            final List<Node> nodes = new ArrayList<>();
+            skipSpaces();
+            while (!end() && filter.charAt(pos) == '(') {
+                nodes.add(filter());
+                skipSpaces();
+            }
+            return nodes;
+        }
+
+        Node item() throws UnsupportedFilterException {
+            final int eq = filter.indexOf('=', pos);
+            if (eq <= pos) {
+                throw new UnsupportedFilterException();
+            }
+
+            String description = filter.substring(pos, eq);
+            pos = eq + 1;
+
+            Operator operator = Operator.EQUAL;
+            if (description.endsWith(">")) {
+                operator = Operator.GREATER_OR_EQUAL;
+                description = description.substring(0, description.length() - 1);
+            } else if (description.endsWith("<")) {
+                operator = Operator.LESS_OR_EQUAL;
+                description = description.substring(0, description.length() - 1);
+            } else if (description.endsWith("~")) {
+                throw new UnsupportedFilterException();
+            } else if (description.endsWith(":")) {
+                // extensible match: only attr:rule:= with bitwise rules is supported
+                final String[] parts = description.substring(0, description.length() - 1).split(":");
+                if (parts.length != 2 || parts[0].isEmpty()) {
+                    throw new UnsupportedFilterException();
+                }
+                if (MATCHING_RULE_BIT_AND.equals(parts[1])) {
+                    operator = Operator.BIT_AND;
+                } else if (MATCHING_RULE_BIT_OR.equals(parts[1])) {
+                    operator = Operator.BIT_OR;
+                } else {
+                    throw new UnsupportedFilterException();
+                }
+                description = parts[0];
+            }
+
+            final String attribute = description.trim();
+            if (attribute.isEmpty()
+                    || attribute.indexOf(';') >= 0
+                    || attribute.indexOf(':') >= 0
+                    || "anr".equalsIgnoreCase(attribute)) {
+
+                throw new UnsupportedFilterException();
+            }
+            attributes.add(attribute);
+
+            // value: either single assertion value or substrings, split by unescaped '*'
+            final List<byte[]> chunks = new ArrayList<>();
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            while (!end() && filter.charAt(pos) != ')') {
+                final char c = filter.charAt(pos);
+                if (c == '*') {
+                    chunks.add(chunk.toByteArray());
+                    chunk = new ByteArrayOutputStream();
+                    pos++;
+                } else if (c == '\\') {
+                    if (pos + 2 >= filter.length()
+                            || Character.digit(filter.charAt(pos + 1), 16) < 0
+                            || Character.digit(filter.charAt(pos + 2), 16) < 0) {
+                        throw new UnsupportedFilterException();
+                    }
+                    chunk.write(Integer.parseInt(filter.substring(pos + 1, pos + 3), 16));
+                    pos += 3;
+                } else if (c == '(') {
+                    throw new UnsupportedFilterException();
+                } else {
+                    final int codePoint = filter.codePointAt(pos);
+                    final byte[] bytes = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+                    chunk.write(bytes, 0, bytes.length);
+                    pos += Character.charCount(codePoint);
+                }
+            }
+            chunks.add(chunk.toByteArray());
+
+            if (chunks.size() == 1) {
+                if ("objectCategory".equalsIgnoreCase(attribute)
+                        && new String(chunks.get(0), StandardCharsets.UTF_8).indexOf('=') < 0) {
+
+                    // shorthand for the default object category of a class, resolved by the server
+                    throw new UnsupportedFilterException();
+                }
+                return new Item(attribute, operator, chunks.get(0), null);
+            }
+
+            if (operator != Operator.EQUAL) {
+                throw new UnsupportedFilterException();
+            }
+
+            if (chunks.size() == 2 && chunks.get(0).length == 0 && chunks.get(1).length == 0) {
+                return new Item(attribute, Operator.PRESENT, null, null);
+            }
+
+            final List<String> substrings = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                final String substring = new String(chunks.get(i), StandardCharsets.UTF_8).toLowerCase(Locale.ROOT);
+                if (i > 0 && i < chunks.size() - 1 && substring.isEmpty()) {
+                    // "**" is not a valid substring filter
+                    throw new UnsupportedFilterException();
+                }
+                substrings.add(substring);
+            }
+            return new Item(attribute, Operator.SUBSTRINGS, null, substrings);
+        }
+    }
+}
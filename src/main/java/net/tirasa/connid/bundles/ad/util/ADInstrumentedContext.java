@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+
+/**
+ * Wraps a context, recording latency and number of the LDAP requests sent through it, with the pages, entries and
+ * bytes they return; bytes are the ones of attribute names and values, not of the LDAP messages.
+ */
+public class ADInstrumentedContext implements InvocationHandler {
+
+    /**
+     * Context methods sending a request to the server.
+     */
+    private static final Set<String> ROUND_TRIPS = new HashSet<>(Arrays.asList(
+            "search", "getAttributes", "modifyAttributes", "createSubcontext", "destroySubcontext", "rename",
+            "lookup", "list", "listBindings", "bind", "rebind", "unbind", "extendedOperation", "reconnect"));
+
+    /**
+     * Wrap the given context, unless metrics are disabled.
+     *
+     * @param ctx context
+     * @param metrics metrics
+     * @return instrumented context, or the given one if metrics are disabled
+     */
+    public static LdapContext wrap(final LdapContext ctx, final ADMetrics metrics) {
+        return ctx == null || !metrics.isEnabled() || isInstrumented(ctx)
+                ? ctx
+                : (LdapContext) Proxy.newProxyInstance(
+                        ADInstrumentedContext.class.getClassLoader(),
+                        new Class<?>[] { LdapContext.class },
+                        new ADInstrumentedContext(ctx, metrics));
+    }
+
+    private static boolean isInstrumented(final LdapContext ctx) {
+        return Proxy.isProxyClass(ctx.getClass()) && Proxy.getInvocationHandler(ctx) instanceof ADInstrumentedContext;
+    }
+
+    private final LdapContext target;
+
+    private final ADMetrics metrics;
+
+    private ADInstrumentedContext(final LdapContext target, final ADMetrics metrics) {
+        this.target = target;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+
+            case "hashCode":
+                return System.identityHashCode(proxy);
+
+            case "newInstance":
+                // new context on the same connection
+                return wrap((LdapContext) call(method, args), metrics);
+
+            default:
+        }
+
+        if (!ROUND_TRIPS.contains(method.getName())) {
+            return call(method, args);
+        }
+
+        final String operation = "ldap." + method.getName();
+        final long start = System.nanoTime();
+        try {
+            final Object result = call(method, args);
+
+            if (result instanceof NamingEnumeration && "search".equals(method.getName())) {
+                if (isPaged(target.getRequestControls())) {
+                    metrics.increment("ldap.pages", 1);
+                }
+                return new CountingEnumeration((NamingEnumeration<?>) result);
+            }
+            if (result instanceof Attributes) {
+                metrics.increment("ldap.entries", 1);
+                metrics.increment("ldap.bytes", size((Attributes) result));
+            }
+            return result;
+        } catch (NamingException | RuntimeException e) {
+            metrics.increment(operation + ".errors", 1);
+            throw e;
+        } finally {
+            metrics.increment("ldap.roundTrips", 1);
+            metrics.record(operation, start);
+        }
+    }
+
+    private Object call(final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean isPaged(final Control[] controls) {
+        if (controls != null) {
+            for (Control control : controls) {
+                if (PagedResultsControl.OID.equals(control.getID()) || ADDirSyncControl.OID.equals(control.getID())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static long size(final Attributes attrs) {
+        long size = 0;
+        if (attrs == null) {
+            return size;
+        }
+
+        try {
+            final NamingEnumeration<? extends Attribute> all = attrs.getAll();
+            while (all.hasMore()) {
+                final Attribute attr = all.next();
+                size += attr.getID().length();
+
+                final NamingEnumeration<?> values = attr.getAll();
+                while (values.hasMore()) {
+                    final Object value = values.next();
+                    size += value instanceof byte[] ? ((byte[]) value).length : String.valueOf(value).length();
+                }
+            }
+        } catch (NamingException e) {
+            // attributes already received: not expected
+        }
+
+        return size;
+    }
+
+    /**
+     * Search results, counted while being read.
+     */
+    private class CountingEnumeration implements NamingEnumeration<Object> {
+
+        private final NamingEnumeration<?> results;
+
+        CountingEnumeration(final NamingEnumeration<?> results) {
+            this.results = results;
+        }
+
+        private Object count(final Object result) {
+            if (result instanceof SearchResult) {
+                metrics.increment("ldap.entries", 1);
+                metrics.increment("ldap.bytes", size(((SearchResult) result).getAttributes()));
+            }
+            return result;
+        }
+
+        @Override
+        public Object next() throws NamingException {
+            return count(results.next());
+        }
+
+        @Override
+        public boolean hasMore() throws NamingException {
+            return results.hasMore();
+        }
+
+        @Override
+        public void close() throws NamingException {
+            results.close();
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return results.hasMoreElements();
+        }
+
+        @Override
+        public Object nextElement() {
+            return count(results.nextElement());
+        }
+    }
+}
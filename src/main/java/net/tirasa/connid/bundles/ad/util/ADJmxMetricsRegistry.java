@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Publishes metrics as MXBeans of the platform MBean server, named
+ * {@code net.tirasa.connid.bundles.ad:type=ADMetrics,name="<server and principal>"}.
+ */
+public class ADJmxMetricsRegistry implements ADMetricsRegistry {
+
+    private static final Log LOG = Log.getLog(ADJmxMetricsRegistry.class);
+
+    public static ObjectName getObjectName(final String key) throws JMException {
+        return new ObjectName("net.tirasa.connid.bundles.ad:type=ADMetrics,name=" + ObjectName.quote(key));
+    }
+
+    @Override
+    public void register(final String key, final ADMetrics metrics) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = getObjectName(key);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            LOG.error(e, "Could not register metrics for {0}", key);
+        }
+    }
+
+    @Override
+    public void unregister(final String key, final ADMetrics metrics) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = getObjectName(key);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOG.error(e, "Could not unregister metrics for {0}", key);
+        }
+    }
+}
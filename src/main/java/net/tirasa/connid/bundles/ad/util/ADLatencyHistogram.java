@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with power of two buckets of microseconds, up to about 18 minutes; percentiles are reported as
+ * the upper bound of the bucket they fall into.
+ */
+public class ADLatencyHistogram {
+
+    private static final int BUCKETS = 31;
+
+    /**
+     * Latency figures at a given time, in milliseconds.
+     */
+    public static class Snapshot {
+
+        private final long count;
+
+        private final double mean;
+
+        private final double p50;
+
+        private final double p95;
+
+        private final double p99;
+
+        private final double max;
+
+        Snapshot(
+                final long count,
+                final double mean,
+                final double p50,
+                final double p95,
+                final double p99,
+                final double max) {
+
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP95() {
+            return p95;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(final long nanos) {
+        final long micros = Math.max(0, nanos / 1000);
+        buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        total.reset();
+        max.reset();
+    }
+
+    private double percentile(final long[] counts, final long all, final double percentile) {
+        final long rank = (long) Math.ceil(all * percentile);
+
+        long cumulated = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulated += counts[i];
+            if (cumulated >= rank) {
+                // bucket i holds latencies below 2^i microseconds
+                return Math.min((1L << i) / 1000.0, max.get() / 1_000_000.0);
+            }
+        }
+        return max.get() / 1_000_000.0;
+    }
+
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        long all = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            all += counts[i];
+        }
+
+        if (all == 0) {
+            return new Snapshot(0, 0, 0, 0, 0, 0);
+        }
+
+        return new Snapshot(
+                all,
+                total.sum() / 1_000_000.0 / all,
+                percentile(counts, all, 0.5),
+                percentile(counts, all, 0.95),
+                percentile(counts, all, 0.99),
+                max.get() / 1_000_000.0);
+    }
+}
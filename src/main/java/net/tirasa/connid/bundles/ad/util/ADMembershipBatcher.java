@@ -0,0 +1,342 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.naming.NamingException;
+import javax.naming.directory.AttributeInUseException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Coalesces group member additions and removals, coming from concurrent operations on connections towards the same
+ * server, into a single modification per group.
+ * Pending changes for a group are written once they reach the maximum batch size or the maximum latency; the
+ * operations submitting them wait until written and get back the failures of their own changes.
+ */
+public class ADMembershipBatcher {
+
+    private static final Log LOG = Log.getLog(ADMembershipBatcher.class);
+
+    private static final int FLUSH_THREADS = 4;
+
+    private static final Map<String, ADMembershipBatcher> INSTANCES = new HashMap<>();
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * Get the batcher for the given key, creating it if needed: it must be given back via {@link #release()}.
+     *
+     * @param key key identifying server, credentials and batch settings
+     * @param connectionFactory creates the connection used to write changes
+     * @param maxBatchSize maximum number of members changed with a single modification
+     * @param maxLatency milliseconds after which pending changes are written
+     * @return batcher for the given key
+     */
+    public static ADMembershipBatcher acquire(
+            final String key,
+            final Supplier<ADConnection> connectionFactory,
+            final int maxBatchSize,
+            final long maxLatency) {
+
+        synchronized (INSTANCES) {
+            final ADMembershipBatcher batcher = INSTANCES.computeIfAbsent(
+                    key, k -> new ADMembershipBatcher(k, connectionFactory.get(), maxBatchSize, maxLatency));
+            batcher.references++;
+            return batcher;
+        }
+    }
+
+    private static class Change {
+
+        private final String memberDN;
+
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        Change(final String memberDN) {
+            this.memberDN = memberDN;
+        }
+    }
+
+    private static class Batch {
+
+        private final String groupDN;
+
+        private final Map<String, Change> added = new LinkedHashMap<>();
+
+        private final Map<String, Change> removed = new LinkedHashMap<>();
+
+        Batch(final String groupDN) {
+            this.groupDN = groupDN;
+        }
+
+        private int size() {
+            return added.size() + removed.size();
+        }
+    }
+
+    private final String key;
+
+    private final ADConnection connection;
+
+    private final int maxBatchSize;
+
+    private final long maxLatency;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Pending changes by lowercase group DN.
+     */
+    private final Map<String, Batch> pending = new HashMap<>();
+
+    private int references = 0;
+
+    private ADMembershipBatcher(
+            final String key,
+            final ADConnection connection,
+            final int maxBatchSize,
+            final long maxLatency) {
+
+        this.key = key;
+        this.connection = connection;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatency = maxLatency;
+        this.scheduler = Executors.newScheduledThreadPool(FLUSH_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "ADMembershipBatcher-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add the given member to and remove it from the given groups, waiting for changes to be written.
+     *
+     * @param memberDN member DN
+     * @param toBeAdded DNs of groups the member must be added to
+     * @param toBeRemoved DNs of groups the member must be removed from
+     * @throws ConnectorException reporting all changes which could not be written
+     */
+    public void apply(
+            final String memberDN,
+            final Collection<String> toBeAdded,
+            final Collection<String> toBeRemoved) {
+
+        final Map<String, CompletableFuture<Void>> results = new LinkedHashMap<>();
+        toBeRemoved.forEach(groupDN -> results.put(groupDN, submit(groupDN, memberDN, false)));
+        toBeAdded.forEach(groupDN -> results.put(groupDN, submit(groupDN, memberDN, true)));
+
+        final List<String> failures = new ArrayList<>();
+        ConnectorException failure = null;
+        for (Map.Entry<String, CompletableFuture<Void>> result : results.entrySet()) {
+            try {
+                result.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException(e);
+            } catch (ExecutionException e) {
+                LOG.error(e.getCause(), "Could not change membership of {0} in {1}", memberDN, result.getKey());
+                failures.add(result.getKey());
+                if (failure == null) {
+                    failure = e.getCause() instanceof ConnectorException
+                            ? (ConnectorException) e.getCause()
+                            : new ConnectorException(e.getCause());
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw new ConnectorException(
+                    String.format("Could not change membership of %s in %s", memberDN, failures),
+                    failure);
+        }
+    }
+
+    private CompletableFuture<Void> submit(final String groupDN, final String memberDN, final boolean add) {
+        final String groupKey = groupDN.toLowerCase();
+        final String memberKey = memberDN.toLowerCase();
+
+        final Change change = new Change(memberDN);
+
+        Batch toBeFlushed = null;
+        Batch full = null;
+        synchronized (pending) {
+            Batch batch = pending.get(groupKey);
+
+            // opposite change pending for the same member: write pending changes first
+            if (batch != null && (add ? batch.removed : batch.added).containsKey(memberKey)) {
+                pending.remove(groupKey);
+                toBeFlushed = batch;
+                batch = null;
+            }
+
+            if (batch == null) {
+                final Batch created = new Batch(groupDN);
+                pending.put(groupKey, created);
+                scheduler.schedule(() -> flush(groupKey, created), maxLatency, TimeUnit.MILLISECONDS);
+                batch = created;
+            }
+
+            final Change previous = (add ? batch.added : batch.removed).putIfAbsent(memberKey, change);
+            if (previous != null) {
+                // same change already pending
+                previous.result.whenComplete((result, error) -> {
+                    if (error == null) {
+                        change.result.complete(null);
+                    } else {
+                        change.result.completeExceptionally(error);
+                    }
+                });
+            }
+
+            if (batch.size() >= maxBatchSize) {
+                pending.remove(groupKey);
+                full = batch;
+            }
+        }
+
+        if (toBeFlushed != null) {
+            write(toBeFlushed);
+        }
+        if (full != null) {
+            write(full);
+        }
+
+        return change.result;
+    }
+
+    private void flush(final String groupKey, final Batch batch) {
+        synchronized (pending) {
+            if (pending.get(groupKey) != batch) {
+                // already written
+                return;
+            }
+            pending.remove(groupKey);
+        }
+        write(batch);
+    }
+
+    /**
+     * Write the given changes with a single modification; should this fail, changes are written one by one, in
+     * order to report failures to the relevant operations only.
+     */
+    private void write(final Batch batch) {
+        if (batch.size() == 0) {
+            return;
+        }
+
+        final String memberAttr = connection.getConfiguration().getGroupMemberAttribute();
+
+        final List<ModificationItem> items = new ArrayList<>(2);
+        if (!batch.removed.isEmpty()) {
+            final BasicAttribute attr = new BasicAttribute(memberAttr);
+            batch.removed.values().forEach(change -> attr.add(change.memberDN));
+            items.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, attr));
+        }
+        if (!batch.added.isEmpty()) {
+            final BasicAttribute attr = new BasicAttribute(memberAttr);
+            batch.added.values().forEach(change -> attr.add(change.memberDN));
+            items.add(new ModificationItem(DirContext.ADD_ATTRIBUTE, attr));
+        }
+
+        try {
+            modify(batch.groupDN, items.toArray(new ModificationItem[items.size()]));
+
+            if (LOG.isOk()) {
+                LOG.ok("Group {0}: added {1} and removed {2} members",
+                        batch.groupDN, batch.added.size(), batch.removed.size());
+            }
+
+            batch.removed.values().forEach(change -> change.result.complete(null));
+            batch.added.values().forEach(change -> change.result.complete(null));
+        } catch (Exception e) {
+            LOG.ok(e, "Could not change {0} members of {1} at once", batch.size(), batch.groupDN);
+
+            batch.removed.values().forEach(change -> write(batch.groupDN, memberAttr, change, false));
+            batch.added.values().forEach(change -> write(batch.groupDN, memberAttr, change, true));
+        }
+    }
+
+    private void write(final String groupDN, final String memberAttr, final Change change, final boolean add) {
+        try {
+            modify(groupDN, new ModificationItem[] {
+                new ModificationItem(
+                add ? DirContext.ADD_ATTRIBUTE : DirContext.REMOVE_ATTRIBUTE,
+                new BasicAttribute(memberAttr, change.memberDN)) });
+            change.result.complete(null);
+        } catch (AttributeInUseException e) {
+            change.result.completeExceptionally(new ConnectorException(
+                    String.format("Entry %s is already a member of group %s", change.memberDN, groupDN), e));
+        } catch (Exception e) {
+            change.result.completeExceptionally(new ConnectorException(e));
+        }
+    }
+
+    private void modify(final String groupDN, final ModificationItem[] items) throws NamingException {
+        final LdapContext ctx = connection.leaseContext();
+        try {
+            if (ctx == connection.getInitialContext()) {
+                // the initial context is shared among flushing threads
+                synchronized (ctx) {
+                    ctx.modifyAttributes(groupDN, items);
+                }
+            } else {
+                ctx.modifyAttributes(groupDN, items);
+            }
+        } finally {
+            connection.releaseContext(ctx);
+        }
+    }
+
+    /**
+     * Give back this batcher: once not used anymore, pending changes are written and its connection is closed.
+     */
+    public void release() {
+        synchronized (INSTANCES) {
+            if (--references > 0) {
+                return;
+            }
+            INSTANCES.remove(key);
+        }
+
+        final List<Batch> batches;
+        synchronized (pending) {
+            batches = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        batches.forEach(this::write);
+
+        scheduler.shutdownNow();
+        connection.close();
+    }
+}
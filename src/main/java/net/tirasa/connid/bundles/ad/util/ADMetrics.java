@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Operation latencies, LDAP round trips, returned entries and bytes, pages and cache hit ratios of the connections
+ * towards the same server, published through the configured {@link ADMetricsRegistry}.
+ */
+public class ADMetrics implements ADMetricsMXBean {
+
+    /**
+     * Metrics discarding everything, for connections with no metrics registry configured.
+     */
+    public static final ADMetrics NONE = new ADMetrics(null, null);
+
+    private static final Map<String, ADMetrics> INSTANCES = new HashMap<>();
+
+    /**
+     * Get the metrics for the given key, creating and registering them if needed: they must be given back via
+     * {@link #release()}.
+     *
+     * @param key key identifying server and credentials
+     * @param registryClassName class name of the metrics registry
+     * @return metrics for the given key
+     */
+    public static ADMetrics acquire(final String key, final String registryClassName) {
+        synchronized (INSTANCES) {
+            final ADMetrics metrics = INSTANCES.computeIfAbsent(key, k -> {
+                final ADMetricsRegistry registry;
+                try {
+                    registry = (ADMetricsRegistry) Class.forName(registryClassName).getDeclaredConstructor().
+                            newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new ConnectorException("Could not create metrics registry " + registryClassName, e);
+                }
+
+                final ADMetrics created = new ADMetrics(k, registry);
+                registry.register(k, created);
+                return created;
+            });
+            metrics.references++;
+            return metrics;
+        }
+    }
+
+    private final String key;
+
+    private final ADMetricsRegistry registry;
+
+    private int references;
+
+    private final ConcurrentMap<String, ADLatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final Map<String, List<TimedCache<?, ?>>> caches = new HashMap<>();
+
+    private ADMetrics(final String key, final ADMetricsRegistry registry) {
+        this.key = key;
+        this.registry = registry;
+    }
+
+    public boolean isEnabled() {
+        return registry != null;
+    }
+
+    /**
+     * Record the latency of the given operation.
+     *
+     * @param operation operation name
+     * @param start value of {@link System#nanoTime()} when the operation started
+     */
+    public void record(final String operation, final long start) {
+        if (isEnabled()) {
+            latencies.computeIfAbsent(operation, k -> new ADLatencyHistogram()).record(System.nanoTime() - start);
+        }
+    }
+
+    public void increment(final String counter, final long delta) {
+        if (isEnabled()) {
+            counters.computeIfAbsent(counter, k -> new LongAdder()).add(delta);
+        }
+    }
+
+    /**
+     * Include the given cache in the hit ratio reported for the given name.
+     *
+     * @param name cache name
+     * @param cache cache
+     */
+    public void addCache(final String name, final TimedCache<?, ?> cache) {
+        if (isEnabled()) {
+            synchronized (caches) {
+                caches.computeIfAbsent(name, k -> new ArrayList<>()).add(cache);
+            }
+        }
+    }
+
+    public void removeCache(final String name, final TimedCache<?, ?> cache) {
+        synchronized (caches) {
+            final List<TimedCache<?, ?>> named = caches.get(name);
+            if (named != null) {
+                named.remove(cache);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, ADLatencyHistogram.Snapshot> getLatencies() {
+        final Map<String, ADLatencyHistogram.Snapshot> result = new TreeMap<>();
+        latencies.forEach((operation, histogram) -> result.put(operation, histogram.snapshot()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        final Map<String, Long> result = new TreeMap<>();
+        counters.forEach((counter, value) -> result.put(counter, value.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getCacheHitRatios() {
+        final Map<String, Double> result = new TreeMap<>();
+        synchronized (caches) {
+            caches.forEach((name, named) -> {
+                long hits = 0;
+                long misses = 0;
+                for (TimedCache<?, ?> cache : named) {
+                    hits += cache.getHits();
+                    misses += cache.getMisses();
+                }
+                result.put(name, hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        latencies.values().forEach(ADLatencyHistogram::reset);
+        counters.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Give back these metrics: once not used anymore, they are unregistered.
+     */
+    public void release() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (INSTANCES) {
+            if (--references > 0) {
+                return;
+            }
+            INSTANCES.remove(key);
+        }
+
+        registry.unregister(key, this);
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ADMetrics}.
+ */
+public interface ADMetricsMXBean {
+
+    /**
+     * @return latencies by operation, as connector operations (create, executeQuery, ...) and LDAP requests
+     * (ldap.search, ldap.modifyAttributes, ...)
+     */
+    Map<String, ADLatencyHistogram.Snapshot> getLatencies();
+
+    /**
+     * @return counters, as ldap.roundTrips, ldap.pages, ldap.entries, ldap.bytes and errors by operation
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return hit ratio of each cache, between 0 and 1
+     */
+    Map<String, Double> getCacheHitRatios();
+
+    /**
+     * Clear latencies and counters.
+     */
+    void reset();
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+/**
+ * Publishes the metrics collected for connections towards the same server, as configured via metricsRegistry;
+ * implementations must have a public no-arg constructor.
+ */
+public interface ADMetricsRegistry {
+
+    /**
+     * Start publishing the given metrics.
+     *
+     * @param key key identifying server and credentials
+     * @param metrics metrics to publish
+     */
+    void register(String key, ADMetrics metrics);
+
+    /**
+     * Stop publishing the given metrics, once no connection uses them anymore.
+     *
+     * @param key key identifying server and credentials
+     * @param metrics metrics published so far
+     */
+    void unregister(String key, ADMetrics metrics);
+}
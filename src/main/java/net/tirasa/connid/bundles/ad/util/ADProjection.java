@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import static net.tirasa.connid.bundles.ad.ADConfiguration.PNE_FLAG;
+import static net.tirasa.connid.bundles.ad.ADConfiguration.PNR_FLAG;
+import static net.tirasa.connid.bundles.ad.ADConfiguration.PRIMARY_GROUP_DN_NAME;
+import static net.tirasa.connid.bundles.ad.ADConnector.OBJECTGUID;
+import static net.tirasa.connid.bundles.ad.ADConnector.SDDL_ATTR;
+import static net.tirasa.connid.bundles.ad.ADConnector.UACCONTROL_ATTR;
+
+import java.util.Collection;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * How each attribute to get is to be built out of the entries returned by a search: computed once per search rather
+ * than once per entry.
+ */
+public class ADProjection {
+
+    public enum Kind {
+        LDAP_GROUPS,
+        POSIX_GROUPS,
+        PASSWORD,
+        PNE,
+        PNR,
+        UAC,
+        GUID,
+        SDDL,
+        PRIMARY_GROUP_DN,
+        MEMBER_RANGE,
+        PLAIN
+
+    }
+
+    private final ObjectClass oclass;
+
+    private final Collection<String> attrsToGet;
+
+    private final String[] names;
+
+    private final Kind[] kinds;
+
+    private final boolean uacNeeded;
+
+    public ADProjection(final ObjectClass oclass, final Collection<String> attrsToGet, final String memberAttr) {
+        this.oclass = oclass;
+        this.attrsToGet = attrsToGet;
+        this.names = attrsToGet.toArray(new String[0]);
+        this.kinds = new Kind[names.length];
+
+        final boolean account = oclass.is(ObjectClass.ACCOUNT_NAME);
+        final String memberRange = memberAttr + ";range=0-999";
+
+        boolean uac = false;
+        for (int i = 0; i < names.length; i++) {
+            final String name = names[i];
+
+            if (LdapConstants.isLdapGroups(name) || name.equals(ADConnector.MEMBEROF)) {
+                kinds[i] = Kind.LDAP_GROUPS;
+            } else if (LdapConstants.isPosixGroups(name)) {
+                kinds[i] = Kind.POSIX_GROUPS;
+            } else if (LdapConstants.PASSWORD.is(name) && account) {
+                kinds[i] = Kind.PASSWORD;
+            } else if (PNE_FLAG.equalsIgnoreCase(name) && account) {
+                kinds[i] = Kind.PNE;
+            } else if (PNR_FLAG.equalsIgnoreCase(name) && account) {
+                kinds[i] = Kind.PNR;
+            } else if (UACCONTROL_ATTR.equalsIgnoreCase(name) && account) {
+                kinds[i] = Kind.UAC;
+            } else if (OBJECTGUID.equalsIgnoreCase(name)) {
+                kinds[i] = Kind.GUID;
+            } else if (SDDL_ATTR.equalsIgnoreCase(name)) {
+                kinds[i] = Kind.SDDL;
+            } else if (PRIMARY_GROUP_DN_NAME.equalsIgnoreCase(name)) {
+                kinds[i] = Kind.PRIMARY_GROUP_DN;
+            } else if (oclass.is(ObjectClass.GROUP_NAME) && memberRange.equalsIgnoreCase(name)) {
+                kinds[i] = Kind.MEMBER_RANGE;
+            } else {
+                kinds[i] = Kind.PLAIN;
+            }
+
+            uac |= kinds[i] == Kind.PNE || kinds[i] == Kind.PNR || kinds[i] == Kind.UAC;
+        }
+        this.uacNeeded = uac;
+    }
+
+    /**
+     * @param oclass object class
+     * @param attrsToGet attributes to get
+     * @return whether this projection was built for the given object class and attributes to get
+     */
+    public boolean isFor(final ObjectClass oclass, final Collection<String> attrsToGet) {
+        return this.attrsToGet == attrsToGet && this.oclass.equals(oclass);
+    }
+
+    public ObjectClass getObjectClass() {
+        return oclass;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(final int index) {
+        return names[index];
+    }
+
+    public Kind getKind(final int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @return whether userAccountControl is needed to build any of the attributes
+     */
+    public boolean isUACNeeded() {
+        return uacNeeded;
+    }
+}
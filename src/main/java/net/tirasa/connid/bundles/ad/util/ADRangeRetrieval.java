@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Range retrieval of multi-valued attributes having more values than the server's MaxValRange, as for members of
+ * large groups.
+ * The window size is discovered from the first range returned by the server; further windows are then requested
+ * ahead, while the previous ones are being handled, and handed to the given callback in order.
+ */
+public class ADRangeRetrieval {
+
+    private static final Log LOG = Log.getLog(ADRangeRetrieval.class);
+
+    /**
+     * Number of windows requested ahead.
+     */
+    private static final int PIPELINE_DEPTH = 4;
+
+    private static final Pattern RANGE = Pattern.compile(";range=(\\d+)-(\\d+|\\*)$", Pattern.CASE_INSENSITIVE);
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * Values returned by a window.
+     */
+    private static class Window {
+
+        private final List<Object> values;
+
+        private final boolean last;
+
+        Window(final List<Object> values, final boolean last) {
+            this.values = values;
+            this.last = last;
+        }
+    }
+
+    private final ADConnection connection;
+
+    public ADRangeRetrieval(final ADConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Create an executor for windows requested ahead: concurrent retrievals share its threads.
+     *
+     * @return range retrieval executor
+     */
+    public static ExecutorService newExecutor() {
+        return Executors.newFixedThreadPool(PIPELINE_DEPTH, runnable -> {
+            Thread thread = new Thread(runnable, "ADRangeRetrieval-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Check whether the given attribute, as returned by the server, holds just a range of values.
+     *
+     * @param attr attribute
+     * @return whether more values are available after the ones of the given attribute
+     */
+    public static boolean hasMore(final Attribute attr) {
+        final Matcher matcher = RANGE.matcher(attr.getID());
+        return matcher.find() && !"*".equals(matcher.group(2));
+    }
+
+    /**
+     * Get the index of the first value not returned with the given attribute, as returned by the server.
+     *
+     * @param attr attribute
+     * @return index of the first value not returned
+     */
+    public static int getNext(final Attribute attr) {
+        final Matcher matcher = RANGE.matcher(attr.getID());
+        return matcher.find() && !"*".equals(matcher.group(2))
+                ? Integer.parseInt(matcher.group(2)) + 1
+                : Integer.parseInt(matcher.group(1)) + attr.size();
+    }
+
+    /**
+     * Get the attribute among the given ones holding (a range of) values for the given attribute name.
+     *
+     * @param attrs attributes, as returned by the server
+     * @param attrName attribute name, with no range option
+     * @return attribute holding (a range of) values for the given attribute name, or null if not found
+     * @throws NamingException if anything goes wrong while reading attributes
+     */
+    public static Attribute getRangeAttribute(final Attributes attrs, final String attrName) throws NamingException {
+        Attribute attr = attrs.get(attrName);
+        if (attr == null) {
+            final String prefix = attrName.toLowerCase() + ";range=";
+            final NamingEnumeration<? extends Attribute> all = attrs.getAll();
+            while (all.hasMore() && attr == null) {
+                final Attribute candidate = all.next();
+                if (candidate.getID().toLowerCase().startsWith(prefix)) {
+                    attr = candidate;
+                }
+            }
+        }
+        return attr;
+    }
+
+    /**
+     * Read all values of the given attribute.
+     *
+     * @param dn entry DN
+     * @param attrName attribute name, with no range option
+     * @param start index of the first value to read
+     * @return attribute values
+     */
+    public List<Object> retrieve(final String dn, final String attrName, final int start) {
+        final List<Object> values = new ArrayList<>();
+        retrieve(dn, attrName, start, values::addAll);
+        return values;
+    }
+
+    /**
+     * Read all values of the given attribute, handing them to the given callback window by window, in order.
+     *
+     * @param dn entry DN
+     * @param attrName attribute name, with no range option
+     * @param start index of the first value to read
+     * @param callback callback receiving values window by window
+     * @return number of values read
+     */
+    public long retrieve(
+            final String dn, final String attrName, final int start, final Consumer<List<Object>> callback) {
+
+        // first window, whose size tells the server's MaxValRange
+        final Attribute first = read(dn, String.format("%s;range=%d-*", attrName, start), attrName);
+        if (first == null) {
+            return 0;
+        }
+
+        final List<Object> firstValues = getValues(first);
+        callback.accept(firstValues);
+
+        long count = firstValues.size();
+        if (!hasMore(first) || firstValues.isEmpty()) {
+            return count;
+        }
+
+        final int windowSize = getNext(first) - start;
+        int next = getNext(first);
+
+        if (LOG.isOk()) {
+            LOG.ok("Reading {0} of {1} by windows of {2} values", attrName, dn, windowSize);
+        }
+
+        final ExecutorService executor = connection.getRangeRetrievalExecutor();
+
+        final Deque<Future<Window>> pipeline = new ArrayDeque<>(PIPELINE_DEPTH);
+        try {
+            boolean last = false;
+            while (!last) {
+                while (pipeline.size() < PIPELINE_DEPTH) {
+                    final String range = String.format("%s;range=%d-%d", attrName, next, next + windowSize - 1);
+                    pipeline.addLast(executor.submit(() -> {
+                        final Attribute attr = read(dn, range, attrName);
+                        return attr == null
+                                ? new Window(Collections.emptyList(), true)
+                                : new Window(getValues(attr), !hasMore(attr));
+                    }));
+                    next += windowSize;
+                }
+
+                final Window window = pipeline.removeFirst().get();
+                callback.accept(window.values);
+                count += window.values.size();
+                last = window.last || window.values.isEmpty();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof ConnectorException
+                    ? (ConnectorException) e.getCause()
+                    : new ConnectorException(e.getCause());
+        } finally {
+            discard(pipeline, dn, attrName);
+        }
+
+        return count;
+    }
+
+    /**
+     * Cancel windows not handed to the callback: those requested past the end of the range may have failed already.
+     */
+    private static void discard(final Deque<Future<Window>> pipeline, final String dn, final String attrName) {
+        for (Future<Window> future : pipeline) {
+            if (!future.cancel(true)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    LOG.ok(e.getCause(), "Discarding window of {0} of {1}", attrName, dn);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (CancellationException e) {
+                    // nothing to report
+                }
+            }
+        }
+    }
+
+    private Attribute read(final String dn, final String range, final String attrName) {
+        final LdapContext leased = connection.leaseContext();
+        try {
+            // the initial context is shared, contexts cannot be used concurrently: use a distinct one
+            final LdapContext ctx = leased == connection.getInitialContext() ? leased.newInstance(null) : leased;
+            try {
+                return getRangeAttribute(ctx.getAttributes(new LdapName(dn), new String[] { range }), attrName);
+            } finally {
+                if (ctx != leased) {
+                    ctx.close();
+                }
+            }
+        } catch (NamingException e) {
+            throw new ConnectorException("While reading " + range + " of " + dn, e);
+        } finally {
+            connection.releaseContext(leased);
+        }
+    }
+
+    private static List<Object> getValues(final Attribute attr) {
+        final List<Object> values = new ArrayList<>(attr.size());
+        try {
+            final NamingEnumeration<?> ne = attr.getAll();
+            while (ne.hasMore()) {
+                values.add(ne.next());
+            }
+        } catch (NamingException e) {
+            throw new ConnectorException(e);
+        }
+        return values;
+    }
+}
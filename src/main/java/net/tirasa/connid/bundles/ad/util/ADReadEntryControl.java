@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Predicate;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * Pre-Read and Post-Read controls (RFC 4527): the entry, as before or after the operation, is returned with the
+ * response of add, modify and modify DN operations.
+ */
+public class ADReadEntryControl extends BasicControl {
+
+    private static final long serialVersionUID = 4512378264470262143L;
+
+    public static final String PRE_READ_OID = "1.3.6.1.1.13.1";
+
+    public static final String POST_READ_OID = "1.3.6.1.1.13.2";
+
+    /**
+     * Operation to be performed with a read entry control.
+     */
+    @FunctionalInterface
+    public interface Operation {
+
+        void execute(LdapContext ctx) throws NamingException;
+    }
+
+    public ADReadEntryControl(final String oid, final String... attrs) {
+        super(oid, true, null);
+        this.value = encode(attrs);
+    }
+
+    /**
+     * Perform the given operation requesting the given attributes of the entry, as after the operation.
+     *
+     * @param ctx context
+     * @param attrs attributes to be returned
+     * @param binary tells whether an attribute has binary values
+     * @param operation operation
+     * @return entry attributes, or null if not returned by the server
+     * @throws NamingException if anything goes wrong while performing the operation
+     */
+    public static Attributes postRead(
+            final LdapContext ctx,
+            final String[] attrs,
+            final Predicate<String> binary,
+            final Operation operation)
+            throws NamingException {
+
+        return read(ctx, POST_READ_OID, attrs, binary, operation);
+    }
+
+    /**
+     * Perform the given operation requesting the given attributes of the entry, as before the operation.
+     *
+     * @param ctx context
+     * @param attrs attributes to be returned
+     * @param binary tells whether an attribute has binary values
+     * @param operation operation
+     * @return entry attributes, or null if not returned by the server
+     * @throws NamingException if anything goes wrong while performing the operation
+     */
+    public static Attributes preRead(
+            final LdapContext ctx,
+            final String[] attrs,
+            final Predicate<String> binary,
+            final Operation operation)
+            throws NamingException {
+
+        return read(ctx, PRE_READ_OID, attrs, binary, operation);
+    }
+
+    private static Attributes read(
+            final LdapContext ctx,
+            final String oid,
+            final String[] attrs,
+            final Predicate<String> binary,
+            final Operation operation)
+            throws NamingException {
+
+        final Control[] previous = ctx.getRequestControls();
+        final Control[] controls = previous == null
+                ? new Control[1]
+                : Arrays.copyOf(previous, previous.length + 1);
+        controls[controls.length - 1] = new ADReadEntryControl(oid, attrs);
+
+        ctx.setRequestControls(controls);
+        try {
+            operation.execute(ctx);
+            return getEntry(ctx.getResponseControls(), oid, binary);
+        } finally {
+            ctx.setRequestControls(previous);
+        }
+    }
+
+    /**
+     * Get the entry returned by the given read entry response control.
+     *
+     * @param controls response controls
+     * @param oid pre-read or post-read OID
+     * @param binary tells whether an attribute has binary values
+     * @return entry attributes, or null if no such response control was found
+     */
+    public static Attributes getEntry(final Control[] controls, final String oid, final Predicate<String> binary) {
+        if (controls != null) {
+            for (Control control : controls) {
+                if (oid.equals(control.getID()) && control.getEncodedValue() != null) {
+                    return decode(control.getEncodedValue(), binary);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encode {@code controlValue ::= SEQUENCE OF AttributeDescription}.
+     */
+    private static byte[] encode(final String... attrs) {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (String attr : attrs) {
+            ADBer.writeTLV(content, 0x04, attr.getBytes(StandardCharsets.UTF_8));
+        }
+
+        final ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+        ADBer.writeTLV(sequence, 0x30, content.toByteArray());
+        return sequence.toByteArray();
+    }
+
+    /**
+     * Decode {@code controlValue ::= SearchResultEntry}, made of entry DN and partial attribute list.
+     */
+    private static Attributes decode(final byte[] value, final Predicate<String> binary) {
+        final Attributes attributes = new BasicAttributes(true);
+
+        final int[] entry = ADBer.readTL(value, 0);
+        // objectName
+        final int[] dn = ADBer.readTL(value, entry[0]);
+        // attributes
+        final int[] list = ADBer.readTL(value, dn[0] + dn[1]);
+
+        int pos = list[0];
+        while (pos < list[0] + list[1]) {
+            final int[] attr = ADBer.readTL(value, pos);
+
+            final int[] type = ADBer.readTL(value, attr[0]);
+            final String name = new String(value, type[0], type[1], StandardCharsets.UTF_8);
+            final boolean isBinary = binary.test(name);
+
+            final BasicAttribute attribute = new BasicAttribute(name);
+            final int[] vals = ADBer.readTL(value, type[0] + type[1]);
+            int valPos = vals[0];
+            while (valPos < vals[0] + vals[1]) {
+                final int[] val = ADBer.readTL(value, valPos);
+                final byte[] bytes = Arrays.copyOfRange(value, val[0], val[0] + val[1]);
+                attribute.add(isBinary ? bytes : new String(bytes, StandardCharsets.UTF_8));
+                valPos = val[0] + val[1];
+            }
+            attributes.put(attribute);
+
+            pos = attr[0] + attr[1];
+        }
+
+        return attributes;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Sampled, structured trace of per-entry processing: meant for hot loops, where building log messages for each entry
+ * would cost more than processing the entry itself.
+ * Events are logged at OK level on this class' logger, as {@code event key=value ...}; when disabled, checking
+ * {@link #sample()} is all it costs.
+ */
+public class ADTrace {
+
+    private static final Log LOG = Log.getLog(ADTrace.class);
+
+    public static final ADTrace NONE = new ADTrace(0);
+
+    /**
+     * Trace one entry out of this many; 0 to disable.
+     */
+    private final int sampleRate;
+
+    private final AtomicLong entries = new AtomicLong();
+
+    public ADTrace(final int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Whether the current entry is to be traced: callers are expected to build event fields only when this returns
+     * {@code true}.
+     *
+     * @return whether the current entry is to be traced
+     */
+    public boolean sample() {
+        if (sampleRate <= 0 || !LOG.isOk()) {
+            return false;
+        }
+        return sampleRate == 1 || entries.getAndIncrement() % sampleRate == 0;
+    }
+
+    /**
+     * Log the given event.
+     *
+     * @param event event name
+     * @param fields alternating field names and values; attributes are reported by their values, attribute sets by
+     * their attribute names
+     */
+    public void event(final String event, final Object... fields) {
+        final StringBuilder line = new StringBuilder(event);
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            line.append(' ').append(fields[i]).append('=');
+            try {
+                if (fields[i + 1] instanceof Attribute) {
+                    append(line, ((Attribute) fields[i + 1]).getAll());
+                } else if (fields[i + 1] instanceof Attributes) {
+                    append(line, ((Attributes) fields[i + 1]).getIDs());
+                } else {
+                    line.append(fields[i + 1]);
+                }
+            } catch (NamingException e) {
+                // attributes already received: not expected
+            }
+        }
+        LOG.ok("{0}", line);
+    }
+
+    private static void append(final StringBuilder line, final NamingEnumeration<?> values) throws NamingException {
+        line.append('[');
+        while (values.hasMore()) {
+            line.append(values.next());
+            if (values.hasMore()) {
+                line.append(',');
+            }
+        }
+        line.append(']');
+    }
+}
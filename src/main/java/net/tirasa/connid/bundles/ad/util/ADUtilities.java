@@ -32,14 +32,19 @@ import static net.tirasa.connid.bundles.ldap.commons.LdapUtil.escapeAttrValue;
 import static org.identityconnectors.common.CollectionUtil.newCaseInsensitiveSet;
 import static org.identityconnectors.common.CollectionUtil.newSet;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
@@ -47,8 +52,11 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 import net.tirasa.adsddl.ntsd.SDDL;
 import net.tirasa.adsddl.ntsd.SID;
 import net.tirasa.adsddl.ntsd.utils.GUID;
@@ -89,10 +97,36 @@ public class ADUtilities {
 
     private final static Log LOG = Log.getLog(ADUtilities.class);
 
+    /**
+     * Number of entries whose groups are looked for by search before building the member to groups index.
+     */
+    private static final int MEMBERSHIP_INDEX_THRESHOLD = 100;
+
+    private static final int MEMBERSHIP_INDEX_PAGE_SIZE = 1000;
+
     private final ADConnection connection;
 
     private final GroupHelper groupHelper;
 
+    private boolean membershipIndexEnabled;
+
+    /**
+     * Whether building the members to groups index was attempted: the group scan is run at most once.
+     */
+    private boolean membershipIndexBuilt;
+
+    /**
+     * Members to groups index: null until built, or if building failed.
+     */
+    private Map<LdapName, Set<String>> membershipIndex;
+
+    private int ldapGroupsLookups;
+
+    /**
+     * Projection last used by {@link #createConnectorObject(String, Attributes, Collection, ObjectClass)}.
+     */
+    private ADProjection projection;
+
     public ADUtilities(final ADConnection connection) {
         this.connection = connection;
         groupHelper = new GroupHelper(connection);
@@ -118,7 +152,13 @@ public class ADUtilities {
     public javax.naming.directory.Attribute getGroupID(final String dn) throws InvalidNameException {
         try {
             final LdapName name = new LdapName(dn);
-            final Attributes group = connection.getInitialContext().getAttributes(name, new String[] { OBJECTSID });
+            final Attributes group;
+            final LdapContext ctx = connection.leaseContext();
+            try {
+                group = ctx.getAttributes(name, new String[] { OBJECTSID });
+            } finally {
+                connection.releaseContext(ctx);
+            }
             final SID gsid = SID.parse((byte[]) group.get(OBJECTSID).get());
             final byte[] groupID = gsid.getSubAuthorities().get(gsid.getSubAuthorityCount() - 1);
             return new BasicAttribute(PRIMARYGROUPID, String.valueOf(NumberFacility.getUInt(groupID)));
@@ -129,33 +169,77 @@ public class ADUtilities {
     }
 
     public String getPrimaryGroupDN(final LdapEntry entry, final Attributes profile) throws NamingException {
+        final String pgDN = getPrimaryGroupDN(
+                profile, ((ADConfiguration) connection.getConfiguration()).getGroupBaseContexts());
+
+        if (pgDN == null && profile.get(PRIMARYGROUPID) != null) {
+            LOG.warn("Error retrieving primary group for {0}", entry.getDN());
+        }
+
+        return pgDN;
+    }
+
+    /**
+     * Get the DN of the primary group of the entry with the given profile, if found under any of the given base
+     * contexts.
+     * Nearly all entries share the same few primary groups: resolutions are cached by primary group SID.
+     *
+     * @param profile entry profile, including objectSID and primaryGroupID
+     * @param baseContexts base contexts
+     * @return primary group DN, or null if not found
+     * @throws NamingException if the primary group SID could not be built
+     */
+    public String getPrimaryGroupDN(final Attributes profile, final String... baseContexts) throws NamingException {
         final javax.naming.directory.Attribute primaryGroupID = profile.get(PRIMARYGROUPID);
         final javax.naming.directory.Attribute objectSID = profile.get(OBJECTSID);
 
-        final String pgDN;
-
         if (primaryGroupID == null || primaryGroupID.get() == null || objectSID == null || objectSID.get() == null) {
-            pgDN = null;
-        } else {
-            final SID groupSID = getPrimaryGroupSID(SID.parse((byte[]) objectSID.get()),
-                    NumberFacility.getUIntBytes(Long.parseLong(primaryGroupID.get().toString())));
-
-            final Set<SearchResult> res = basicLdapSearch(String.format(
-                    "(&(objectclass=group)(%s=%s))", OBJECTSID, Hex.getEscaped(groupSID.toByteArray())),
-                    ((ADConfiguration) connection.getConfiguration()).getGroupBaseContexts());
-
-            if (res == null || res.isEmpty()) {
-                LOG.warn("Error retrieving primary group for {0}", entry.getDN());
-                pgDN = null;
-            } else {
-                pgDN = res.iterator().next().getNameInNamespace();
-                LOG.info("Found primary group {0}", pgDN);
-            }
+            return null;
+        }
+
+        final SID groupSID = getPrimaryGroupSID(SID.parse((byte[]) objectSID.get()),
+                NumberFacility.getUIntBytes(Long.parseLong(primaryGroupID.get().toString())));
+
+        final Optional<String> pgDN = connection.getPrimaryGroupCache().get(
+                groupSID.toString(), key -> Optional.ofNullable(searchPrimaryGroupDN(groupSID)));
+
+        return pgDN.filter(dn -> isUnder(dn, baseContexts)).orElse(null);
+    }
+
+    private String searchPrimaryGroupDN(final SID groupSID) {
+        // search once under any base context, then check the result against the base contexts of each request
+        final ADConfiguration conf = (ADConfiguration) connection.getConfiguration();
+        final Set<String> baseContexts = new LinkedHashSet<>(Arrays.asList(conf.getBaseContexts()));
+        baseContexts.addAll(Arrays.asList(conf.getGroupBaseContexts()));
+
+        final Set<SearchResult> res = basicLdapSearch(String.format(
+                "(&(objectclass=group)(%s=%s))", OBJECTSID, Hex.getEscaped(groupSID.toByteArray())),
+                baseContexts.toArray(new String[0]));
+
+        if (res == null || res.isEmpty()) {
+            return null;
         }
 
+        final String pgDN = res.iterator().next().getNameInNamespace();
+        LOG.info("Found primary group {0}", pgDN);
         return pgDN;
     }
 
+    private static boolean isUnder(final String dn, final String... baseContexts) {
+        try {
+            final LdapName name = new LdapName(dn);
+            for (String baseContext : baseContexts) {
+                if (name.startsWith(new LdapName(baseContext))) {
+                    return true;
+                }
+            }
+        } catch (InvalidNameException e) {
+            LOG.error(e, "Invalid DN");
+        }
+
+        return false;
+    }
+
     public Set<String> getAttributesToGet(final String[] attributesToGet, final ObjectClass oclass) {
         final Set<String> result;
 
@@ -251,7 +335,8 @@ public class ADUtilities {
     public Set<String> getLdapAttributesToGet(final Set<String> attrsToGet, final ObjectClass oclass) {
         final Set<String> cleanAttrsToGet = newCaseInsensitiveSet();
         cleanAttrsToGet.addAll(attrsToGet);
-        cleanAttrsToGet.remove(LdapConstants.LDAP_GROUPS_NAME);
+        boolean ldapGroups = cleanAttrsToGet.remove(LdapConstants.LDAP_GROUPS_NAME)
+                || cleanAttrsToGet.contains(ADConnector.MEMBEROF);
 
         boolean posixGroups = cleanAttrsToGet.remove(LdapConstants.POSIX_GROUPS_NAME);
 
@@ -261,6 +346,12 @@ public class ADUtilities {
             result.add(GroupHelper.getPosixRefAttribute());
         }
 
+        if (ldapGroups && ADConfiguration.LDAP_GROUPS_RETRIEVAL_MEMBEROF.equals(
+                ((ADConfiguration) connection.getConfiguration()).getLdapGroupsRetrieval())) {
+
+            result.add(ADConnector.MEMBEROF);
+        }
+
         return result;
     }
 
@@ -297,134 +388,126 @@ public class ADUtilities {
             final ObjectClass oclass)
             throws NamingException {
 
+        return createConnectorObject(baseDN, profile, getProjection(oclass, attrsToGet));
+    }
+
+    /**
+     * Get the projection for the given object class and attributes to get, reusing the last one if built for the
+     * same.
+     *
+     * @param oclass object class
+     * @param attrsToGet attributes to get
+     * @return projection
+     */
+    public ADProjection getProjection(final ObjectClass oclass, final Collection<String> attrsToGet) {
+        if (projection == null || !projection.isFor(oclass, attrsToGet)) {
+            projection = new ADProjection(oclass, attrsToGet, connection.getConfiguration().getGroupMemberAttribute());
+        }
+        return projection;
+    }
+
+    public ConnectorObject createConnectorObject(
+            final String baseDN,
+            final Attributes profile,
+            final ADProjection projection)
+            throws NamingException {
+
+        final ObjectClass oclass = projection.getObjectClass();
+
         final LdapEntry entry = LdapEntry.create(baseDN, profile);
 
         final ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
 
         initConnectorObjectBuilder(entry, oclass, builder);
 
+        // parsed once for all of the attributes depending on it
+        final Integer uac = projection.isUACNeeded() ? getUAC(profile) : null;
+
         String pgDN = null;
 
-        for (String attributeName : attrsToGet) {
+        for (int i = 0; i < projection.size(); i++) {
+            final String attributeName = projection.getName(i);
+
             Attribute attribute = null;
 
-            if (LdapConstants.isLdapGroups(attributeName) || attributeName.equals(ADConnector.MEMBEROF)) {
-                final Set<String> ldapGroups = getGroups(entry.getDN().toString());
-                if (StringUtil.isBlank(pgDN)) {
-                    pgDN = getPrimaryGroupDN(entry, profile);
-                }
-                if (StringUtil.isNotBlank(pgDN)) {
-                    ldapGroups.add(pgDN);
-                }
-                attribute = AttributeBuilder.build(attributeName, ldapGroups);
-            } else if (LdapConstants.isPosixGroups(attributeName)) {
-                final Set<String> posixRefAttrs = LdapUtil.getStringAttrValues(
-                        entry.getAttributes(), GroupHelper.getPosixRefAttribute());
-                final List<String> posixGroups = groupHelper.getPosixGroups(posixRefAttrs);
-                attribute = AttributeBuilder.build(LdapConstants.POSIX_GROUPS_NAME, posixGroups);
-            } else if (LdapConstants.PASSWORD.is(attributeName) && oclass.is(ObjectClass.ACCOUNT_NAME)) {
-                // IMPORTANT!!! Return empty guarded string
-                attribute = AttributeBuilder.build(attributeName, new GuardedString());
-            } else if (PNE_FLAG.equalsIgnoreCase(attributeName) && oclass.is(ObjectClass.ACCOUNT_NAME)) {
-                try {
-
-                    final String uac = profile.get(UACCONTROL_ATTR) == null
-                            || profile.get(UACCONTROL_ATTR).get() == null
-                            ? null : profile.get(UACCONTROL_ATTR).get().toString();
-
-                    if (LOG.isOk()) {
-                        LOG.ok("User Account Control: {0}", uac);
+            switch (projection.getKind(i)) {
+                case LDAP_GROUPS:
+                    final Set<String> ldapGroups = getLdapGroups(entry, profile);
+                    if (StringUtil.isBlank(pgDN)) {
+                        pgDN = getPrimaryGroupDN(entry, profile);
                     }
-
+                    if (StringUtil.isNotBlank(pgDN)) {
+                        ldapGroups.add(pgDN);
+                    }
+                    attribute = AttributeBuilder.build(attributeName, ldapGroups);
+                    break;
+
+                case POSIX_GROUPS:
+                    final Set<String> posixRefAttrs = LdapUtil.getStringAttrValues(
+                            entry.getAttributes(), GroupHelper.getPosixRefAttribute());
+                    final List<String> posixGroups = groupHelper.getPosixGroups(posixRefAttrs);
+                    attribute = AttributeBuilder.build(LdapConstants.POSIX_GROUPS_NAME, posixGroups);
+                    break;
+
+                case PASSWORD:
+                    // IMPORTANT!!! Return empty guarded string
+                    attribute = AttributeBuilder.build(attributeName, new GuardedString());
+                    break;
+
+                case PNE:
                     // disabled if PNE_FLAG is not included (0x10000)
-                    attribute = uac == null || (Integer.parseInt(uac) & UF_DONT_EXPIRE_PASSWD) != UF_DONT_EXPIRE_PASSWD
-                            ? AttributeBuilder.build(PNE_FLAG, false)
-                            : AttributeBuilder.build(PNE_FLAG, true);
-                } catch (NamingException e) {
-                    LOG.error(e, "While fetching " + UACCONTROL_ATTR);
-                }
-            } else if (PNR_FLAG.equalsIgnoreCase(attributeName) && oclass.is(ObjectClass.ACCOUNT_NAME)) {
-                try {
+                    attribute = AttributeBuilder.build(
+                            PNE_FLAG, uac != null && (uac & UF_DONT_EXPIRE_PASSWD) == UF_DONT_EXPIRE_PASSWD);
+                    break;
 
-                    final String uac =
-                            profile.get(UACCONTROL_ATTR) == null || profile.get(UACCONTROL_ATTR).get() == null ? null
-                                    : profile.get(UACCONTROL_ATTR).get().toString();
+                case PNR:
+                    // disabled if PNR_FLAG is not included (0x0020)
+                    attribute = AttributeBuilder.build(
+                            PNR_FLAG, uac != null && (uac & UF_PASSWD_NOTREQD) == UF_PASSWD_NOTREQD);
+                    break;
 
-                    if (LOG.isOk()) {
-                        LOG.ok("User Account Control: {0}", uac);
-                    }
+                case UAC:
+                    // enabled if UF_ACCOUNTDISABLE is not included (0x00002)
+                    builder.addAttribute(AttributeBuilder.buildEnabled(uac == null || uac % 16 != UF_ACCOUNTDISABLE));
+                    attribute = connection.getSchema().createAttribute(oclass, attributeName, entry, false);
+                    break;
 
-                    // disabled if PNR_FLAG is not included (0x0020)
-                    attribute = uac == null || (Integer.parseInt(uac) & UF_PASSWD_NOTREQD) != UF_PASSWD_NOTREQD
-                            ? AttributeBuilder.build(PNR_FLAG, false) : AttributeBuilder.build(PNR_FLAG, true);
-                } catch (NamingException e) {
-                    LOG.error(e, "While fetching " + UACCONTROL_ATTR);
-                }
-            } else if (UACCONTROL_ATTR.equalsIgnoreCase(attributeName) && oclass.is(ObjectClass.ACCOUNT_NAME)) {
-                attribute = manageUACAttribute(profile, oclass, entry, builder, attributeName);
-            } else if (OBJECTGUID.equalsIgnoreCase(attributeName)) {
-                attribute = AttributeBuilder.build(
-                        attributeName, GUID.getGuidAsString((byte[]) profile.get(OBJECTGUID).get()));
-            } else if (SDDL_ATTR.equalsIgnoreCase(attributeName)) {
-                javax.naming.directory.Attribute sddl = profile.get(SDDL_ATTR);
-                if (sddl != null) {
+                case GUID:
                     attribute = AttributeBuilder.build(
-                            UCCP_FLAG,
-                            SDDLHelper.isUserCannotChangePassword(new SDDL(((byte[]) sddl.get()))));
-                }
-            } else if (PRIMARY_GROUP_DN_NAME.equalsIgnoreCase(attributeName)) {
-                if (StringUtil.isBlank(pgDN)) {
-                    pgDN = getPrimaryGroupDN(entry, profile);
-                }
-                attribute = AttributeBuilder.build(PRIMARY_GROUP_DN_NAME, pgDN);
-            } else if (oclass.is(ObjectClass.GROUP_NAME)
-                    && String.format("%s;range=%d-%d", connection.getConfiguration().
-                            getGroupMemberAttribute(), 0, 999).equalsIgnoreCase(attributeName)) {
-
-                // loop on membership ranges and populate member attribute
-                final String membAttrPrefix = connection.getConfiguration().getGroupMemberAttribute();
-
-                // search for less than 1k memberships
-                String membAttrName = String.format("%s;range=0-*", membAttrPrefix);
-                attribute = connection.getSchema().createAttribute(oclass, membAttrName, entry, true);
-
-                final ArrayList<Object> values = new ArrayList<>(attribute.getValue());
-
-                if (values.isEmpty()) {
-                    // loop among ranges
-                    int start = 0;
-                    int end = 999;
-                    membAttrName = String.format("%s;range=%d-%d", membAttrPrefix, start, end);
-                    attribute = connection.getSchema().createAttribute(oclass, membAttrName, entry, true);
-
-                    values.addAll(attribute.getValue());
-
-                    boolean theEnd = CollectionUtil.isEmpty(attribute.getValue());
-                    while (!theEnd) { // more than 1 page ....    
-                        start += 1000;
-                        end += 1000;
-                        membAttrName = String.format("%s;range=%d-%d", membAttrPrefix, start, end);
-                        Attributes membAttrs = getAttributes(entry.getDN().toString(), membAttrName);
-
-                        if (membAttrs == null || membAttrs.size() <= 0) {
-                            theEnd = true;
-                        } else {
-                            javax.naming.directory.Attribute membAttr = membAttrs.getAll().next();
-                            theEnd = membAttr.getID().equalsIgnoreCase(
-                                    String.format("%s;range=%d-*", membAttrPrefix, start));
-
-                            final NamingEnumeration<?> ne = membAttr.getAll();
-                            while (ne.hasMore()) {
-                                values.add(ne.next());
-                            }
-                        }
+                            attributeName, GUID.getGuidAsString((byte[]) profile.get(OBJECTGUID).get()));
+                    break;
+
+                case SDDL:
+                    javax.naming.directory.Attribute sddl = profile.get(SDDL_ATTR);
+                    if (sddl != null) {
+                        attribute = AttributeBuilder.build(
+                                UCCP_FLAG,
+                                SDDLHelper.isUserCannotChangePassword(new SDDL(((byte[]) sddl.get()))));
+                    }
+                    break;
 
+                case PRIMARY_GROUP_DN:
+                    if (StringUtil.isBlank(pgDN)) {
+                        pgDN = getPrimaryGroupDN(entry, profile);
                     }
-                }
+                    attribute = AttributeBuilder.build(PRIMARY_GROUP_DN_NAME, pgDN);
+                    break;
 
-                attribute = AttributeBuilder.build(membAttrPrefix, values);
-            } else if (profile.get(attributeName) != null) {
-                attribute = connection.getSchema().createAttribute(oclass, attributeName, entry, false);
+                case MEMBER_RANGE:
+                    // populate member attribute with the first range and further ones, if any
+                    final String membAttrPrefix = connection.getConfiguration().getGroupMemberAttribute();
+
+                    final List<Object> values = new ArrayList<>();
+                    streamRangeValues(entry.getDN().toString(), profile, membAttrPrefix, values::addAll);
+
+                    attribute = AttributeBuilder.build(membAttrPrefix, values);
+                    break;
+
+                case PLAIN:
+                default:
+                    if (profile.get(attributeName) != null) {
+                        attribute = connection.getSchema().createAttribute(oclass, attributeName, entry, false);
+                    }
             }
 
             // Avoid attribute adding in case of attribute name not found
@@ -527,15 +610,20 @@ public class ADUtilities {
     }
 
     public LdapEntry getEntryToBeUpdated(final String entryDN) {
+        return getEntryToBeUpdated(entryDN, new String[0]);
+    }
+
+    public LdapEntry getEntryToBeUpdated(final String entryDN, final String... additionalAttrs) {
+        final Set<String> attrs = new LinkedHashSet<>(
+                Arrays.asList(UACCONTROL_ATTR, SDDL_ATTR, OBJECTSID, PRIMARYGROUPID));
+        attrs.addAll(Arrays.asList(additionalAttrs));
+
         LdapEntry obj = null;
         try {
             obj = LdapSearches.getEntry(
                     connection,
                     new LdapName(entryDN),
-                    UACCONTROL_ATTR,
-                    SDDL_ATTR,
-                    OBJECTSID,
-                    PRIMARYGROUPID);
+                    attrs.toArray(new String[0]));
         } catch (Exception e) {
             LOG.warn(e, "Invalid entry DN");
         }
@@ -548,12 +636,86 @@ public class ADUtilities {
     }
 
     public ConnectorObject getEntryToBeUpdated(final Uid uid, final ObjectClass oclass) {
+        return getEntryToBeUpdated(uid, oclass, null);
+    }
+
+    /**
+     * Get the entry to be updated: the given DN, or the one cached for the given uid, is read directly and used if
+     * still matching the uid; a search by uid is performed otherwise.
+     *
+     * @param uid uid of the entry to be updated
+     * @param oclass object class of the entry to be updated
+     * @param entryDN DN of the entry to be updated, if known to the caller
+     * @return minimal connector object for the entry to be updated
+     */
+    public ConnectorObject getEntryToBeUpdated(final Uid uid, final ObjectClass oclass, final String entryDN) {
+        final String key = entryDNCacheKey(oclass, uid);
+
+        final String dn = entryDN == null ? connection.getEntryDNCache().get(key) : entryDN;
+        if (dn != null) {
+            final ConnectorObject obj = readEntryToBeUpdated(dn, uid, oclass);
+            if (obj != null) {
+                connection.getEntryDNCache().put(key, obj.getName().getNameValue());
+                return obj;
+            }
+
+            connection.getEntryDNCache().invalidate(key);
+        }
+
+        final ConnectorObject obj = searchEntryToBeUpdated(uid, oclass);
+        connection.getEntryDNCache().put(key, obj.getName().getNameValue());
+        return obj;
+    }
+
+    /**
+     * Cache the DN of the entry with the given uid, to be used by subsequent updates.
+     *
+     * @param oclass object class
+     * @param uid uid
+     * @param entryDN entry DN
+     */
+    public void cacheEntryDN(final ObjectClass oclass, final Uid uid, final String entryDN) {
+        connection.getEntryDNCache().put(entryDNCacheKey(oclass, uid), entryDN);
+    }
+
+    public void invalidateEntryDN(final ObjectClass oclass, final Uid uid) {
+        connection.getEntryDNCache().invalidate(entryDNCacheKey(oclass, uid));
+    }
+
+    private static String entryDNCacheKey(final ObjectClass oclass, final Uid uid) {
+        return oclass.getObjectClassValue() + "|" + uid.getUidValue().toLowerCase();
+    }
+
+    private ConnectorObject readEntryToBeUpdated(final String entryDN, final Uid uid, final ObjectClass oclass) {
+        final List<String> attrsToGet = Arrays.asList(UACCONTROL_ATTR, SDDL_ATTR, OBJECTSID, PRIMARYGROUPID);
+
+        final Set<String> attrs = new LinkedHashSet<>(attrsToGet);
+        attrs.add(connection.getSchema().getLdapUidAttribute(oclass));
+
+        final LdapContext ctx = connection.leaseContext();
+        try {
+            final ConnectorObject obj = createMinimalConnectorObject(
+                    entryDN, ctx.getAttributes(entryDN, attrs.toArray(new String[0])), attrsToGet, oclass);
+
+            // the entry might have been deleted and another one created with the same DN in the meantime
+            return uid.getUidValue().equalsIgnoreCase(obj.getUid().getUidValue()) ? obj : null;
+        } catch (Exception e) {
+            LOG.ok(e, "Could not read {0}, searching by {1}", entryDN, uid);
+            return null;
+        } finally {
+            connection.releaseContext(ctx);
+        }
+    }
+
+    private ConnectorObject searchEntryToBeUpdated(final Uid uid, final ObjectClass oclass) {
         OperationOptionsBuilder builder = new OperationOptionsBuilder();
         builder.setAttributesToGet(Arrays.asList(UACCONTROL_ATTR, SDDL_ATTR, OBJECTSID, PRIMARYGROUPID));
 
         final String filter = connection.getSchema().getLdapUidAttribute(oclass) + "=" + uid.getUidValue();
 
-        LOG.ok("Searching for object of class {0} with filter {1}", oclass.getObjectClassValue(), filter);
+        if (LOG.isOk()) {
+            LOG.ok("Searching for object of class {0} with filter {1}", oclass.getObjectClassValue(), filter);
+        }
 
         final ConnectorObject[] results = new ConnectorObject[] { null };
         new ADSearch(connection, oclass, LdapFilter.forNativeFilter(filter), connectorObject -> {
@@ -580,15 +742,22 @@ public class ADUtilities {
     }
 
     private Attributes getAttributes(final String entryDN, final String... attributes) {
+        final LdapContext ctx = connection.leaseContext();
         try {
-            return connection.getInitialContext().getAttributes(entryDN, attributes);
+            return ctx.getAttributes(entryDN, attributes);
         } catch (NamingException e) {
             throw new ConnectorException(e);
+        } finally {
+            connection.releaseContext(ctx);
         }
     }
 
     public javax.naming.directory.Attribute userCannotChangePassword(final String entryDN, final Boolean cannot) {
-        javax.naming.directory.Attribute ntSecurityDescriptor = getAttributes(entryDN, SDDL_ATTR).get(SDDL_ATTR);
+        return userCannotChangePassword(getAttributes(entryDN, SDDL_ATTR), cannot);
+    }
+
+    public javax.naming.directory.Attribute userCannotChangePassword(final Attributes profile, final Boolean cannot) {
+        javax.naming.directory.Attribute ntSecurityDescriptor = profile.get(SDDL_ATTR);
         if (ntSecurityDescriptor == null) {
             return null;
         }
@@ -620,7 +789,17 @@ public class ADUtilities {
     }
 
     public Set<SearchResult> basicLdapSearch(final String filter, final String... baseContextDNs) {
-        final LdapContext ctx = connection.getInitialContext();
+        final LdapContext ctx = connection.leaseContext();
+        try {
+            return basicLdapSearch(ctx, filter, baseContextDNs);
+        } finally {
+            connection.releaseContext(ctx);
+        }
+    }
+
+    private Set<SearchResult> basicLdapSearch(
+            final LdapContext ctx, final String filter, final String... baseContextDNs) {
+
 
         // -----------------------------------
         // Create basicLdapSearch control
@@ -634,7 +813,7 @@ public class ADUtilities {
 
         for (String baseContextDn : baseContextDNs) {
             if (LOG.isOk()) {
-                LOG.ok("Searching from " + baseContextDn);
+                LOG.ok("Searching from {0}", baseContextDn);
             }
 
             try {
@@ -652,6 +831,197 @@ public class ADUtilities {
         return result;
     }
 
+    /**
+     * Get the groups, under group base contexts, having the given entry as member, according to the configured
+     * retrieval mode.
+     *
+     * @param entry entry
+     * @param profile entry profile
+     * @return group DNs
+     * @throws NamingException if anything goes wrong while reading memberOf values
+     */
+    private Set<String> getLdapGroups(final LdapEntry entry, final Attributes profile) throws NamingException {
+        final ADConfiguration conf = (ADConfiguration) connection.getConfiguration();
+
+        if (ADConfiguration.LDAP_GROUPS_RETRIEVAL_MEMBEROF.equals(conf.getLdapGroupsRetrieval())) {
+            final Set<String> ldapGroups = getMemberOf(profile, conf.getGroupBaseContexts());
+            if (ldapGroups != null) {
+                return ldapGroups;
+            }
+        } else if (ADConfiguration.LDAP_GROUPS_RETRIEVAL_INDEX.equals(conf.getLdapGroupsRetrieval())
+                && membershipIndexEnabled) {
+
+            if (!membershipIndexBuilt && ++ldapGroupsLookups > MEMBERSHIP_INDEX_THRESHOLD) {
+                membershipIndex = buildMembershipIndex(conf.getGroupBaseContexts());
+                membershipIndexBuilt = true;
+            }
+
+            if (membershipIndex != null) {
+                final Set<String> ldapGroups = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                Optional.ofNullable(membershipIndex.get(entry.getDN())).ifPresent(ldapGroups::addAll);
+                return ldapGroups;
+            }
+        }
+
+        return getGroups(entry.getDN().toString());
+    }
+
+    /**
+     * Get memberOf values under the given base contexts.
+     *
+     * @param profile entry profile
+     * @param baseContexts base contexts
+     * @return memberOf values under the given base contexts, or null if memberOf values were returned by range
+     * @throws NamingException if anything goes wrong while reading memberOf values
+     */
+    public Set<String> getMemberOf(final Attributes profile, final String... baseContexts) throws NamingException {
+        final NamingEnumeration<String> ids = profile.getIDs();
+        while (ids.hasMore()) {
+            if (ids.next().toLowerCase().startsWith(ADConnector.MEMBEROF.toLowerCase() + ";range=")) {
+                return null;
+            }
+        }
+
+        final Set<String> ldapGroups = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+        final javax.naming.directory.Attribute memberOf = profile.get(ADConnector.MEMBEROF);
+        if (memberOf != null) {
+            final NamingEnumeration<?> values = memberOf.getAll();
+            while (values.hasMore()) {
+                final String dn = values.next().toString();
+                if (isUnder(dn, baseContexts)) {
+                    ldapGroups.add(dn);
+                }
+            }
+        }
+
+        return ldapGroups;
+    }
+
+    /**
+     * Enable the member to groups index for ldapGroups retrieval: the index is built only once groups have been
+     * looked for a given number of entries, in order to avoid a full scan of groups for searches returning just a
+     * few entries.
+     */
+    public void enableMembershipIndex() {
+        if (!membershipIndexEnabled) {
+            membershipIndexEnabled = true;
+            membershipIndexBuilt = false;
+            membershipIndex = null;
+            ldapGroupsLookups = 0;
+        }
+    }
+
+    /**
+     * Build an index from members to groups having them as members, with a paged scan of groups under the given
+     * base contexts.
+     *
+     * @param baseContexts group base contexts
+     * @return member to group DNs index, or null if the scan failed
+     */
+    public Map<LdapName, Set<String>> buildMembershipIndex(final String... baseContexts) {
+        final String member = connection.getConfiguration().getGroupMemberAttribute();
+
+        final Map<LdapName, Set<String>> index = new HashMap<>();
+
+        LdapContext ctx = null;
+        try {
+            // paged results control is set below, page by page
+            ctx = connection.leaseContext(null);
+
+            final SearchControls searchCtls = LdapInternalSearch.createDefaultSearchControls();
+            searchCtls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+            searchCtls.setReturningAttributes(new String[] { member });
+
+            for (String baseContextDn : baseContexts) {
+                byte[] cookie = null;
+                do {
+                    ctx.setRequestControls(new Control[] {
+                        new PagedResultsControl(MEMBERSHIP_INDEX_PAGE_SIZE, cookie, Control.CRITICAL) });
+
+                    final NamingEnumeration<SearchResult> answer =
+                            ctx.search(baseContextDn, "(objectClass=group)", searchCtls);
+                    while (answer.hasMoreElements()) {
+                        final SearchResult group = answer.nextElement();
+                        for (String memberDN : getMembers(group, member)) {
+                            try {
+                                index.computeIfAbsent(new LdapName(memberDN), k -> new HashSet<>()).
+                                        add(group.getNameInNamespace());
+                            } catch (InvalidNameException e) {
+                                LOG.error(e, "Invalid member DN {0}", memberDN);
+                            }
+                        }
+                    }
+
+                    cookie = null;
+                    final Control[] rspCtls = ctx.getResponseControls();
+                    if (rspCtls != null) {
+                        for (Control rspCtl : rspCtls) {
+                            if (rspCtl instanceof PagedResultsResponseControl) {
+                                cookie = ((PagedResultsResponseControl) rspCtl).getCookie();
+                            }
+                        }
+                    }
+                } while (cookie != null && cookie.length > 0);
+            }
+        } catch (NamingException | IOException | ConnectorException e) {
+            LOG.error(e, "While building member to groups index");
+            return null;
+        } finally {
+            connection.releaseContext(ctx);
+        }
+
+        if (LOG.isOk()) {
+            LOG.ok("Member to groups index built for {0} members", index.size());
+        }
+
+        return index;
+    }
+
+    /**
+     * Get all members of the given group, reading further ranges when needed.
+     */
+    private List<String> getMembers(final SearchResult group, final String member) throws NamingException {
+        final List<String> members = new ArrayList<>();
+        streamRangeValues(group.getNameInNamespace(), group.getAttributes(), member,
+                values -> values.forEach(value -> members.add(value.toString())));
+        return members;
+    }
+
+    /**
+     * Hand the values of the given multi-valued attribute to the given callback, range by range: values returned
+     * with the given profile first, then further ranges read from the server, if any.
+     *
+     * @param dn entry DN
+     * @param profile entry profile, holding the attribute or its first range
+     * @param attrName attribute name, with no range option
+     * @param callback callback receiving values range by range
+     * @throws NamingException if anything goes wrong while reading values
+     */
+    public void streamRangeValues(
+            final String dn,
+            final Attributes profile,
+            final String attrName,
+            final Consumer<List<Object>> callback)
+            throws NamingException {
+
+        final javax.naming.directory.Attribute attr = ADRangeRetrieval.getRangeAttribute(profile, attrName);
+        if (attr == null) {
+            return;
+        }
+
+        final List<Object> values = new ArrayList<>(attr.size());
+        final NamingEnumeration<?> ne = attr.getAll();
+        while (ne.hasMore()) {
+            values.add(ne.next());
+        }
+        callback.accept(values);
+
+        if (ADRangeRetrieval.hasMore(attr)) {
+            new ADRangeRetrieval(connection).retrieve(dn, attrName, ADRangeRetrieval.getNext(attr), callback);
+        }
+    }
+
     public Set<String> getGroups(final String entryDN) {
         return getGroups(entryDN, ((ADConfiguration) connection.getConfiguration()).getGroupBaseContexts());
     }
@@ -667,6 +1037,18 @@ public class ADUtilities {
         return ldapGroups;
     }
 
+    private static Integer getUAC(final Attributes profile) {
+        try {
+            final String uac = profile.get(UACCONTROL_ATTR) == null || profile.get(UACCONTROL_ATTR).get() == null
+                    ? null : profile.get(UACCONTROL_ATTR).get().toString();
+
+            return uac == null ? null : Integer.valueOf(uac);
+        } catch (NamingException e) {
+            LOG.error(e, "While fetching " + UACCONTROL_ATTR);
+            return null;
+        }
+    }
+
     private Attribute manageUACAttribute(final Attributes profile,
             final ObjectClass oclass,
             final LdapEntry entry,
@@ -679,10 +1061,6 @@ public class ADUtilities {
                     || profile.get(UACCONTROL_ATTR).get() == null
                     ? null : profile.get(UACCONTROL_ATTR).get().toString();
 
-            if (LOG.isOk()) {
-                LOG.ok("User Account Control: {0}", status);
-            }
-
             // enabled if UF_ACCOUNTDISABLE is not included (0x00002)
             builder.addAttribute(
                     status == null || Integer.parseInt(
@@ -15,8 +15,12 @@
  */
 package net.tirasa.connid.bundles.ad.util;
 
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.LdapContext;
@@ -31,6 +35,10 @@ public class DirSyncUtils {
 
     private static final Log LOG = Log.getLog(DirSyncUtils.class);
 
+    private static final int MAX_PARSED_FILTERS = 100;
+
+    private static final Map<String, Optional<ADFilter>> PARSED_FILTERS = new ConcurrentHashMap<>();
+
     public static String createDirSyncUFilter(final ADConfiguration conf, final ADUtilities utils) {
 
         final String isDeleted = String.valueOf(conf.isRetrieveDeletedUser()).toUpperCase();
@@ -185,6 +193,51 @@ public class DirSyncUtils {
         return found;
     }
 
+    /**
+     * Verify the given filter against the given profile, in-process when possible, otherwise by asking the server.
+     *
+     * @param ctx ldap context.
+     * @param dn entry distinguished name.
+     * @param profile entry profile, including all the attributes the filter is about.
+     * @param filter filter to verify.
+     * @return TRUE if verified; FALSE otherwise.
+     */
+    public static boolean verifyFilter(
+            final LdapContext ctx,
+            final String dn,
+            final Attributes profile,
+            final String filter) {
+
+        if (StringUtil.isBlank(filter)) {
+            return true;
+        }
+
+        final Boolean matches = Optional.ofNullable(parseFilter(filter)).map(f -> f.matches(profile)).orElse(null);
+        if (matches == null) {
+            return verifyFilter(ctx, dn, filter);
+        }
+
+        return matches;
+    }
+
+    /**
+     * Parse the given filter for in-process evaluation.
+     *
+     * @param filter filter.
+     * @return parsed filter, or null if it cannot be evaluated in-process.
+     */
+    public static ADFilter parseFilter(final String filter) {
+        if (StringUtil.isBlank(filter)) {
+            return null;
+        }
+
+        if (PARSED_FILTERS.size() > MAX_PARSED_FILTERS) {
+            PARSED_FILTERS.clear();
+        }
+
+        return PARSED_FILTERS.computeIfAbsent(filter, f -> Optional.ofNullable(ADFilter.parse(f))).orElse(null);
+    }
+
     private static String getFilter(final AbstractConfiguration conf) {
         return ((ADConfiguration) conf).getAccountSearchFilter();
     }
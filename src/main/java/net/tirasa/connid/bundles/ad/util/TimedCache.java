@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded cache whose entries expire after a given time to live; least recently used entries are evicted first.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class TimedCache<K, V> {
+
+    private static class Entry<V> {
+
+        private final V value;
+
+        private final long expiresAt;
+
+        Entry(final V value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long ttlMillis;
+
+    private final Map<K, Entry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public TimedCache(final int maxSize, final long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = -2837428611476094547L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the value cached for the given key.
+     *
+     * @param key key
+     * @return cached value, or null if not found or expired
+     */
+    public V get(final K key) {
+        final Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(key);
+            }
+        }
+
+        if (entry == null || entry.expiresAt < System.currentTimeMillis()) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Get the value cached for the given key, computing and caching it if not found or expired.
+     * Null values are not cached.
+     *
+     * @param key key
+     * @param loader function computing the value to cache
+     * @return cached or computed value
+     */
+    public V get(final K key, final Function<K, V> loader) {
+        V value = get(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public void put(final K key, final V value) {
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    public void invalidate(final K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
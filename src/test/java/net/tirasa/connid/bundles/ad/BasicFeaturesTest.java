@@ -15,13 +15,58 @@
  */
 package net.tirasa.connid.bundles.ad;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.management.MBeanServer;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.adsddl.ntsd.utils.GUID;
+import net.tirasa.adsddl.ntsd.utils.Hex;
+import net.tirasa.connid.bundles.ad.crud.ADBulkOperation;
+import net.tirasa.connid.bundles.ad.crud.ADBulkResult;
+import net.tirasa.connid.bundles.ad.search.ADSearch;
+import net.tirasa.connid.bundles.ad.util.ADExtendedDN;
+import net.tirasa.connid.bundles.ad.util.ADFilter;
+import net.tirasa.connid.bundles.ad.util.ADInstrumentedContext;
+import net.tirasa.connid.bundles.ad.util.ADJmxMetricsRegistry;
+import net.tirasa.connid.bundles.ad.util.ADMetrics;
+import net.tirasa.connid.bundles.ad.util.ADProjection;
+import net.tirasa.connid.bundles.ad.util.ADRangeRetrieval;
+import net.tirasa.connid.bundles.ad.util.ADReadEntryControl;
+import net.tirasa.connid.bundles.ad.util.ADTrace;
 import net.tirasa.connid.bundles.ad.util.ADUtilities;
 import net.tirasa.connid.bundles.ad.util.DirSyncUtils;
 import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConfigurationException;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.Uid;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -107,4 +152,346 @@ public class BasicFeaturesTest {
                 + "(objectClass=group)"
                 + "(&(isDeleted=TRUE)(objectClass=user)))", filter);
     }
+
+    @Test
+    public void evaluateFilter() {
+        final Attributes profile = new BasicAttributes(true);
+        profile.put(new BasicAttribute("objectClass", "top"));
+        profile.get("objectClass").add("user");
+        profile.put(new BasicAttribute("sAMAccountName", "JDoe"));
+        profile.put(new BasicAttribute("userAccountControl", "514"));
+        profile.put(new BasicAttribute("memberOf", "CN=groupA,CN=group,O=isp"));
+        profile.get("memberOf").add("cn=groupB, cn=group, o=isp");
+        profile.put(new BasicAttribute("isDeleted", "FALSE"));
+
+        final String userFilter = DirSyncUtils.getUserFilter((ADConfiguration) connector.getConfiguration());
+        assertTrue(DirSyncUtils.parseFilter(userFilter).matches(profile) == Boolean.FALSE);
+
+        profile.get("memberOf").add("cn=groupC,cn=group,o=isp");
+        assertTrue(DirSyncUtils.parseFilter(userFilter).matches(profile));
+
+        assertTrue(ADFilter.parse("(samaccountname=jdoe)").matches(profile));
+        assertTrue(ADFilter.parse("(sAMAccountName=j*o*)").matches(profile));
+        assertFalse(ADFilter.parse("(sAMAccountName=*x*)").matches(profile));
+        assertTrue(ADFilter.parse("(&(sAMAccountName=*)(!(isDeleted=TRUE)))").matches(profile));
+        assertTrue(ADFilter.parse("(userAccountControl:1.2.840.113556.1.4.803:=2)").matches(profile));
+        assertFalse(ADFilter.parse("(userAccountControl:1.2.840.113556.1.4.803:=6)").matches(profile));
+        assertTrue(ADFilter.parse("(userAccountControl:1.2.840.113556.1.4.804:=6)").matches(profile));
+        assertTrue(ADFilter.parse("(userAccountControl>=500)").matches(profile));
+        assertFalse(ADFilter.parse("(userAccountControl<=500)").matches(profile));
+        assertTrue(ADFilter.parse("(|(sAMAccountName=jdoe)(description=x))").matches(profile));
+        assertFalse(ADFilter.parse("(&(sAMAccountName=x)(description=x))").matches(profile));
+
+        // attributes missing from the profile could be just not reported
+        assertNull(ADFilter.parse("(! (description=x))").matches(profile));
+        assertNull(ADFilter.parse("(description=*)").matches(profile));
+        profile.put(new BasicAttribute("description", "y"));
+        assertTrue(ADFilter.parse("(! (description=x))").matches(profile));
+        profile.put(new BasicAttribute("member;range=0-1499", "cn=user0,cn=users,o=isp"));
+        assertNull(ADFilter.parse("(member=cn=user0,cn=users,o=isp)").matches(profile));
+
+        // to be evaluated by the server
+        assertNull(ADFilter.parse("(memberOf:1.2.840.113556.1.4.1941:=cn=groupA,cn=group,o=isp)"));
+        assertNull(ADFilter.parse("(objectCategory=person)"));
+        assertNull(ADFilter.parse("(cn~=jdoe)"));
+        assertNull(ADFilter.parse("(cn=jdoe"));
+    }
+
+    @Test
+    public void parseRange() throws Exception {
+        final Attributes profile = new BasicAttributes(true);
+        profile.put(new BasicAttribute("member;range=0-1499", "cn=user0,cn=users,o=isp"));
+
+        BasicAttribute member = (BasicAttribute) ADRangeRetrieval.getRangeAttribute(profile, "member");
+        assertNotNull(member);
+        assertTrue(ADRangeRetrieval.hasMore(member));
+        assertEquals(1500, ADRangeRetrieval.getNext(member));
+
+        member = new BasicAttribute("member;range=3000-*", "cn=user3000,cn=users,o=isp");
+        assertFalse(ADRangeRetrieval.hasMore(member));
+        assertEquals(3001, ADRangeRetrieval.getNext(member));
+
+        profile.put(new BasicAttribute("member", "cn=user0,cn=users,o=isp"));
+        assertFalse(ADRangeRetrieval.hasMore(ADRangeRetrieval.getRangeAttribute(profile, "member")));
+        assertNull(ADRangeRetrieval.getRangeAttribute(profile, "memberOf"));
+    }
+
+    @Test
+    public void decodePostRead() throws Exception {
+        final byte[] cn = tlv(0x30, tlv(0x04, "cn".getBytes()), tlv(0x31, tlv(0x04, "jdoe".getBytes())));
+        final byte[] guid = tlv(0x30,
+                tlv(0x04, ADConnector.OBJECTGUID.getBytes()), tlv(0x31, tlv(0x04, new byte[] { 1, 2 })));
+        final byte[] entry = tlv(0x64, tlv(0x04, "cn=jdoe,o=isp".getBytes()), tlv(0x30, cn, guid));
+
+        final Attributes attrs = ADReadEntryControl.getEntry(
+                new Control[] { new BasicControl(ADReadEntryControl.POST_READ_OID, false, entry) },
+                ADReadEntryControl.POST_READ_OID,
+                ADConnector.OBJECTGUID::equalsIgnoreCase);
+        assertNotNull(attrs);
+        assertEquals("jdoe", attrs.get("cn").get());
+        assertArrayEquals(new byte[] { 1, 2 }, (byte[]) attrs.get(ADConnector.OBJECTGUID).get());
+
+        assertNull(ADReadEntryControl.getEntry(null, ADReadEntryControl.POST_READ_OID, attr -> false));
+    }
+
+    @Test
+    public void bulkReportsPerItemResults() {
+        final ADConfiguration conf = (ADConfiguration) connector.getConfiguration();
+
+        final ADConnector pwdOnly = new ADConnector();
+        pwdOnly.init(conf);
+        try {
+            conf.setPwdUpdateOnly(true);
+            conf.setBulkConcurrency(3);
+
+            final List<ADBulkOperation> operations = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                operations.add(ADBulkOperation.delete(ObjectClass.ACCOUNT, new Uid("user" + i), null));
+            }
+            operations.add(ADBulkOperation.create(ObjectClass.ACCOUNT, Collections.emptySet(), null));
+
+            final List<ADBulkResult> results = pwdOnly.bulk(operations);
+            assertEquals(operations.size(), results.size());
+            for (int i = 0; i < operations.size(); i++) {
+                assertSame(operations.get(i), results.get(i).getOperation());
+                assertFalse(results.get(i).isSuccess());
+                assertTrue(results.get(i).getError() instanceof IllegalStateException);
+            }
+        } finally {
+            conf.setPwdUpdateOnly(false);
+            conf.setBulkConcurrency(1);
+            pwdOnly.dispose();
+        }
+    }
+
+    @Test
+    public void bulkOnCallingConnection() {
+        final ADConfiguration conf = (ADConfiguration) connector.getConfiguration();
+
+        // utilities used by each thread
+        final Map<String, Set<ADUtilities>> utilities = new ConcurrentHashMap<>();
+        final ADConnector bulk = new ADConnector() {
+
+            @Override
+            public void delete(
+                    final ObjectClass oclass, final Uid uid, final OperationOptions options, final ADUtilities utils) {
+
+                utilities.computeIfAbsent(Thread.currentThread().getName(), name -> ConcurrentHashMap.newKeySet()).
+                        add(utils);
+            }
+        };
+        bulk.init(conf);
+        try {
+            conf.setBulkConcurrency(3);
+            conf.setContextPoolMaxSize(2);
+
+            final List<ADBulkOperation> operations = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                operations.add(ADBulkOperation.delete(ObjectClass.ACCOUNT, new Uid("user" + i), null));
+            }
+            assertTrue(bulk.bulk(operations).stream().allMatch(ADBulkResult::isSuccess));
+
+            // performed by the connector called, on no more threads than pooled contexts, each with its own utilities
+            assertTrue(utilities.size() <= 2);
+            utilities.values().forEach(used -> assertEquals(1, used.size()));
+            assertEquals(utilities.size(), utilities.values().stream().flatMap(Set::stream).distinct().count());
+
+            // sequentially without a context pool
+            utilities.clear();
+            conf.setContextPoolMaxSize(0);
+            assertTrue(bulk.bulk(operations).stream().allMatch(ADBulkResult::isSuccess));
+            assertEquals(Collections.singleton(Thread.currentThread().getName()), utilities.keySet());
+        } finally {
+            conf.setBulkConcurrency(1);
+            conf.setContextPoolMaxSize(0);
+            bulk.dispose();
+        }
+    }
+
+    @Test
+    public void extendedDN() {
+        assertEquals("<GUID=ba36c308-792a-45a9-b374-7f330e9742ab>",
+                ADExtendedDN.get("(objectGUID=ba36c308-792a-45a9-b374-7f330e9742ab)"));
+        assertEquals("<GUID=ba36c308-792a-45a9-b374-7f330e9742ab>",
+                ADExtendedDN.get("objectguid=ba36c308-792a-45a9-b374-7f330e9742ab"));
+        assertEquals("<SID=S-1-5-21-1004336348-1177238915-682003330-512>",
+                ADExtendedDN.get(ADConnector.OBJECTSID, "S-1-5-21-1004336348-1177238915-682003330-512"));
+
+        assertNull(ADExtendedDN.get("(objectGUID=ba36c308*)"));
+        assertNull(ADExtendedDN.get("(&(objectGUID=ba36c308-792a-45a9-b374-7f330e9742ab)(cn=jdoe))"));
+        assertNull(ADExtendedDN.get("sAMAccountName", "jdoe"));
+
+        final List<String> baseDNs = Collections.singletonList("cn=users,o=isp");
+        assertTrue(ADExtendedDN.isInScope("cn=jdoe,cn=users,o=isp", baseDNs, SearchControls.SUBTREE_SCOPE));
+        assertTrue(ADExtendedDN.isInScope("CN=jdoe,OU=a,CN=Users,O=isp", baseDNs, SearchControls.SUBTREE_SCOPE));
+        assertFalse(ADExtendedDN.isInScope("cn=jdoe,ou=a,cn=users,o=isp", baseDNs, SearchControls.ONELEVEL_SCOPE));
+        assertFalse(ADExtendedDN.isInScope("cn=jdoe,cn=groups,o=isp", baseDNs, SearchControls.SUBTREE_SCOPE));
+    }
+
+    @Test
+    public void projection() {
+        final List<String> attrsToGet = Arrays.asList(
+                "ldapGroups", ADConfiguration.PNE_FLAG, ADConnector.UACCONTROL_ATTR, "member;range=0-999", "cn");
+
+        final ADProjection account = new ADProjection(ObjectClass.ACCOUNT, attrsToGet, "member");
+        assertEquals(ADProjection.Kind.LDAP_GROUPS, account.getKind(0));
+        assertEquals(ADProjection.Kind.PNE, account.getKind(1));
+        assertEquals(ADProjection.Kind.UAC, account.getKind(2));
+        assertEquals(ADProjection.Kind.PLAIN, account.getKind(3));
+        assertEquals(ADProjection.Kind.PLAIN, account.getKind(4));
+        assertTrue(account.isUACNeeded());
+        assertTrue(account.isFor(ObjectClass.ACCOUNT, attrsToGet));
+        assertFalse(account.isFor(ObjectClass.GROUP, attrsToGet));
+
+        final ADProjection group = new ADProjection(ObjectClass.GROUP, attrsToGet, "member");
+        assertEquals(ADProjection.Kind.PLAIN, group.getKind(1));
+        assertEquals(ADProjection.Kind.PLAIN, group.getKind(2));
+        assertEquals(ADProjection.Kind.MEMBER_RANGE, group.getKind(3));
+        assertFalse(group.isUACNeeded());
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        assertFalse(ADMetrics.NONE.isEnabled());
+
+        final String key = "ldap://localhost:389|cn=Administrator,cn=Users,o=isp";
+        final ADMetrics metrics = ADMetrics.acquire(key, ADJmxMetricsRegistry.class.getName());
+        assertTrue(metrics.isEnabled());
+        assertSame(metrics, ADMetrics.acquire(key, ADJmxMetricsRegistry.class.getName()));
+
+        final Attributes entry = new BasicAttributes(true);
+        entry.put("cn", "jdoe");
+        final LdapContext ctx = ADInstrumentedContext.wrap((LdapContext) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { LdapContext.class },
+                (proxy, method, args) -> "getAttributes".equals(method.getName()) ? entry : null), metrics);
+        assertSame(entry, ctx.getAttributes("cn=jdoe,cn=users,o=isp"));
+        metrics.record("search", System.nanoTime());
+
+        assertEquals(1L, metrics.getCounters().get("ldap.roundTrips"));
+        assertEquals(1L, metrics.getLatencies().get("ldap.getAttributes").getCount());
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final TabularData counters = (TabularData) server.getAttribute(
+                ADJmxMetricsRegistry.getObjectName(key), "Counters");
+        assertEquals(1L, counters.get(new Object[] { "ldap.roundTrips" }).get("value"));
+        final TabularData latencies = (TabularData) server.getAttribute(
+                ADJmxMetricsRegistry.getObjectName(key), "Latencies");
+        assertEquals(1L, ((CompositeData) latencies.get(new Object[] { "search" }).get("value")).get("count"));
+
+        metrics.reset();
+        assertEquals(0L, metrics.getCounters().get("ldap.roundTrips"));
+
+        metrics.release();
+        assertTrue(server.isRegistered(ADJmxMetricsRegistry.getObjectName(key)));
+        metrics.release();
+        assertFalse(server.isRegistered(ADJmxMetricsRegistry.getObjectName(key)));
+    }
+
+    @Test
+    public void trace() {
+        assertFalse(ADTrace.NONE.sample());
+
+        final ADConfiguration conf = (ADConfiguration) connector.getConfiguration();
+        assertSame(ADTrace.NONE, new ADConnection(conf).getTrace());
+
+        conf.setConnectorMessages((key, dflt, args) -> key);
+        conf.setTraceSampleRate(-1);
+        try {
+            assertEquals("traceSampleRate.invalid",
+                    assertThrows(ConfigurationException.class, conf::validate).getMessage());
+
+            conf.setTraceSampleRate(10);
+            conf.validate();
+            assertNotSame(ADTrace.NONE, new ADConnection(conf).getTrace());
+        } finally {
+            conf.setTraceSampleRate(0);
+            conf.setConnectorMessages(null);
+        }
+    }
+
+    @Test
+    public void negativeSettings() {
+        final ADConfiguration conf = (ADConfiguration) connector.getConfiguration();
+        conf.setConnectorMessages((key, dflt, args) -> key);
+        try {
+            conf.setDirSyncMaxBytes(-1);
+            assertEquals("dirSyncMaxBytes.invalid",
+                    assertThrows(ConfigurationException.class, conf::validate).getMessage());
+            conf.setDirSyncMaxBytes(0);
+
+            conf.setContextPoolMaxSize(-1);
+            assertEquals("contextPoolMaxSize.invalid",
+                    assertThrows(ConfigurationException.class, conf::validate).getMessage());
+            conf.setContextPoolMaxSize(0);
+
+            conf.setContextPoolMaxIdleTime(-1);
+            assertEquals("contextPoolMaxIdleTime.invalid",
+                    assertThrows(ConfigurationException.class, conf::validate).getMessage());
+            conf.setContextPoolMaxIdleTime(0);
+
+            conf.setContextPoolMaxLifetime(-1);
+            assertEquals("contextPoolMaxLifetime.invalid",
+                    assertThrows(ConfigurationException.class, conf::validate).getMessage());
+            conf.setContextPoolMaxLifetime(0);
+
+            conf.setMembershipBatchSize(-1);
+            assertEquals("membershipBatchSize.invalid",
+                    assertThrows(ConfigurationException.class, conf::validate).getMessage());
+            conf.setMembershipBatchSize(0);
+
+            conf.setMembershipBatchLatency(-1);
+            assertEquals("membershipBatchLatency.invalid",
+                    assertThrows(ConfigurationException.class, conf::validate).getMessage());
+            conf.setMembershipBatchLatency(0);
+
+            // 0 stands for no limit or disabled
+            conf.validate();
+        } finally {
+            conf.setDirSyncMaxBytes(0);
+            conf.setContextPoolMaxSize(0);
+            conf.setContextPoolMaxIdleTime(300);
+            conf.setContextPoolMaxLifetime(1800);
+            conf.setMembershipBatchSize(0);
+            conf.setMembershipBatchLatency(100);
+            conf.setConnectorMessages(null);
+        }
+    }
+
+    @Test
+    public void guidSearchFilter() {
+        final String guid1 = "ba36c308-792a-45a9-b374-7f330e9742ab";
+        final String guid2 = "0b8f2e44-1c77-4d1a-9a2b-5f6e7d8c9b0a";
+
+        class FilterSearch extends ADSearch {
+
+            FilterSearch() {
+                super(new ADConnection((ADConfiguration) connector.getConfiguration()), ObjectClass.ACCOUNT,
+                        null, connectorObject -> true, new OperationOptionsBuilder().build());
+            }
+
+            String filter(final String nativeFilter) {
+                return getSearchFilter(nativeFilter);
+            }
+        }
+
+        final String filter = new FilterSearch().filter("(|(objectGUID=" + guid1 + ")(ObjectGUID=" + guid2 + "))");
+
+        // each objectGUID assertion is rewritten from its own offset
+        assertTrue(filter.contains("(objectGUID=" + Hex.getEscaped(GUID.getGuidAsByteArray(guid1)) + ")"), filter);
+        assertTrue(filter.contains("(ObjectGUID=" + Hex.getEscaped(GUID.getGuidAsByteArray(guid2)) + ")"), filter);
+    }
+
+    private static byte[] tlv(final int tag, final byte[]... values) {
+        final ByteArrayOutputStream value = new ByteArrayOutputStream();
+        for (byte[] v : values) {
+            value.write(v, 0, v.length);
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        out.write(value.size());
+        out.write(value.toByteArray(), 0, value.size());
+        return out.toByteArray();
+    }
 }
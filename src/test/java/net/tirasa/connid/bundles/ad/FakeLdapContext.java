@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.InitialDirContext;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.ExtendedRequest;
+import javax.naming.ldap.ExtendedResponse;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * Directory context without any directory behind: unit tests override the operations they exercise, any other
+ * directory operation fails.
+ */
+public class FakeLdapContext extends InitialDirContext implements LdapContext {
+
+    protected Control[] requestControls;
+
+    protected Control[] responseControls;
+
+    private boolean closed;
+
+    public FakeLdapContext() throws NamingException {
+        super(true);
+    }
+
+    /**
+     * Build a search result.
+     *
+     * @param dn entry DN
+     * @param attrs alternating attribute names and values
+     * @return search result
+     */
+    public static SearchResult entry(final String dn, final Object... attrs) {
+        final BasicAttributes attributes = new BasicAttributes(true);
+        for (int i = 0; i + 1 < attrs.length; i += 2) {
+            attributes.put(attrs[i].toString(), attrs[i + 1]);
+        }
+
+        final SearchResult result = new SearchResult(dn, null, attributes, false);
+        result.setNameInNamespace(dn);
+        return result;
+    }
+
+    @SafeVarargs
+    public static <T> NamingEnumeration<T> results(final T... results) {
+        return results(Arrays.asList(results));
+    }
+
+    public static <T> NamingEnumeration<T> results(final List<T> results) {
+        final Iterator<T> iterator = results.iterator();
+        return new NamingEnumeration<T>() {
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public boolean hasMore() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public void close() {
+                // nothing to close
+            }
+
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T nextElement() {
+                return iterator.next();
+            }
+        };
+    }
+
+    @Override
+    public ExtendedResponse extendedOperation(final ExtendedRequest request) throws NamingException {
+        throw new OperationNotSupportedException();
+    }
+
+    @Override
+    public LdapContext newInstance(final Control[] requestControls) throws NamingException {
+        throw new OperationNotSupportedException();
+    }
+
+    @Override
+    public void reconnect(final Control[] connCtls) throws NamingException {
+        // nothing to reconnect
+    }
+
+    @Override
+    public Control[] getConnectControls() {
+        return null;
+    }
+
+    @Override
+    public void setRequestControls(final Control[] requestControls) throws NamingException {
+        this.requestControls = requestControls;
+    }
+
+    @Override
+    public Control[] getRequestControls() {
+        return requestControls;
+    }
+
+    @Override
+    public Control[] getResponseControls() {
+        return responseControls;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
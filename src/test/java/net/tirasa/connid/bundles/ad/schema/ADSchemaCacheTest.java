@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.schema;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.FakeLdapContext;
+import org.identityconnectors.framework.common.objects.AttributeInfoBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.SchemaBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ADSchemaCacheTest {
+
+    private static final String SCHEMA_NC = "cn=Schema,cn=Configuration,dc=test";
+
+    @TempDir
+    Path snapshots;
+
+    private final ADConfiguration conf = new ADConfiguration();
+
+    /**
+     * Each test has its own forest, not to share the schemas cached in memory with other tests.
+     */
+    private final String forest = "dc=" + UUID.randomUUID();
+
+    private byte[] schemaInfo = new byte[] { (byte) 0xFF, 0, 0, 0, 1 };
+
+    private final AtomicInteger builds = new AtomicInteger();
+
+    private final FakeLdapContext ctx = new FakeLdapContext() {
+
+        @Override
+        public Attributes getAttributes(final String name, final String[] attrIds) throws NamingException {
+            final Attributes attrs = new BasicAttributes(true);
+            if (name.isEmpty()) {
+                attrs.put("rootDomainNamingContext", forest);
+                attrs.put("schemaNamingContext", SCHEMA_NC);
+                attrs.put("dnsHostName", "dc1.test");
+            } else if (SCHEMA_NC.equals(name)) {
+                attrs.put("objectVersion", "88");
+                attrs.put("schemaInfo;binary", schemaInfo);
+            } else {
+                throw new NameNotFoundException(name);
+            }
+            return attrs;
+        }
+    };
+
+    private final ADConnection connection = new ADConnection(conf) {
+
+        @Override
+        public LdapContext leaseContext() {
+            return ctx;
+        }
+
+        @Override
+        public LdapContext leaseContext(final Control[] controls) {
+            return ctx;
+        }
+
+        @Override
+        public LdapContext getInitialContext() {
+            return ctx;
+        }
+    };
+
+    public ADSchemaCacheTest() throws NamingException {
+        conf.setBaseContexts("dc=test");
+    }
+
+    private static Schema schema(final String... attrs) {
+        final SchemaBuilder builder = new SchemaBuilder(ADConnector.class);
+        builder.defineObjectClass(ObjectClass.ACCOUNT_NAME, Collections.singleton(Name.INFO));
+        for (String attr : attrs) {
+            builder.defineObjectClass(attr, Collections.singleton(AttributeInfoBuilder.build(attr)));
+        }
+        return builder.build();
+    }
+
+    private Schema build() {
+        builds.incrementAndGet();
+        return schema("build" + builds.get());
+    }
+
+    private long snapshotCount() throws IOException {
+        try (Stream<Path> files = Files.list(snapshots)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void storeAndLoad() {
+        final Path snapshot = snapshots.resolve("adschema-test.xml");
+        final Schema schema = schema("cn", "mail");
+
+        ADSchemaCache.store(snapshot, "88|ff", schema);
+
+        assertEquals(schema, ADSchemaCache.load(snapshot, "88|ff"));
+    }
+
+    @Test
+    public void outdatedSnapshotNotLoaded() {
+        final Path snapshot = snapshots.resolve("adschema-test.xml");
+        ADSchemaCache.store(snapshot, "88|ff", schema("cn"));
+
+        assertNull(ADSchemaCache.load(snapshot, "88|fe"));
+        assertNull(ADSchemaCache.load(snapshot, "88"));
+    }
+
+    @Test
+    public void missingOrInvalidSnapshotNotLoaded() throws IOException {
+        final Path snapshot = snapshots.resolve("adschema-test.xml");
+        assertNull(ADSchemaCache.load(snapshot, "88|ff"));
+
+        Files.write(snapshot, "88|ff".getBytes(StandardCharsets.UTF_8));
+        assertNull(ADSchemaCache.load(snapshot, "88|ff"));
+
+        Files.write(snapshot, "88|ff\n<invalid".getBytes(StandardCharsets.UTF_8));
+        assertNull(ADSchemaCache.load(snapshot, "88|ff"));
+    }
+
+    @Test
+    public void builtOncePerVersion() {
+        final Schema schema = ADSchemaCache.get(connection, this::build);
+        assertSame(schema, ADSchemaCache.get(connection, this::build));
+        assertEquals(1, builds.get());
+
+        // schema updated
+        schemaInfo = new byte[] { (byte) 0xFF, 0, 0, 0, 2 };
+
+        final Schema updated = ADSchemaCache.get(connection, this::build);
+        assertEquals(2, builds.get());
+        assertEquals(schema("build2"), updated);
+        assertSame(updated, ADSchemaCache.get(connection, this::build));
+    }
+
+    @Test
+    public void builtPerConfiguration() {
+        ADSchemaCache.get(connection, this::build);
+
+        conf.setUidAttribute("objectGUID");
+        ADSchemaCache.get(connection, this::build);
+
+        assertEquals(2, builds.get());
+    }
+
+    @Test
+    public void snapshotStoredAndUpdated() throws IOException {
+        conf.setSchemaSnapshotDirectory(snapshots.toString());
+
+        final Schema schema = ADSchemaCache.get(connection, this::build);
+        assertEquals(1, snapshotCount());
+
+        final Path snapshot;
+        try (Stream<Path> files = Files.list(snapshots)) {
+            snapshot = files.findFirst().get();
+        }
+        assertTrue(snapshot.getFileName().toString().startsWith("adschema-"));
+
+        final String version = "88|FF00000001";
+        assertEquals(schema, ADSchemaCache.load(snapshot, version));
+
+        schemaInfo = new byte[] { (byte) 0xFF, 0, 0, 0, 2 };
+        final Schema updated = ADSchemaCache.get(connection, this::build);
+
+        // the outdated snapshot is replaced
+        assertEquals(1, snapshotCount());
+        assertNull(ADSchemaCache.load(snapshot, version));
+        assertEquals(updated, ADSchemaCache.load(snapshot, "88|FF00000002"));
+    }
+
+    @Test
+    public void notCachedWithoutVersion() throws NamingException {
+        final FakeLdapContext empty = new FakeLdapContext() {
+
+            @Override
+            public Attributes getAttributes(final String name, final String[] attrIds) {
+                return new BasicAttributes(true);
+            }
+        };
+        final ADConnection failing = new ADConnection(conf) {
+
+            @Override
+            public LdapContext leaseContext() {
+                return empty;
+            }
+        };
+
+        ADSchemaCache.get(failing, this::build);
+        ADSchemaCache.get(failing, this::build);
+
+        assertEquals(2, builds.get());
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.FakeLdapContext;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.jupiter.api.Test;
+
+public class ADDefaultSearchStrategyTest {
+
+    /**
+     * Entry DNs under each base DN.
+     */
+    private final Map<String, List<SearchResult>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Base DN, offset and page size of each page requested.
+     */
+    private final List<String> pages = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Offset from which searching each base DN fails, if any.
+     */
+    private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+
+    private final AtomicInteger leased = new AtomicInteger();
+
+    private final AtomicInteger cloned = new AtomicInteger();
+
+    private final AtomicInteger released = new AtomicInteger();
+
+    /**
+     * Most contexts leased at once.
+     */
+    private final AtomicInteger maxLeased = new AtomicInteger();
+
+    private final ADConfiguration conf = new ADConfiguration();
+
+    private final ADConnection connection = new ADConnection(conf) {
+
+        @Override
+        public LdapContext leaseContext(final Control[] controls) {
+            final int current = leased.incrementAndGet() - released.get();
+            maxLeased.accumulateAndGet(current, Math::max);
+            try {
+                return new DirectoryContext();
+            } catch (NamingException e) {
+                throw new ConnectorException(e);
+            }
+        }
+
+        @Override
+        public void releaseContext(final LdapContext ctx) {
+            released.incrementAndGet();
+        }
+    };
+
+    /**
+     * Context paging through {@link #entries}: the paged results cookie is the offset of the next page.
+     */
+    private class DirectoryContext extends FakeLdapContext {
+
+        DirectoryContext() throws NamingException {
+            super();
+        }
+
+        @Override
+        public NamingEnumeration<SearchResult> search(
+                final String name, final String filter, final SearchControls cons) throws NamingException {
+
+            final List<SearchResult> results = entries.get(name);
+            if (results == null) {
+                throw new NameNotFoundException(name);
+            }
+
+            final byte[] request = requestControls[0].getEncodedValue();
+            // SEQUENCE { INTEGER size, OCTET STRING cookie }
+            int size = 0;
+            for (int i = 0; i < request[3]; i++) {
+                size = (size << 8) | (request[4 + i] & 0xff);
+            }
+            final int cookieAt = 4 + request[3];
+            final int offset = request[cookieAt + 1] == 0
+                    ? 0
+                    : Integer.parseInt(new String(
+                            request, cookieAt + 2, request[cookieAt + 1], StandardCharsets.UTF_8));
+
+            pages.add(name + "|" + offset + "|" + size);
+
+            if (offset >= failures.getOrDefault(name, Integer.MAX_VALUE)) {
+                throw new NamingException("Failed reading " + name + " from " + offset);
+            }
+
+            final int end = Math.min(offset + size, results.size());
+            responseControls = end < results.size() ? new Control[] { response(String.valueOf(end)) } : null;
+            return results(new ArrayList<>(results.subList(offset, end)));
+        }
+
+        @Override
+        public LdapContext newInstance(final Control[] requestControls) throws NamingException {
+            cloned.incrementAndGet();
+            return new DirectoryContext();
+        }
+    }
+
+    public ADDefaultSearchStrategyTest() {
+        conf.setSearchPageSize(2);
+    }
+
+    private static Control response(final String cookie) throws NamingException {
+        final byte[] value = cookie.getBytes(StandardCharsets.UTF_8);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x30);
+        out.write(5 + value.length);
+        out.write(0x02);
+        out.write(1);
+        out.write(0);
+        out.write(0x04);
+        out.write(value.length);
+        out.write(value, 0, value.length);
+
+        try {
+            return new PagedResultsResponseControl(PagedResultsControl.OID, false, out.toByteArray());
+        } catch (IOException e) {
+            throw new NamingException(e.getMessage());
+        }
+    }
+
+    private void populate(final String baseDN, final int count) {
+        final List<SearchResult> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            results.add(FakeLdapContext.entry("cn=" + i + "," + baseDN));
+        }
+        entries.put(baseDN, results);
+    }
+
+    private List<String> search(final boolean ignoreNonExistingBaseDNs, final int limit, final String... baseDNs)
+            throws NamingException {
+
+        return search(SearchControls.SUBTREE_SCOPE, ignoreNonExistingBaseDNs, limit, baseDNs);
+    }
+
+    private List<String> search(
+            final int scope, final boolean ignoreNonExistingBaseDNs, final int limit, final String... baseDNs)
+            throws NamingException {
+
+        final SearchControls controls = new SearchControls();
+        controls.setSearchScope(scope);
+
+        final List<String> handled = new ArrayList<>();
+        new ADDefaultSearchStrategy(connection, ignoreNonExistingBaseDNs).doSearch(
+                new DirectoryContext(),
+                Arrays.asList(baseDNs),
+                "(objectClass=*)",
+                controls,
+                (baseDN, result) -> {
+                    handled.add(result.getNameInNamespace());
+                    return handled.size() < limit;
+                });
+        return handled;
+    }
+
+    @Test
+    public void parallelSearchOnLeasedContexts() throws NamingException {
+        conf.setSearchConcurrency(2);
+        populate("ou=a", 5);
+        populate("ou=b", 3);
+        populate("ou=c", 1);
+
+        final List<String> handled = search(false, Integer.MAX_VALUE, "ou=a", "ou=b", "ou=c");
+
+        assertEquals(9, handled.size());
+        assertEquals(3, leased.get());
+        assertEquals(3, released.get());
+    }
+
+    @Test
+    public void parallelSearchStopsEarly() throws NamingException {
+        conf.setSearchConcurrency(2);
+        populate("ou=a", 50);
+        populate("ou=b", 50);
+        populate("ou=c", 50);
+
+        final List<String> handled = search(false, 3, "ou=a", "ou=b", "ou=c");
+
+        assertEquals(3, handled.size());
+        // no base DN is read to the end, and every leased context is given back
+        assertTrue(pages.size() < 75);
+        assertEquals(leased.get(), released.get());
+    }
+
+    @Test
+    public void parallelSearchIgnoresNonExistingBaseDNs() throws NamingException {
+        conf.setSearchConcurrency(2);
+        populate("ou=a", 3);
+        populate("ou=c", 3);
+
+        final List<String> handled = search(true, Integer.MAX_VALUE, "ou=a", "ou=missing", "ou=c");
+
+        assertEquals(6, handled.size());
+        assertEquals(3, released.get());
+    }
+
+    @Test
+    public void parallelSearchFailsOnNonExistingBaseDNs() {
+        conf.setSearchConcurrency(2);
+        populate("ou=a", 3);
+        populate("ou=c", 3);
+
+        assertThrows(
+                NameNotFoundException.class,
+                () -> search(false, Integer.MAX_VALUE, "ou=a", "ou=missing", "ou=c"));
+        assertEquals(leased.get(), released.get());
+    }
+
+    @Test
+    public void parallelSearchLeavesPooledContext() throws NamingException {
+        conf.setSearchConcurrency(3);
+        conf.setContextPoolMaxSize(2);
+        populate("ou=a", 5);
+        populate("ou=b", 3);
+        populate("ou=c", 1);
+
+        assertEquals(9, search(false, Integer.MAX_VALUE, "ou=a", "ou=b", "ou=c").size());
+
+        assertEquals(3, leased.get());
+        assertEquals(3, released.get());
+        assertEquals(1, maxLeased.get());
+    }
+
+    @Test
+    public void parallelSearchWithSinglePooledContext() throws NamingException {
+        conf.setSearchConcurrency(2);
+        conf.setContextPoolMaxSize(1);
+        populate("ou=a", 5);
+        populate("ou=b", 3);
+
+        assertEquals(8, search(false, Integer.MAX_VALUE, "ou=a", "ou=b").size());
+
+        // searched in foreground, leaving the pooled context for lookups
+        assertEquals(0, leased.get());
+        assertEquals(1, cloned.get());
+    }
+
+    @Test
+    public void pageSize() throws NamingException {
+        conf.setSearchPageSize(3);
+        populate("ou=a", 7);
+
+        assertEquals(7, search(false, Integer.MAX_VALUE, "ou=a").size());
+        assertEquals(Arrays.asList("ou=a|0|3", "ou=a|3|3", "ou=a|6|3"), pages);
+        // searched on a context of its own
+        assertEquals(1, cloned.get());
+        assertEquals(0, leased.get());
+    }
+
+    @Test
+    public void prefetchInOrder() throws NamingException {
+        conf.setSearchPrefetch(true);
+        populate("ou=a", 9);
+
+        final List<String> handled = search(false, Integer.MAX_VALUE, "ou=a");
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            expected.add("cn=" + i + ",ou=a");
+        }
+        assertEquals(expected, handled);
+        assertEquals(Arrays.asList("ou=a|0|2", "ou=a|2|2", "ou=a|4|2", "ou=a|6|2", "ou=a|8|2"), pages);
+        assertEquals(1, leased.get());
+        assertEquals(1, released.get());
+    }
+
+    @Test
+    public void prefetchDrainedOnStop() throws NamingException {
+        conf.setSearchPrefetch(true);
+        populate("ou=a", 1000);
+
+        assertEquals(5, search(false, 5, "ou=a").size());
+
+        // the producer stops once the queue is full, and gives its context back
+        assertTrue(pages.size() < 500);
+        assertEquals(1, released.get());
+    }
+
+    @Test
+    public void prefetchWithSinglePooledContext() throws NamingException {
+        conf.setSearchPrefetch(true);
+        conf.setContextPoolMaxSize(1);
+        populate("ou=a", 5);
+
+        assertEquals(5, search(false, Integer.MAX_VALUE, "ou=a").size());
+
+        // searched in foreground, leaving the pooled context for lookups
+        assertEquals(Arrays.asList("ou=a|0|2", "ou=a|2|2", "ou=a|4|2"), pages);
+        assertEquals(0, leased.get());
+        assertEquals(1, cloned.get());
+    }
+
+    @Test
+    public void prefetchErrorPropagated() throws NamingException {
+        conf.setSearchPrefetch(true);
+        populate("ou=a", 9);
+        failures.put("ou=a", 4);
+
+        final List<String> handled = new ArrayList<>();
+        final NamingException e = assertThrows(NamingException.class, () -> new ADDefaultSearchStrategy(
+                connection, true).doSearch(
+                new DirectoryContext(),
+                Collections.singletonList("ou=a"),
+                "(objectClass=*)",
+                new SearchControls(),
+                (baseDN, result) -> handled.add(result.getNameInNamespace())));
+
+        assertEquals("Failed reading ou=a from 4", e.getMessage());
+        // results read before the failure are handled first
+        assertEquals(Arrays.asList("cn=0,ou=a", "cn=1,ou=a", "cn=2,ou=a", "cn=3,ou=a"), handled);
+        assertEquals(1, released.get());
+    }
+
+    @Test
+    public void objectScopeNotPrefetched() throws NamingException {
+        conf.setSearchPrefetch(true);
+        conf.setSearchConcurrency(2);
+        populate("<GUID=4d8a7f36-1c2b-4e5f-9a0b-1c2d3e4f5a6b>", 1);
+        populate("cn=user,ou=a", 1);
+
+        assertEquals(2, search(SearchControls.OBJECT_SCOPE, true, Integer.MAX_VALUE,
+                "<GUID=4d8a7f36-1c2b-4e5f-9a0b-1c2d3e4f5a6b>", "cn=user,ou=a").size());
+
+        assertEquals(0, leased.get());
+        assertEquals(1, cloned.get());
+    }
+
+    @Test
+    public void missingExtendedDNNotWarned() throws NamingException {
+        populate("cn=user,ou=a", 1);
+
+        // the default log implementation writes warnings to System.out
+        final PrintStream out = System.out;
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(log, true));
+        try {
+            assertTrue(search(SearchControls.OBJECT_SCOPE, true, Integer.MAX_VALUE,
+                    "<GUID=4d8a7f36-1c2b-4e5f-9a0b-1c2d3e4f5a6b>").isEmpty());
+            assertFalse(log.toString().contains(NameNotFoundException.class.getName()));
+
+            assertEquals(1, search(SearchControls.OBJECT_SCOPE, true, Integer.MAX_VALUE,
+                    "<SID=S-1-5-21-1004336348-1177238915-682003330-512>", "cn=user,ou=a").size());
+            assertFalse(log.toString().contains(NameNotFoundException.class.getName()));
+
+            assertTrue(search(SearchControls.OBJECT_SCOPE, true, Integer.MAX_VALUE, "cn=missing,ou=a").isEmpty());
+            assertTrue(log.toString().contains(NameNotFoundException.class.getName()));
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
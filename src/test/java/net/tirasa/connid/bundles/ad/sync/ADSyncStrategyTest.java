@@ -0,0 +1,489 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.sync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.jndi.ldap.ctl.DirSyncResponseControl;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.adsddl.ntsd.utils.GUID;
+import net.tirasa.adsddl.ntsd.utils.Hex;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.FakeLdapContext;
+import net.tirasa.connid.bundles.ad.util.ADDirSyncControl;
+import net.tirasa.connid.bundles.ad.util.DirSyncUtils;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.jupiter.api.Test;
+
+public class ADSyncStrategyTest {
+
+    private static final String INCOMING = "T0";
+
+    /**
+     * DirSync pages, by base DN and request cookie.
+     */
+    private final Map<String, Page> pages = new HashMap<>();
+
+    /**
+     * Base DN and request cookie of each search performed.
+     */
+    private final List<String> searches = new ArrayList<>();
+
+    /**
+     * DN and sync token of each delta handled.
+     */
+    private final List<String> deltas = new ArrayList<>();
+
+    /**
+     * Results of any other search, by filter.
+     */
+    private final Map<String, List<SearchResult>> found = new HashMap<>();
+
+    /**
+     * Entries read by name.
+     */
+    private final Map<String, Attributes> entries = new HashMap<>();
+
+    /**
+     * Names of the entries read.
+     */
+    private final List<String> reads = new ArrayList<>();
+
+    /**
+     * Attributes requested for each entry read.
+     */
+    private final List<List<String>> readAttributes = new ArrayList<>();
+
+    private static class Page {
+
+        private final List<SearchResult> results;
+
+        private final String cookie;
+
+        private final boolean moreData;
+
+        Page(final boolean moreData, final String cookie, final String... dns) {
+            this.moreData = moreData;
+            this.cookie = cookie;
+            this.results = new ArrayList<>();
+            for (String dn : dns) {
+                results.add(FakeLdapContext.entry(dn));
+            }
+        }
+    }
+
+    private final FakeLdapContext ctx = new FakeLdapContext() {
+
+        @Override
+        public NamingEnumeration<SearchResult> search(
+                final String name, final String filter, final SearchControls cons) throws NamingException {
+
+            final String cookie = cookie(requestControls);
+            if (cookie == null) {
+                searches.add(name + "|" + filter);
+                return results(found.getOrDefault(filter, Collections.emptyList()));
+            }
+
+            final String key = name + "|" + cookie;
+            searches.add(key);
+
+            final Page page = pages.get(key);
+            if (page == null) {
+                throw new NameNotFoundException(key);
+            }
+
+            responseControls = new Control[] { response(page.moreData, page.cookie) };
+            return results(page.results);
+        }
+
+        @Override
+        public Attributes getAttributes(final String name) throws NamingException {
+            return getAttributes(name, null);
+        }
+
+        @Override
+        public Attributes getAttributes(final String name, final String[] attrIds) throws NamingException {
+            reads.add(name);
+            readAttributes.add(attrIds == null ? null : Arrays.asList(attrIds));
+
+            final Attributes attrs = entries.get(name);
+            if (attrs == null) {
+                throw new NameNotFoundException(name);
+            }
+            return attrs;
+        }
+    };
+
+    public ADSyncStrategyTest() throws NamingException {
+        // FakeLdapContext declares NamingException
+    }
+
+    private ADSyncStrategy strategy(final String... baseContextsToSynchronize) {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setBaseContextsToSynchronize(baseContextsToSynchronize);
+
+        return new ADSyncStrategy(new ADConnection(conf)) {
+
+            @Override
+            protected void prefetchProfiles(
+                    final LdapContext ctx,
+                    final ObjectClass oclass,
+                    final Set<String> attrsToGet,
+                    final List<SearchResult> changes) {
+
+                // profiles are not read
+            }
+
+            @Override
+            protected void handleSyncDelta(
+                    final LdapContext ctx,
+                    final ObjectClass oclass,
+                    final SearchResult sr,
+                    final Collection<String> attrsToGet,
+                    final SyncToken token,
+                    final SyncResultsHandler handler) {
+
+                deltas.add(sr.getNameInNamespace() + ":" + value(token));
+            }
+        };
+    }
+
+    /**
+     * Strategy reading entries via the fake context, with delta type and DN of each delta handled.
+     */
+    private ADSyncStrategy readingStrategy(final ADConfiguration conf) {
+        return new ADSyncStrategy(new ADConnection(conf)) {
+
+            @Override
+            protected String[] getProfileAttributesToGet(
+                    final ObjectClass oclass, final Collection<String> attrsToGet) {
+
+                return new String[] { "*" };
+            }
+
+            @Override
+            protected SyncDelta getSyncDelta(
+                    final ObjectClass oclass,
+                    final String entryDN,
+                    final SyncDeltaType syncDeltaType,
+                    final SyncToken token,
+                    final Attributes profile,
+                    final Collection<String> attrsToGet,
+                    final boolean effectiveDelete) {
+
+                deltas.add(syncDeltaType + ":" + entryDN);
+                return null;
+            }
+        };
+    }
+
+    private ADSyncStrategy readingStrategy(final String... baseContextsToSynchronize) {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setBaseContextsToSynchronize(baseContextsToSynchronize);
+        return readingStrategy(conf);
+    }
+
+    private SyncToken sync(final ADSyncStrategy strategy) throws NamingException {
+        final ADSyncStrategy.SyncDeltaStream changes = strategy.new SyncDeltaStream(
+                ctx, ObjectClass.ACCOUNT, Collections.emptySet(), new SyncToken(bytes(INCOMING)), null);
+
+        ctx.setRequestControls(new Control[] { strategy.createDirSyncControl(bytes(INCOMING)) });
+        strategy.search(ctx, "(objectClass=user)", new SearchControls(), true, changes);
+        changes.flush();
+
+        return changes.getToken();
+    }
+
+    @Test
+    public void singleBaseContextCommitsEachPage() throws NamingException {
+        pages.put("ou=a|T0", new Page(true, "a1", "cn=1,ou=a", "cn=2,ou=a"));
+        pages.put("ou=a|a1", new Page(false, "a2", "cn=3,ou=a"));
+
+        final SyncToken token = sync(strategy("ou=a"));
+
+        assertEquals(Arrays.asList("ou=a|T0", "ou=a|a1"), searches);
+        assertEquals(Arrays.asList("cn=1,ou=a:T0", "cn=2,ou=a:a1", "cn=3,ou=a:a2"), deltas);
+        assertEquals("a2", value(token));
+    }
+
+    @Test
+    public void multipleBaseContextsCommitOnlyAtTheEnd() throws NamingException {
+        pages.put("ou=a|T0", new Page(true, "a1", "cn=1,ou=a", "cn=2,ou=a"));
+        pages.put("ou=a|a1", new Page(false, "a2", "cn=3,ou=a"));
+        pages.put("ou=b|T0", new Page(true, "b1", "cn=1,ou=b"));
+        pages.put("ou=b|b1", new Page(false, "b2", "cn=2,ou=b"));
+
+        final SyncToken token = sync(strategy("ou=a", "ou=b"));
+
+        // every base context starts from the incoming cookie
+        assertEquals(Arrays.asList("ou=a|T0", "ou=a|a1", "ou=b|T0", "ou=b|b1"), searches);
+        assertEquals(Arrays.asList(
+                "cn=1,ou=a:T0", "cn=2,ou=a:T0", "cn=3,ou=a:T0", "cn=1,ou=b:T0", "cn=2,ou=b:b2"), deltas);
+        assertEquals("b2", value(token));
+    }
+
+    @Test
+    public void interruptedBaseContextKeepsIncomingToken() throws NamingException {
+        pages.put("ou=a|T0", new Page(false, "a1", "cn=1,ou=a"));
+        pages.put("ou=b|T0", new Page(true, "b1", "cn=1,ou=b"));
+        // second page of ou=b fails
+
+        final SyncToken token = sync(strategy("ou=a", "ou=b"));
+
+        assertEquals(Arrays.asList("ou=a|T0", "ou=b|T0", "ou=b|b1"), searches);
+        assertEquals(Arrays.asList("cn=1,ou=a:T0", "cn=1,ou=b:T0"), deltas);
+        assertEquals(INCOMING, value(token));
+    }
+
+    @Test
+    public void stopsWhenHandlerStops() throws NamingException {
+        pages.put("ou=a|T0", new Page(true, "a1", "cn=1,ou=a", "cn=2,ou=a"));
+        pages.put("ou=a|a1", new Page(false, "a2", "cn=3,ou=a"));
+        pages.put("ou=b|T0", new Page(false, "b1", "cn=1,ou=b"));
+
+        final ADSyncStrategy strategy = strategy("ou=a", "ou=b");
+        ctx.setRequestControls(new Control[] { strategy.createDirSyncControl(bytes(INCOMING)) });
+
+        final List<String> handled = new ArrayList<>();
+        strategy.search(ctx, "(objectClass=user)", new SearchControls(), false, (baseDN, result) -> {
+            handled.add(result.getNameInNamespace());
+            return handled.size() < 1;
+        });
+
+        assertEquals(Collections.singletonList("cn=1,ou=a"), handled);
+        assertEquals(Collections.singletonList("ou=a|T0"), searches);
+    }
+
+    @Test
+    public void prefetchProfilesWithOneSearchPerBaseContext() throws NamingException {
+        final byte[] guid1 = guid(1);
+        final byte[] guid2 = guid(2);
+        final byte[] guid3 = guid(3);
+        final List<SearchResult> changes = Arrays.asList(
+                FakeLdapContext.entry("cn=1,ou=a", ADConnector.OBJECTGUID, guid1),
+                FakeLdapContext.entry("cn=2,ou=a", ADConnector.OBJECTGUID, guid2),
+                FakeLdapContext.entry("cn=3,ou=a", ADConnector.OBJECTGUID, guid3, "isDeleted", "TRUE"));
+
+        final SearchResult profile1 = FakeLdapContext.entry("cn=1,ou=a", ADConnector.OBJECTGUID, guid1, "sn", "1");
+        final SearchResult profile2 = FakeLdapContext.entry("cn=2,ou=a", ADConnector.OBJECTGUID, guid2, "sn", "2");
+        final String filter = "(|(objectGUID=" + Hex.getEscaped(guid1) + ")(objectGUID=" + Hex.getEscaped(guid2) + "))";
+        found.put(filter, Arrays.asList(profile1, profile2));
+
+        final ADSyncStrategy strategy = readingStrategy("ou=a", "ou=b");
+        strategy.prefetchProfiles(ctx, ObjectClass.ACCOUNT, Collections.emptySet(), changes);
+
+        // deleted objects cannot be found by objectGUID: left out
+        assertEquals(Arrays.asList("ou=a|" + filter, "ou=b|" + filter), searches);
+
+        // prefetched profiles are used once
+        assertSame(profile1.getAttributes(), profile(strategy, guid1));
+        assertSame(profile2.getAttributes(), profile(strategy, guid2));
+        assertTrue(reads.isEmpty());
+
+        // anything else is read by GUID
+        final Attributes tombstone = FakeLdapContext.entry("cn=3,ou=a", "isDeleted", "TRUE").getAttributes();
+        entries.put("<GUID=" + GUID.getGuidAsString(guid3) + ">", tombstone);
+        assertSame(tombstone, profile(strategy, guid3));
+        assertThrows(NameNotFoundException.class, () -> profile(strategy, guid1));
+        assertEquals(Arrays.asList(
+                "<GUID=" + GUID.getGuidAsString(guid3) + ">",
+                "<GUID=" + GUID.getGuidAsString(guid1) + ">"), reads);
+    }
+
+    @Test
+    public void prefetchProfilesSkipsSingleChange() {
+        final List<SearchResult> changes = Arrays.asList(
+                FakeLdapContext.entry("cn=1,ou=a", ADConnector.OBJECTGUID, guid(1)),
+                FakeLdapContext.entry("cn=2,ou=a", ADConnector.OBJECTGUID, guid(2), "isDeleted", "TRUE"));
+
+        readingStrategy("ou=a").prefetchProfiles(ctx, ObjectClass.ACCOUNT, Collections.emptySet(), changes);
+
+        assertTrue(searches.isEmpty());
+    }
+
+    @Test
+    public void verifyFilterOnSingleChangeProfile() throws NamingException {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setBaseContextsToSynchronize("ou=a");
+        conf.setAccountSearchFilter("(description=yes)");
+
+        final byte[] guid = guid(1);
+        final String name = "<GUID=" + GUID.getGuidAsString(guid) + ">";
+        final String filter = DirSyncUtils.getUserFilter(conf);
+        // description is not reported as not requested, or because it has no value
+        entries.put(name, FakeLdapContext.entry(
+                "cn=1,ou=a", "objectClass", "user", ADConnector.OBJECTGUID, guid).getAttributes());
+        found.put(filter, Collections.singletonList(FakeLdapContext.entry("cn=1,ou=a")));
+
+        final ADSyncStrategy strategy = readingStrategy(conf);
+        final ADSyncStrategy.SyncDeltaStream changes = strategy.new SyncDeltaStream(
+                ctx, ObjectClass.ACCOUNT, Collections.emptySet(), new SyncToken(bytes(INCOMING)), delta -> true);
+        changes.handle("ou=a", FakeLdapContext.entry("cn=1,ou=a", ADConnector.OBJECTGUID, guid, "sn", "1"));
+        changes.flush();
+
+        // no prefetch for a single change: profile read by GUID, with the attributes needed to verify the filter
+        assertEquals(Collections.singletonList(name), reads);
+        assertEquals(Collections.singletonList(Collections.singletonList("*")), readAttributes);
+
+        // undetermined in-process, then asked to the server
+        assertEquals(Collections.singletonList("cn=1,ou=a|" + filter), searches);
+        assertEquals(Collections.singletonList("CREATE_OR_UPDATE:cn=1,ou=a"), deltas);
+    }
+
+    @Test
+    public void handleEntriesInBatches() throws NamingException {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setBaseContextsToSynchronize("ou=a");
+        conf.setRetrieveDeletedUser(true);
+
+        // 1 matches the filter, 2 does not, 3 does not exist, 4 is out of the base contexts, 5 is not a user
+        final String filter = "(description=yes)";
+        final String verify = "(&" + filter + "(|(distinguishedName=cn=1,ou=a)(distinguishedName=cn=2,ou=a)"
+                + "(distinguishedName=cn=3,ou=a)(distinguishedName=cn=5,ou=a)))";
+        found.put(verify, Arrays.asList(
+                FakeLdapContext.entry("cn=1,ou=a", "objectClass", "user", "description", "yes"),
+                FakeLdapContext.entry("cn=5,ou=a", "objectClass", "group", "description", "yes")));
+        final String existing = "(|(distinguishedName=cn=2,ou=a)(distinguishedName=cn=3,ou=a))";
+        found.put(existing, Collections.singletonList(
+                FakeLdapContext.entry("cn=2,ou=a", "objectClass", "user", "description", "no")));
+        entries.put("cn=4,ou=b", FakeLdapContext.entry(
+                "cn=4,ou=b", "objectClass", "user", "description", "yes").getAttributes());
+
+        readingStrategy(conf).handleEntries(
+                ctx,
+                ObjectClass.ACCOUNT,
+                Arrays.asList("cn=1,ou=a", "cn=2,ou=a", "cn=3,ou=a", "cn=4,ou=b", "cn=5,ou=a"),
+                filter,
+                delta -> true,
+                null,
+                conf,
+                Collections.emptySet());
+
+        assertEquals(Arrays.asList("ou=a|" + verify, "ou=a|" + existing), searches);
+        assertEquals(Collections.singletonList("cn=4,ou=b"), reads);
+        assertEquals(Arrays.asList(
+                "CREATE_OR_UPDATE:cn=1,ou=a", "DELETE:cn=2,ou=a", "CREATE_OR_UPDATE:cn=4,ou=b"), deltas);
+    }
+
+    @Test
+    public void handleEntriesWithoutDeletes() throws NamingException {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setBaseContextsToSynchronize("ou=a");
+        conf.setRetrieveDeletedUser(false);
+
+        final String filter = "(description=yes)";
+        final String verify = "(&" + filter + "(|(distinguishedName=cn=1,ou=a)(distinguishedName=cn=2,ou=a)))";
+        found.put(verify, Collections.singletonList(
+                FakeLdapContext.entry("cn=1,ou=a", "objectClass", "user", "description", "yes")));
+
+        readingStrategy(conf).handleEntries(
+                ctx,
+                ObjectClass.ACCOUNT,
+                Arrays.asList("cn=1,ou=a", "cn=2,ou=a"),
+                filter,
+                delta -> true,
+                null,
+                conf,
+                Collections.emptySet());
+
+        // entries not matching the filter are not even looked for
+        assertEquals(Collections.singletonList("ou=a|" + verify), searches);
+        assertEquals(Collections.singletonList("CREATE_OR_UPDATE:cn=1,ou=a"), deltas);
+    }
+
+    private Attributes profile(final ADSyncStrategy strategy, final byte[] guid) throws NamingException {
+        return strategy.getProfile(ctx, GUID.getGuidAsString(guid), ObjectClass.ACCOUNT, Collections.emptySet());
+    }
+
+    private static byte[] guid(final int seed) {
+        final byte[] guid = new byte[16];
+        Arrays.fill(guid, (byte) seed);
+        return guid;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String value(final SyncToken token) {
+        return new String((byte[]) token.getValue(), StandardCharsets.UTF_8);
+    }
+
+    private static String cookie(final Control[] requestControls) {
+        for (Control control : requestControls == null ? new Control[0] : requestControls) {
+            if (ADDirSyncControl.OID.equals(control.getID())) {
+                // SEQUENCE { flags INTEGER, maxBytes INTEGER, cookie OCTET STRING }, all short lengths
+                final byte[] value = control.getEncodedValue();
+                int offset = 2;
+                String cookie = null;
+                while (offset < value.length) {
+                    final int length = value[offset + 1];
+                    cookie = new String(value, offset + 2, length, StandardCharsets.UTF_8);
+                    offset += 2 + length;
+                }
+                return cookie;
+            }
+        }
+        return null;
+    }
+
+    private static Control response(final boolean moreData, final String cookie) {
+        try {
+            final byte[] value = bytes(cookie);
+
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            content.write(new byte[] { 0x02, 0x01, (byte) (moreData ? 1 : 0), 0x02, 0x01, 0x00, 0x04 }, 0, 7);
+            content.write(value.length);
+            content.write(value, 0, value.length);
+
+            final ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+            sequence.write(0x30);
+            sequence.write(content.size());
+            sequence.write(content.toByteArray(), 0, content.size());
+
+            return new DirSyncResponseControl(DirSyncResponseControl.OID, false, sequence.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import org.junit.jupiter.api.Test;
+
+public class ADBerTest {
+
+    private static byte[] integer(final int value) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ADBer.writeInteger(out, value);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void writeInteger() {
+        assertArrayEquals(new byte[] { 0x02, 0x01, 0x00 }, integer(0));
+        assertArrayEquals(new byte[] { 0x02, 0x01, 0x7F }, integer(127));
+        assertArrayEquals(new byte[] { 0x02, 0x02, 0x00, (byte) 0x80 }, integer(128));
+        assertArrayEquals(new byte[] { 0x02, 0x01, (byte) 0xFF }, integer(-1));
+        assertArrayEquals(
+                new byte[] { 0x02, 0x04, (byte) 0x80, 0x00, 0x08, 0x01 },
+                integer(ADDirSyncControl.DEFAULT_FLAGS));
+    }
+
+    @Test
+    public void writeAndReadTLV() {
+        for (int length : new int[] { 0, 0x7F, 0x80, 0xFF, 0x100, 0x10000 }) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(0x30);
+            out.write(0);
+            ADBer.writeTLV(out, 0x04, new byte[length]);
+
+            final int[] tl = ADBer.readTL(out.toByteArray(), 2);
+            assertArrayEquals(new int[] { out.size() - length, length }, tl);
+        }
+    }
+}
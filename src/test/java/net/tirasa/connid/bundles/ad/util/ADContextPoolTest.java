@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.connid.bundles.ad.FakeLdapContext;
+import org.identityconnectors.common.Pair;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.jupiter.api.Test;
+
+public class ADContextPoolTest {
+
+    private final List<PooledContext> created = new ArrayList<>();
+
+    private final List<LdapContext> destroyed = new ArrayList<>();
+
+    private static class PooledContext extends FakeLdapContext {
+
+        private boolean valid = true;
+
+        private int validations;
+
+        PooledContext() throws NamingException {
+            super();
+        }
+
+        @Override
+        public Attributes getAttributes(final String name, final String[] attrIds) throws NamingException {
+            validations++;
+            if (!valid) {
+                throw new CommunicationException("Connection lost");
+            }
+            return new BasicAttributes(true);
+        }
+    }
+
+    private ADContextPool pool(
+            final int maxSize, final long maxIdleTime, final long maxLifetime, final long validationInterval) {
+
+        return new ADContextPool(
+                () -> {
+                    try {
+                        final PooledContext ctx = new PooledContext();
+                        created.add(ctx);
+                        return new Pair<>(ctx, null);
+                    } catch (NamingException e) {
+                        throw new ConnectorException(e);
+                    }
+                },
+                pair -> destroyed.add(pair.first),
+                maxSize,
+                maxIdleTime,
+                maxLifetime,
+                100L,
+                validationInterval);
+    }
+
+    @Test
+    public void lease() {
+        final ADContextPool pool = pool(2, 0, 0, 60000L);
+
+        final LdapContext ctx = pool.lease();
+        assertTrue(pool.isLeased(ctx));
+        pool.release(ctx);
+        assertFalse(pool.isLeased(ctx));
+
+        assertSame(ctx, pool.lease());
+        assertEquals(1, created.size());
+        assertTrue(destroyed.isEmpty());
+    }
+
+    @Test
+    public void maxSize() {
+        final ADContextPool pool = pool(2, 0, 0, 60000L);
+
+        final LdapContext ctx1 = pool.lease();
+        final LdapContext ctx2 = pool.lease();
+        assertNotSame(ctx1, ctx2);
+
+        assertThrows(ConnectorException.class, pool::lease);
+        assertEquals(2, created.size());
+
+        pool.release(ctx2);
+        assertSame(ctx2, pool.lease());
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void validateAfterIdleTime() throws InterruptedException {
+        final ADContextPool pool = pool(2, 0, 0, 10L);
+
+        final LdapContext ctx = pool.lease();
+        pool.release(ctx);
+
+        // released right now: not validated
+        assertSame(ctx, pool.lease());
+        pool.release(ctx);
+        assertEquals(0, created.get(0).validations);
+
+        Thread.sleep(30L);
+        assertSame(ctx, pool.lease());
+        pool.release(ctx);
+        assertEquals(1, created.get(0).validations);
+
+        created.get(0).valid = false;
+        Thread.sleep(30L);
+        final LdapContext other = pool.lease();
+        assertNotSame(ctx, other);
+        assertEquals(2, created.size());
+        assertEquals(1, destroyed.size());
+        assertSame(ctx, destroyed.get(0));
+    }
+
+    @Test
+    public void maxIdleTime() throws InterruptedException {
+        final ADContextPool pool = pool(2, 10L, 0, 60000L);
+
+        final LdapContext ctx = pool.lease();
+        pool.release(ctx);
+        Thread.sleep(30L);
+
+        assertNotSame(ctx, pool.lease());
+        assertEquals(1, destroyed.size());
+    }
+
+    @Test
+    public void maxLifetime() throws InterruptedException {
+        final ADContextPool pool = pool(2, 0, 20L, 60000L);
+
+        final LdapContext ctx = pool.lease();
+        Thread.sleep(40L);
+
+        // expired while leased: closed when given back
+        pool.release(ctx);
+        assertEquals(1, destroyed.size());
+
+        assertNotSame(ctx, pool.lease());
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void invalidate() {
+        final ADContextPool pool = pool(1, 0, 0, 60000L);
+
+        final LdapContext ctx = pool.lease();
+        pool.invalidate(ctx);
+        assertEquals(1, destroyed.size());
+
+        // the invalidated context does not count against the maximum size
+        assertNotSame(ctx, pool.lease());
+    }
+
+    @Test
+    public void close() {
+        final ADContextPool pool = pool(2, 0, 0, 60000L);
+
+        final LdapContext idle = pool.lease();
+        final LdapContext leased = pool.lease();
+        pool.release(idle);
+
+        pool.close();
+        assertEquals(1, destroyed.size());
+        assertThrows(ConnectorException.class, pool::lease);
+
+        pool.release(leased);
+        assertEquals(2, destroyed.size());
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.AttributeInUseException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.FakeLdapContext;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class ADMembershipBatcherTest {
+
+    private static final String GROUP = "cn=group,o=isp";
+
+    /**
+     * Group DN and changes of each modification written.
+     */
+    private final List<String> modifications = Collections.synchronizedList(new ArrayList<>());
+
+    private final ExecutorService operations = Executors.newCachedThreadPool();
+
+    private boolean closed;
+
+    private final FakeLdapContext ctx = new FakeLdapContext() {
+
+        @Override
+        public void modifyAttributes(final String name, final ModificationItem[] mods) throws NamingException {
+            final StringBuilder modification = new StringBuilder(name);
+            boolean failing = false;
+            for (ModificationItem mod : mods) {
+                modification.append('|').append(mod.getModificationOp() == DirContext.ADD_ATTRIBUTE ? "add" : "remove");
+                final NamingEnumeration<?> values = mod.getAttribute().getAll();
+                while (values.hasMore()) {
+                    final String value = values.next().toString();
+                    modification.append(' ').append(value);
+                    failing |= value.startsWith("cn=member,");
+                }
+            }
+            modifications.add(modification.toString());
+
+            if (failing) {
+                throw new AttributeInUseException(modification.toString());
+            }
+        }
+    };
+
+    private final ADConnection connection = new ADConnection(new ADConfiguration()) {
+
+        @Override
+        public LdapContext getInitialContext() {
+            return null;
+        }
+
+        @Override
+        public LdapContext leaseContext() {
+            return ctx;
+        }
+
+        @Override
+        public void releaseContext(final LdapContext ctx) {
+            // nothing to give back
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    };
+
+    public ADMembershipBatcherTest() throws NamingException {
+        // FakeLdapContext declares NamingException
+    }
+
+    @AfterEach
+    public void shutdown() {
+        operations.shutdownNow();
+    }
+
+    private ADMembershipBatcher acquire(final String key, final int maxBatchSize, final long maxLatency) {
+        return ADMembershipBatcher.acquire(key, () -> connection, maxBatchSize, maxLatency);
+    }
+
+    private Future<?> add(final ADMembershipBatcher batcher, final String memberDN) {
+        return operations.submit(() -> batcher.apply(
+                memberDN, Collections.singletonList(GROUP), Collections.emptyList()));
+    }
+
+    private Future<?> remove(final ADMembershipBatcher batcher, final String memberDN) {
+        return operations.submit(() -> batcher.apply(
+                memberDN, Collections.emptyList(), Collections.singletonList(GROUP)));
+    }
+
+    private static void await(final Future<?> future) throws Exception {
+        future.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void coalesce() throws Exception {
+        final ADMembershipBatcher batcher = acquire("coalesce", 3, 60000L);
+        try {
+            final Future<?> first = add(batcher, "cn=user1,o=isp");
+            final Future<?> second = add(batcher, "cn=user2,o=isp");
+            // nothing written before the batch is full
+            assertThrows(TimeoutException.class, () -> first.get(100, TimeUnit.MILLISECONDS));
+
+            final Future<?> third = add(batcher, "cn=user3,o=isp");
+            await(first);
+            await(second);
+            await(third);
+
+            assertEquals(1, modifications.size());
+            assertTrue(modifications.get(0).startsWith(GROUP + "|add "));
+            assertTrue(modifications.get(0).contains("cn=user1,o=isp"));
+            assertTrue(modifications.get(0).contains("cn=user2,o=isp"));
+            assertTrue(modifications.get(0).contains("cn=user3,o=isp"));
+        } finally {
+            batcher.release();
+        }
+    }
+
+    @Test
+    public void flushAfterLatency() throws Exception {
+        final ADMembershipBatcher batcher = acquire("latency", 100, 50L);
+        try {
+            await(add(batcher, "cn=user1,o=isp"));
+
+            assertEquals(Collections.singletonList(GROUP + "|add cn=user1,o=isp"), modifications);
+        } finally {
+            batcher.release();
+        }
+    }
+
+    @Test
+    public void fallbackPerMember() throws Exception {
+        final ADMembershipBatcher batcher = acquire("fallback", 2, 60000L);
+        try {
+            final Future<?> good = add(batcher, "cn=user1,o=isp");
+            final Future<?> bad = add(batcher, "cn=member,o=isp");
+
+            await(good);
+            final ExecutionException e = assertThrows(ExecutionException.class, () -> await(bad));
+            assertTrue(e.getCause() instanceof ConnectorException);
+            assertTrue(e.getCause().getMessage().contains("cn=member,o=isp"));
+
+            // the batch failed, then each member was written on its own
+            assertEquals(3, modifications.size());
+            assertTrue(modifications.contains(GROUP + "|add cn=user1,o=isp"));
+            assertTrue(modifications.contains(GROUP + "|add cn=member,o=isp"));
+        } finally {
+            batcher.release();
+        }
+    }
+
+    @Test
+    public void oppositeChangesInOrder() throws Exception {
+        final ADMembershipBatcher batcher = acquire("opposite", 100, 200L);
+        try {
+            final Future<?> added = add(batcher, "cn=user1,o=isp");
+            Thread.sleep(50L);
+            final Future<?> removed = remove(batcher, "cn=user1,o=isp");
+
+            await(added);
+            await(removed);
+
+            // the pending addition is written before the removal is batched
+            assertEquals(Arrays.asList(
+                    GROUP + "|add cn=user1,o=isp",
+                    GROUP + "|remove cn=user1,o=isp"), modifications);
+        } finally {
+            batcher.release();
+        }
+    }
+
+    @Test
+    public void flushOnRelease() throws Exception {
+        final ADMembershipBatcher batcher = acquire("release", 100, 60000L);
+        assertSame(batcher, acquire("release", 100, 60000L));
+
+        final Future<?> added = add(batcher, "cn=user1,o=isp");
+        Thread.sleep(100L);
+
+        batcher.release();
+        assertFalse(added.isDone());
+        assertTrue(modifications.isEmpty());
+        assertFalse(closed);
+
+        // last reference given back
+        batcher.release();
+        await(added);
+        assertEquals(Collections.singletonList(GROUP + "|add cn=user1,o=isp"), modifications);
+        assertTrue(closed);
+    }
+
+    @Test
+    public void keyedByCredentialsAndSettings() {
+        final ADConfiguration conf1 = new ADConfiguration();
+        conf1.setHost("localhost");
+        conf1.setPrincipal("cn=admin,o=isp");
+        conf1.setCredentials(new GuardedString("password1".toCharArray()));
+        conf1.setMembershipBatchSize(10);
+
+        final ADConfiguration conf2 = new ADConfiguration();
+        conf2.setHost("localhost");
+        conf2.setPrincipal("cn=admin,o=isp");
+        conf2.setCredentials(new GuardedString("password2".toCharArray()));
+        conf2.setMembershipBatchSize(10);
+
+        final ADConfiguration conf3 = new ADConfiguration();
+        conf3.setHost("localhost");
+        conf3.setPrincipal("cn=admin,o=isp");
+        conf3.setCredentials(new GuardedString("password1".toCharArray()));
+        conf3.setMembershipBatchSize(20);
+
+        final ADConnection conn1 = new ADConnection(conf1);
+        final ADConnection conn1bis = new ADConnection(conf1);
+        final ADConnection conn2 = new ADConnection(conf2);
+        final ADConnection conn3 = new ADConnection(conf3);
+        try {
+            assertSame(conn1.getMembershipBatcher(), conn1bis.getMembershipBatcher());
+            assertNotSame(conn1.getMembershipBatcher(), conn2.getMembershipBatcher());
+            assertNotSame(conn1.getMembershipBatcher(), conn3.getMembershipBatcher());
+        } finally {
+            conn1.close();
+            conn1bis.close();
+            conn2.close();
+            conn3.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapContext;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.FakeLdapContext;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.jupiter.api.Test;
+
+public class ADRangeRetrievalTest {
+
+    private static final Pattern RANGE = Pattern.compile("member;range=(\\d+)-(\\d+|\\*)");
+
+    /**
+     * Server's MaxValRange.
+     */
+    private static final int MAX_VAL_RANGE = 3;
+
+    private int members = 10;
+
+    /**
+     * Index of the first value whose window fails to be read, if any.
+     */
+    private int failFrom = Integer.MAX_VALUE;
+
+    private final FakeLdapContext ctx = new FakeLdapContext() {
+
+        @Override
+        public Attributes getAttributes(final Name name, final String[] attrIds) throws NamingException {
+            final Matcher matcher = RANGE.matcher(attrIds[0]);
+            assertTrue(matcher.matches());
+
+            final int from = Integer.parseInt(matcher.group(1));
+            if (from >= failFrom) {
+                throw new NamingException("Failed reading " + attrIds[0]);
+            }
+            int to = "*".equals(matcher.group(2)) ? from + MAX_VAL_RANGE - 1 : Integer.parseInt(matcher.group(2));
+            to = Math.min(Math.min(to, from + MAX_VAL_RANGE - 1), members - 1);
+
+            final BasicAttribute attr = new BasicAttribute(
+                    "member;range=" + from + "-" + (to == members - 1 ? "*" : String.valueOf(to)));
+            for (int i = from; i <= to; i++) {
+                attr.add("cn=" + i + ",o=isp");
+            }
+
+            final Attributes attrs = new BasicAttributes(true);
+            attrs.put(attr);
+            return attrs;
+        }
+    };
+
+    private final ADConnection connection = new ADConnection(new ADConfiguration()) {
+
+        @Override
+        public LdapContext getInitialContext() {
+            return null;
+        }
+
+        @Override
+        public LdapContext leaseContext() {
+            return ctx;
+        }
+
+        @Override
+        public void releaseContext(final LdapContext ctx) {
+            // nothing to give back
+        }
+    };
+
+    public ADRangeRetrievalTest() throws NamingException {
+        // FakeLdapContext declares NamingException
+    }
+
+    private List<Object> expected(final int from) {
+        final List<Object> expected = new ArrayList<>();
+        for (int i = from; i < members; i++) {
+            expected.add("cn=" + i + ",o=isp");
+        }
+        return expected;
+    }
+
+    @Test
+    public void retrieve() {
+        final List<List<Object>> windows = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+
+        final long count = new ADRangeRetrieval(connection).retrieve("cn=group,o=isp", "member", 0, window -> {
+            windows.add(window);
+            values.addAll(window);
+        });
+
+        assertEquals(members, count);
+        assertEquals(expected(0), values);
+        assertEquals(4, windows.size());
+    }
+
+    @Test
+    public void retrieveFrom() {
+        members = 100;
+        assertEquals(expected(30), new ADRangeRetrieval(connection).retrieve("cn=group,o=isp", "member", 30));
+    }
+
+    @Test
+    public void windowsPastTheEndDiscarded() {
+        // windows requested ahead past the last one fail
+        failFrom = members;
+
+        assertEquals(expected(0), new ADRangeRetrieval(connection).retrieve("cn=group,o=isp", "member", 0));
+    }
+
+    @Test
+    public void windowFailure() {
+        members = 100;
+        failFrom = 50;
+
+        assertThrows(
+                ConnectorException.class,
+                () -> new ADRangeRetrieval(connection).retrieve("cn=group,o=isp", "member", 0));
+    }
+
+    @Test
+    public void sharedExecutor() {
+        new ADRangeRetrieval(connection).retrieve("cn=group,o=isp", "member", 0);
+        final ExecutorService executor = connection.getRangeRetrievalExecutor();
+
+        new ADRangeRetrieval(connection).retrieve("cn=group,o=isp", "member", 0);
+        assertSame(executor, connection.getRangeRetrievalExecutor());
+
+        connection.close();
+        assertTrue(executor.isShutdown());
+    }
+}
@@ -0,0 +1,497 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import net.tirasa.adsddl.ntsd.SID;
+import net.tirasa.adsddl.ntsd.utils.Hex;
+import net.tirasa.adsddl.ntsd.utils.NumberFacility;
+import net.tirasa.connid.bundles.ad.ADConfiguration;
+import net.tirasa.connid.bundles.ad.ADConnection;
+import net.tirasa.connid.bundles.ad.ADConnector;
+import net.tirasa.connid.bundles.ad.FakeLdapContext;
+import net.tirasa.connid.bundles.ad.crud.ADUpdate;
+import net.tirasa.connid.bundles.ad.schema.ADSchema;
+import net.tirasa.connid.bundles.ldap.commons.LdapConstants;
+import net.tirasa.connid.bundles.ldap.schema.LdapSchema;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.AttributeDeltaBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.SchemaBuilder;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.junit.jupiter.api.Test;
+
+public class ADUtilitiesTest {
+
+    private static final String DOMAIN_USERS = "cn=Domain Users,cn=Users,dc=test";
+
+    private static final String GROUPS = "(objectClass=group)";
+
+    /**
+     * Results of each search, by filter.
+     */
+    private final Map<String, List<SearchResult>> found = new HashMap<>();
+
+    /**
+     * Base DN and filter of each search performed.
+     */
+    private final List<String> searches = new ArrayList<>();
+
+    /**
+     * Attributes of each entry read directly, by DN.
+     */
+    private final Map<String, Attributes> entries = new HashMap<>();
+
+    /**
+     * DN of each entry read directly.
+     */
+    private final List<String> reads = new ArrayList<>();
+
+    /**
+     * DN and attribute names of each modification performed.
+     */
+    private final List<String> modifications = new ArrayList<>();
+
+    private final FakeLdapContext ctx = new FakeLdapContext() {
+
+        @Override
+        public void modifyAttributes(final String name, final ModificationItem[] mods) throws NamingException {
+            if (!entries.containsKey(name)) {
+                throw new NameNotFoundException(name);
+            }
+            for (ModificationItem mod : mods) {
+                modifications.add(name + "|" + mod.getAttribute().getID());
+            }
+        }
+
+        @Override
+        public Attributes getAttributes(final String name, final String[] attrIds) throws NamingException {
+            reads.add(name);
+            if (!entries.containsKey(name)) {
+                throw new NameNotFoundException(name);
+            }
+            return entries.get(name);
+        }
+
+        @Override
+        public LdapContext newInstance(final Control[] requestControls) {
+            return this;
+        }
+
+        @Override
+        public NamingEnumeration<SearchResult> search(
+                final String name, final String filter, final SearchControls cons) throws NamingException {
+
+            searches.add(name + "|" + filter);
+            return results(found.getOrDefault(filter, Collections.emptyList()));
+        }
+    };
+
+    private final ADConfiguration conf = new ADConfiguration();
+
+    private final ADConnection connection;
+
+    private final ADSchema schema;
+
+    private final ADUtilities utils;
+
+    public ADUtilitiesTest() throws NamingException {
+        conf.setBaseContexts("dc=test");
+
+        connection = new ADConnection(conf) {
+
+            @Override
+            public LdapContext leaseContext() {
+                return ctx;
+            }
+
+            @Override
+            public LdapContext leaseContext(final Control[] controls) {
+                return ctx;
+            }
+
+            @Override
+            public LdapContext getInitialContext() {
+                return ctx;
+            }
+
+            @Override
+            public LdapSchema getSchema() {
+                return ADUtilitiesTest.this.schema;
+            }
+        };
+        schema = new ADSchema(connection) {
+
+            @Override
+            public Schema schema() {
+                final SchemaBuilder builder = new SchemaBuilder(ADConnector.class);
+                builder.defineObjectClass(ObjectClass.ACCOUNT_NAME, Collections.singleton(Name.INFO));
+                return builder.build();
+            }
+        };
+        utils = new ADUtilities(connection);
+    }
+
+    private static SID sid(final long rid) {
+        final SID sid = SID.newInstance(new byte[] { 0, 0, 0, 0, 0, 5 });
+        sid.setRevision((byte) 1);
+        sid.addSubAuthority(NumberFacility.getUIntBytes(21));
+        sid.addSubAuthority(NumberFacility.getUIntBytes(1234));
+        sid.addSubAuthority(NumberFacility.getUIntBytes(rid));
+        return sid;
+    }
+
+    private static Attributes profile(final long rid, final long primaryGroupID) {
+        final Attributes profile = new BasicAttributes(true);
+        profile.put(ADConnector.OBJECTSID, sid(rid).toByteArray());
+        profile.put(ADConnector.PRIMARYGROUPID, String.valueOf(primaryGroupID));
+        return profile;
+    }
+
+    private static Attributes user(final String name, final String... memberOf) {
+        final Attributes profile = new BasicAttributes(true);
+        profile.put("sAMAccountName", name);
+        if (memberOf.length > 0) {
+            final BasicAttribute attr = new BasicAttribute(ADConnector.MEMBEROF);
+            Arrays.stream(memberOf).forEach(attr::add);
+            profile.put(attr);
+        }
+        return profile;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> ldapGroups(final String dn, final Attributes profile) throws NamingException {
+        return new HashSet<>((List<String>) (List<?>) utils.createConnectorObject(
+                dn, profile, Collections.singleton(LdapConstants.LDAP_GROUPS_NAME), ObjectClass.ACCOUNT).
+                getAttributeByName(LdapConstants.LDAP_GROUPS_NAME).getValue());
+    }
+
+    private static String account(final String name) {
+        return "(&(&(objectClass=top)(objectClass=person)(objectClass=organizationalPerson)(objectClass=user))"
+                + "(sAMAccountName=" + name + "))";
+    }
+
+    private long groupScans() {
+        return searches.stream().filter(search -> search.endsWith("|" + GROUPS)).count();
+    }
+
+    private static String filter(final long primaryGroupID) {
+        return String.format("(&(objectclass=group)(%s=%s))",
+                ADConnector.OBJECTSID, Hex.getEscaped(sid(primaryGroupID).toByteArray()));
+    }
+
+    @Test
+    public void primaryGroupSearchedOnce() throws NamingException {
+        found.put(filter(513), Collections.singletonList(FakeLdapContext.entry(DOMAIN_USERS)));
+
+        assertEquals(DOMAIN_USERS, utils.getPrimaryGroupDN(profile(1105, 513), "dc=test"));
+        assertEquals(DOMAIN_USERS, utils.getPrimaryGroupDN(profile(1106, 513), "dc=test"));
+
+        assertEquals(Collections.singletonList("dc=test|" + filter(513)), searches);
+        assertEquals(1, connection.getPrimaryGroupCache().getHits());
+    }
+
+    @Test
+    public void cachedPrimaryGroupCheckedAgainstBaseContexts() throws NamingException {
+        found.put(filter(513), Collections.singletonList(FakeLdapContext.entry(DOMAIN_USERS)));
+
+        assertEquals(DOMAIN_USERS, utils.getPrimaryGroupDN(profile(1105, 513), "cn=Users,dc=test"));
+        assertNull(utils.getPrimaryGroupDN(profile(1106, 513), "ou=groups,dc=test"));
+
+        assertEquals(1, searches.size());
+    }
+
+    @Test
+    public void missingPrimaryGroupCached() throws NamingException {
+        assertNull(utils.getPrimaryGroupDN(profile(1105, 1200), "dc=test"));
+        assertNull(utils.getPrimaryGroupDN(profile(1106, 1200), "dc=test"));
+
+        assertEquals(1, searches.size());
+        assertEquals(1, connection.getPrimaryGroupCache().size());
+    }
+
+    @Test
+    public void primaryGroupPerSID() throws NamingException {
+        found.put(filter(513), Collections.singletonList(FakeLdapContext.entry(DOMAIN_USERS)));
+        found.put(filter(1200), Collections.singletonList(FakeLdapContext.entry("cn=Staff,dc=test")));
+
+        assertEquals(DOMAIN_USERS, utils.getPrimaryGroupDN(profile(1105, 513), "dc=test"));
+        assertEquals("cn=Staff,dc=test", utils.getPrimaryGroupDN(profile(1106, 1200), "dc=test"));
+
+        assertEquals(2, searches.size());
+        assertTrue(searches.get(1).endsWith(filter(1200)));
+    }
+
+    @Test
+    public void noPrimaryGroupWithoutProfile() throws NamingException {
+        final Attributes profile = new BasicAttributes(true);
+        profile.put(ADConnector.OBJECTSID, sid(1105).toByteArray());
+
+        assertNull(utils.getPrimaryGroupDN(profile, "dc=test"));
+        assertTrue(searches.isEmpty());
+    }
+
+    @Test
+    public void ldapGroupsFromMemberOf() throws NamingException {
+        conf.setLdapGroupsRetrieval(ADConfiguration.LDAP_GROUPS_RETRIEVAL_MEMBEROF);
+        conf.setGroupBaseContexts("ou=groups,dc=test");
+
+        assertEquals(
+                Collections.singleton("cn=g1,ou=groups,dc=test"),
+                ldapGroups("cn=u1,ou=people,dc=test",
+                        user("u1", "cn=g1,ou=groups,dc=test", "cn=g2,ou=other,dc=test")));
+        assertEquals(Collections.emptySet(), ldapGroups("cn=u2,ou=people,dc=test", user("u2")));
+        assertTrue(searches.isEmpty());
+    }
+
+    @Test
+    public void ldapGroupsFromMemberOfRangeSearched() throws NamingException {
+        conf.setLdapGroupsRetrieval(ADConfiguration.LDAP_GROUPS_RETRIEVAL_MEMBEROF);
+        conf.setGroupBaseContexts("ou=groups,dc=test");
+
+        final Attributes profile = user("u1");
+        profile.put(ADConnector.MEMBEROF + ";range=0-1499", "cn=g1,ou=groups,dc=test");
+        found.put("(member=cn=u1,ou=people,dc=test)",
+                Collections.singletonList(FakeLdapContext.entry("cn=g1,ou=groups,dc=test")));
+
+        assertEquals(Collections.singleton("cn=g1,ou=groups,dc=test"), ldapGroups("cn=u1,ou=people,dc=test", profile));
+        assertEquals(Collections.singletonList("ou=groups,dc=test|(member=cn=u1,ou=people,dc=test)"), searches);
+    }
+
+    @Test
+    public void ldapGroupsFromIndex() throws NamingException {
+        conf.setLdapGroupsRetrieval(ADConfiguration.LDAP_GROUPS_RETRIEVAL_INDEX);
+        found.put(GROUPS, Arrays.asList(
+                FakeLdapContext.entry("cn=g1,dc=test", "member", "cn=u150,dc=test"),
+                FakeLdapContext.entry("cn=g2,dc=test", "member", "CN=u150,DC=test")));
+        utils.enableMembershipIndex();
+
+        for (int i = 1; i < 150; i++) {
+            ldapGroups("cn=u" + i + ",dc=test", user("u" + i));
+        }
+        assertEquals(
+                new HashSet<>(Arrays.asList("cn=g1,dc=test", "cn=g2,dc=test")),
+                ldapGroups("cn=u150,dc=test", user("u150")));
+
+        // entries are searched for by member up to the threshold, then the index is built once
+        assertEquals(1, groupScans());
+        assertEquals(101, searches.size());
+    }
+
+    @Test
+    public void emptyIndexBuiltOnce() throws NamingException {
+        conf.setLdapGroupsRetrieval(ADConfiguration.LDAP_GROUPS_RETRIEVAL_INDEX);
+        utils.enableMembershipIndex();
+
+        for (int i = 1; i <= 300; i++) {
+            assertTrue(ldapGroups("cn=u" + i + ",dc=test", user("u" + i)).isEmpty());
+        }
+
+        assertEquals(1, groupScans());
+        assertEquals(101, searches.size());
+    }
+
+    @Test
+    public void failedIndexBuiltOnce() throws NamingException {
+        conf.setLdapGroupsRetrieval(ADConfiguration.LDAP_GROUPS_RETRIEVAL_INDEX);
+        utils.enableMembershipIndex();
+
+        final ADUtilities failing = new ADUtilities(connection) {
+
+            @Override
+            public Map<LdapName, Set<String>> buildMembershipIndex(final String... baseContexts) {
+                searches.add("failed|" + GROUPS);
+                return null;
+            }
+        };
+        failing.enableMembershipIndex();
+
+        for (int i = 1; i <= 300; i++) {
+            failing.createConnectorObject("cn=u" + i + ",dc=test", user("u" + i),
+                    Collections.singleton(LdapConstants.LDAP_GROUPS_NAME), ObjectClass.ACCOUNT);
+        }
+
+        // entries keep being searched for by member
+        assertEquals(1, groupScans());
+        assertEquals(301, searches.size());
+    }
+
+    @Test
+    public void indexNotBuiltForFewEntries() throws NamingException {
+        conf.setLdapGroupsRetrieval(ADConfiguration.LDAP_GROUPS_RETRIEVAL_INDEX);
+        utils.enableMembershipIndex();
+
+        for (int i = 1; i <= 100; i++) {
+            ldapGroups("cn=u" + i + ",dc=test", user("u" + i));
+        }
+
+        assertEquals(0, groupScans());
+    }
+
+    @Test
+    public void entryDNCachedAfterSearch() {
+        found.put(account("u1"), Collections.singletonList(
+                FakeLdapContext.entry("cn=u1,dc=test", "sAMAccountName", "u1")));
+        entries.put("cn=u1,dc=test", user("u1"));
+
+        assertEquals("cn=u1,dc=test",
+                utils.getEntryToBeUpdated(new Uid("u1"), ObjectClass.ACCOUNT).getName().getNameValue());
+        assertEquals("cn=u1,dc=test",
+                utils.getEntryToBeUpdated(new Uid("u1"), ObjectClass.ACCOUNT).getName().getNameValue());
+
+        // the second update reads the cached DN instead of searching
+        assertEquals(1, searches.size());
+        assertEquals(Collections.singletonList("cn=u1,dc=test"), reads);
+    }
+
+    @Test
+    public void cachedEntryDNCheckedAgainstUid() {
+        // the entry was moved and another one was created with its former DN
+        utils.cacheEntryDN(ObjectClass.ACCOUNT, new Uid("u1"), "cn=u1,dc=test");
+        entries.put("cn=u1,dc=test", user("u2"));
+        entries.put("cn=u1,ou=moved,dc=test", user("u1"));
+        found.put(account("u1"), Collections.singletonList(
+                FakeLdapContext.entry("cn=u1,ou=moved,dc=test", "sAMAccountName", "u1")));
+
+        assertEquals("cn=u1,ou=moved,dc=test",
+                utils.getEntryToBeUpdated(new Uid("u1"), ObjectClass.ACCOUNT).getName().getNameValue());
+        assertEquals(1, searches.size());
+
+        // the DN found replaces the cached one
+        assertEquals("cn=u1,ou=moved,dc=test",
+                utils.getEntryToBeUpdated(new Uid("u1"), ObjectClass.ACCOUNT).getName().getNameValue());
+        assertEquals(1, searches.size());
+        assertEquals(Arrays.asList("cn=u1,dc=test", "cn=u1,ou=moved,dc=test"), reads);
+    }
+
+    @Test
+    public void missingCachedEntryDNSearched() {
+        utils.cacheEntryDN(ObjectClass.ACCOUNT, new Uid("u1"), "cn=u1,dc=test");
+
+        assertThrows(ConnectorException.class, () -> utils.getEntryToBeUpdated(new Uid("u1"), ObjectClass.ACCOUNT));
+        assertEquals(Collections.singletonList("cn=u1,dc=test"), reads);
+        assertEquals(1, searches.size());
+        assertEquals(0, connection.getEntryDNCache().size());
+    }
+
+    @Test
+    public void entryDNInvalidatedOnDelete() {
+        utils.cacheEntryDN(ObjectClass.ACCOUNT, new Uid("u1"), "cn=u1,dc=test");
+        entries.put("cn=u1,dc=test", user("u1"));
+
+        utils.invalidateEntryDN(ObjectClass.ACCOUNT, new Uid("U1"));
+
+        assertThrows(ConnectorException.class, () -> utils.getEntryToBeUpdated(new Uid("u1"), ObjectClass.ACCOUNT));
+        assertTrue(reads.isEmpty());
+        assertEquals(1, searches.size());
+    }
+
+    @Test
+    public void entryDNRecachedOnRename() {
+        utils.cacheEntryDN(ObjectClass.ACCOUNT, new Uid("u1"), "cn=u1,dc=test");
+        entries.put("cn=u1,dc=test", user("u1"));
+
+        // as done on update, when both uid and DN change
+        utils.invalidateEntryDN(ObjectClass.ACCOUNT, new Uid("u1"));
+        utils.cacheEntryDN(ObjectClass.ACCOUNT, new Uid("u1new"), "cn=u1new,dc=test");
+        entries.put("cn=u1new,dc=test", user("u1new"));
+
+        assertEquals("cn=u1new,dc=test",
+                utils.getEntryToBeUpdated(new Uid("u1new"), ObjectClass.ACCOUNT).getName().getNameValue());
+        assertTrue(searches.isEmpty());
+
+        assertThrows(ConnectorException.class, () -> utils.getEntryToBeUpdated(new Uid("u1"), ObjectClass.ACCOUNT));
+        assertEquals(Collections.singletonList("cn=u1new,dc=test"), reads);
+        assertEquals(1, searches.size());
+    }
+
+    @Test
+    public void updateDeltaOnCachedEntryDN() {
+        utils.cacheEntryDN(ObjectClass.ACCOUNT, new Uid("u1"), "cn=u1,dc=test");
+        entries.put("cn=u1,dc=test", user("u1"));
+
+        new ADUpdate(connection, ObjectClass.ACCOUNT, new Uid("u1"), null).updateDelta(
+                Collections.singleton(AttributeDeltaBuilder.build("description", "updated")));
+
+        assertTrue(searches.isEmpty());
+        assertEquals(Collections.singletonList("cn=u1,dc=test"), reads);
+        assertEquals(Collections.singletonList("cn=u1,dc=test|description"), modifications);
+    }
+
+    @Test
+    public void updateDeltaOnEntryDNOption() {
+        entries.put("cn=u1,dc=test", user("u1"));
+
+        new ADUpdate(connection, ObjectClass.ACCOUNT, new Uid("u1"), new OperationOptionsBuilder().
+                setOption(ADConnector.OP_ENTRY_DN, "cn=u1,dc=test").build()).updateDelta(
+                Collections.singleton(AttributeDeltaBuilder.build("description", "updated")));
+
+        assertTrue(searches.isEmpty());
+        assertEquals(Collections.singletonList("cn=u1,dc=test|description"), modifications);
+
+        // the DN given is cached for subsequent updates
+        assertEquals("cn=u1,dc=test",
+                utils.getEntryToBeUpdated(new Uid("u1"), ObjectClass.ACCOUNT).getName().getNameValue());
+        assertTrue(searches.isEmpty());
+    }
+
+    @Test
+    public void entryDNInvalidatedOnFailedUpdateDelta() {
+        utils.cacheEntryDN(ObjectClass.ACCOUNT, new Uid("u1"), "cn=u1,dc=test");
+        entries.put("cn=u1,dc=test", user("u1"));
+
+        // the entry is gone by the time it is modified
+        final ADUpdate update = new ADUpdate(connection, ObjectClass.ACCOUNT, new Uid("u1"), null) {
+
+            @Override
+            protected void modifyAttributes(final String entryDN, final List<ModificationItem> modItems) {
+                entries.remove(entryDN);
+                super.modifyAttributes(entryDN, modItems);
+            }
+        };
+        assertThrows(ConnectorException.class, () -> update.updateDelta(
+                Collections.singleton(AttributeDeltaBuilder.build("description", "updated"))));
+
+        assertEquals(0, connection.getEntryDNCache().size());
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.ad.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class TimedCacheTest {
+
+    @Test
+    public void loadOnce() {
+        final TimedCache<String, String> cache = new TimedCache<>(10, 60000L);
+        final AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("A", cache.get("a", key -> {
+            loads.incrementAndGet();
+            return "A";
+        }));
+        assertEquals("A", cache.get("a", key -> {
+            loads.incrementAndGet();
+            return "B";
+        }));
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void nullIsNotCached() {
+        final TimedCache<String, String> cache = new TimedCache<>(10, 60000L);
+
+        assertNull(cache.get("a", key -> null));
+        assertEquals(0, cache.size());
+        assertEquals("A", cache.get("a", key -> "A"));
+    }
+
+    @Test
+    public void expire() throws InterruptedException {
+        final TimedCache<String, String> cache = new TimedCache<>(10, 10L);
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+
+        Thread.sleep(50L);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        final TimedCache<String, String> cache = new TimedCache<>(2, 60000L);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.put("c", "C");
+
+        assertEquals(2, cache.size());
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void invalidate() {
+        final TimedCache<String, String> cache = new TimedCache<>(10, 60000L);
+        cache.put("a", "A");
+        cache.put("b", "B");
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals("B", cache.get("b"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}